@@ -1,18 +1,37 @@
 package com.pdm.spectrogram.activity;
 
+import android.Manifest;
+import android.app.ActivityManager;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
+import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.Toolbar;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.TextView;
 
 import com.pdm.spectrogram.R;
+import com.pdm.spectrogram.cache.AnalysisCache;
+import com.pdm.spectrogram.cache.CachedAnalysis;
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.engine.FloatSpectrumEngine;
+import com.pdm.spectrogram.engine.MultiChannelEngine;
+import com.pdm.spectrogram.engine.SampleRing;
+import com.pdm.spectrogram.engine.SpectrumEngine;
+import com.pdm.spectrogram.engine.WaveformPyramid;
+import com.pdm.spectrogram.source.AudioSource;
+import com.pdm.spectrogram.source.MicrophoneSource;
+import com.pdm.spectrogram.utils.FrameClock;
+import com.pdm.spectrogram.utils.MappedWaveFile;
 import com.pdm.spectrogram.utils.WaveFileReader;
 import com.pdm.spectrogram.view.Spectrogram;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -24,12 +43,35 @@ import java.io.InputStream;
  */
 public class MainActivity extends BaseActivity {
     Toolbar toolbar;
-    private static final int HANDLER_SPECTROGRAM = 0;
     private WaveFileReader reader = null;
-    private int[] data = null;
+    //asset没有压缩时直接映射到内存，按位置读取，不用流式解码
+    private MappedWaveFile mappedWave = null;
     private boolean isOpenThisActivity = false;
     //采样率
     private double samplerate = 0;
+    //声道数，多声道时窗口里是交错排列的采样，每个声道并行分析
+    private int channels = 1;
+    private MultiChannelEngine multiChannelEngine = null;
+    //低内存设备用float精度的引擎
+    private boolean lowRam = false;
+    //刷新帧率，每帧前进的采样数由采样率和帧率算出
+    private double frameRate = 30;
+    //分析结果的磁盘缓存，打开分析过的文件时直接取每帧的频段能量
+    private AnalysisCache cache;
+    //当前文件的缓存，还没有时为null，播放线程每帧检查
+    private volatile CachedAnalysis cached = null;
+    //查缓存、没有时在后台把整个文件分析一遍
+    private Thread cacheThread = null;
+    private static final int REQUEST_RECORD_AUDIO = 1;
+    //实时采集的刷新频率，分析线程攒够samplerate / LIVE_RATE个新采样就算一次
+    private static final int LIVE_RATE = 120;
+    //true=显示麦克风，false=播放文件
+    private boolean live = false;
+    private AudioSource liveSource = null;
+    //切换麦克风/文件的菜单项，标题显示切过去的那一个
+    private MenuItem sourceItem = null;
+    //文件的采样位数，从麦克风切回来时恢复
+    private int fileBits = 16;
     //频谱
     private Spectrogram mSpectrogram;
     private Thread thread = null;
@@ -45,11 +87,22 @@ public class MainActivity extends BaseActivity {
         mTitle = (TextView) findViewById(R.id.title);
         mTitle.setText("频谱图");
         mSpectrogram = (Spectrogram) findViewById(R.id.spectrogram);
+        cache = new AnalysisCache(new File(getCacheDir(), "analysis"));
+        //低内存设备用float精度的引擎，内存和缓存占用减半
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            ActivityManager am = (ActivityManager) getSystemService(ACTIVITY_SERVICE);
+            lowRam = am.isLowRamDevice();
+            if (lowRam) {
+                mSpectrogram.setSpectrumEngine(new FloatSpectrumEngine());
+            }
+        }
     }
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main, menu);
+        sourceItem = menu.findItem(R.id.action_source);
+        updateSourceTitle();
         return true;
     }
 
@@ -58,42 +111,260 @@ public class MainActivity extends BaseActivity {
         switch (item.getItemId()) {
             case R.id.action_edit:
                 mSpectrogram.changeShowType();
-                if (mTitle.getText().toString().equals("频谱图")) {
+                int type = mSpectrogram.getShowType();
+                if (type == Spectrogram.WAVE_TYPE_SHOW) {
                     mTitle.setText("波形图");
+                } else if (type == Spectrogram.WATERFALL_TYPE_SHOW) {
+                    mTitle.setText("瀑布图");
                 } else {
                     mTitle.setText("频谱图");
                 }
                 break;
+            case R.id.action_source:
+                if (live) {
+                    stopLive();
+                    startPlayback();
+                } else if (requestMicrophone()) {
+                    stopPlayback();
+                    startLive();
+                }
+                updateSourceTitle();
+                break;
         }
         return super.onOptionsItemSelected(item);
     }
 
-    private void initWaveData() {
+    /**
+     * 没有录音权限时去申请，结果在onRequestPermissionsResult里
+     *
+     * @return 已经有权限
+     */
+    private boolean requestMicrophone() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M
+                || ContextCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO)
+                == PackageManager.PERMISSION_GRANTED) {
+            return true;
+        }
+        ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.RECORD_AUDIO},
+                REQUEST_RECORD_AUDIO);
+        return false;
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == REQUEST_RECORD_AUDIO && grantResults.length > 0
+                && grantResults[0] == PackageManager.PERMISSION_GRANTED && !live) {
+            stopPlayback();
+            startLive();
+            updateSourceTitle();
+        }
+    }
+
+    private void updateSourceTitle() {
+        if (sourceItem != null) {
+            //麦克风打不开时live会回到false
+            sourceItem.setTitle(live ? "文件" : "麦克风");
+        }
+    }
+
+    /**
+     * 麦克风的采样写进环形缓存，分析线程直接从里面读最新的窗口，不经过播放线程
+     */
+    private void startLive() {
+        live = true;
+        //麦克风是单声道
+        if (multiChannelEngine != null) {
+            mSpectrogram.setSpectrumEngine(lowRam ? new FloatSpectrumEngine() : new DoubleSpectrumEngine());
+        }
+        MicrophoneSource source = new MicrophoneSource();
+        int frameSize = mSpectrogram.getFrameSize();
+        //留几个窗口的余量，分析线程偶尔慢一点也不丢数据
+        SampleRing ring = new SampleRing(4 * frameSize, frameSize);
         try {
-            if (data == null) {
-                AssetManager am = getAssets();
-                InputStream inputStream = am.open("default.wav");
-                reader = new WaveFileReader();
-                data = reader.initReader(inputStream)[0]; // 获取第一声道
+            source.start(ring);
+        } catch (IOException e) {
+            e.printStackTrace();
+            live = false;
+            return;
+        }
+        liveSource = source;
+        mSpectrogram.setBitspersample(source.getBitsPerSample());
+        mSpectrogram.setSampleRing(ring, (int) (source.getSampleRate() / LIVE_RATE), source.getSampleRate());
+    }
+
+    private void stopLive() {
+        live = false;
+        if (liveSource != null) {
+            liveSource.stop();
+            liveSource = null;
+        }
+        mSpectrogram.setSampleRing(null, 0, 0);
+        if (multiChannelEngine != null) {
+            mSpectrogram.setSpectrumEngine(multiChannelEngine);
+        }
+        mSpectrogram.setBitspersample(fileBits);
+    }
+
+    private void initWaveData() {
+        if (mappedWave == null && reader == null) {
+            mappedWave = mapWave();
+            if (mappedWave != null) {
+                samplerate = mappedWave.getSampleRate();
+                fileBits = mappedWave.getBitPerSample();
+                mSpectrogram.setBitspersample(fileBits);
+                setChannels(mappedWave.getNumChannels());
+                return;
+            }
+            reader = new WaveFileReader();
+            if (openWave()) {
                 //获取采样率
                 samplerate = reader.getSampleRate();
-                mSpectrogram.setBitspersample(reader.getBitPerSample());//设置采样点的编码长度
+                fileBits = reader.getBitPerSample();
+                mSpectrogram.setBitspersample(fileBits);//设置采样点的编码长度
+                setChannels(reader.getNumChannels());
             }
+        }
+    }
+
+    /**
+     * 多声道的文件换成多声道引擎，所有声道都参与分析，不再只取第一个声道
+     */
+    private void setChannels(int channels) {
+        this.channels = channels;
+        if (channels > 1 && multiChannelEngine == null) {
+            multiChannelEngine = new MultiChannelEngine(new AnalysisConfig(), channels, lowRam);
+            mSpectrogram.setSpectrumEngine(multiChannelEngine);
+        }
+    }
+
+    /**
+     * 把asset映射到内存，asset被压缩过或者格式不支持时返回null，改用流式读取
+     */
+    private MappedWaveFile mapWave() {
+        try {
+            AssetFileDescriptor afd = getAssets().openFd("default.wav");
+            return new MappedWaveFile(afd.createInputStream().getChannel(),
+                    afd.getStartOffset(), afd.getLength());
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 流式打开wav，只解析头，采样在播放线程里一段一段地读
+     */
+    private boolean openWave() {
+        try {
+            AssetManager am = getAssets();
+            InputStream inputStream = am.open("default.wav");
+            return reader.open(inputStream);
         } catch (IOException e) {
             // TODO Auto-generated catch block
             e.printStackTrace();
+            return false;
         }
     }
 
+    /**
+     * 后台线程：算文件的哈希查缓存，没有就用和显示一样的参数把整个文件分析一遍写进缓存，
+     * 分析的时候播放照常实时计算，缓存好了播放线程下一帧就改用缓存
+     */
+    private Runnable cacheRun = new Runnable() {
+        @Override
+        public void run() {
+            AnalysisConfig config = new AnalysisConfig();
+            SpectrumEngine engine = null;
+            WaveFileReader source = new WaveFileReader();
+            try {
+                InputStream in = getAssets().open("default.wav");
+                String hash;
+                try {
+                    hash = AnalysisCache.hash(in);
+                } finally {
+                    in.close();
+                }
+                String key = AnalysisCache.key(hash, config, channels, lowRam);
+                CachedAnalysis analysis = cache.open(key);
+                if (analysis == null) {
+                    if (!source.open(getAssets().open("default.wav"))) {
+                        return;
+                    }
+                    if (channels > 1) {
+                        engine = new MultiChannelEngine(config, channels, lowRam);
+                    } else {
+                        engine = lowRam ? new FloatSpectrumEngine(config) : new DoubleSpectrumEngine(config);
+                    }
+                    analysis = cache.build(key, source, engine, config.getHopSize());
+                }
+                if (analysis == null || analysis.getBandCount() != mSpectrogram.getBandCount()) {
+                    return;
+                }
+                WaveformPyramid overview = new WaveformPyramid(analysis.getWaveformBase());
+                analysis.loadWaveform(overview);
+                mSpectrogram.setWaveOverview(overview);
+                cached = analysis;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                //onStop时中断，下次onStart再来
+            } finally {
+                source.close();
+                if (engine instanceof MultiChannelEngine) {
+                    ((MultiChannelEngine) engine).shutdown();
+                }
+            }
+        }
+    };
+
     @Override
     protected void onStart() {
         initWaveData();
+        if (cached == null && cacheThread == null && samplerate > 0) {
+            cacheThread = new Thread(cacheRun, "AnalysisCache");
+            cacheThread.setPriority(Thread.MIN_PRIORITY);
+            cacheThread.start();
+        }
+        if (live) {
+            startLive();
+        } else {
+            startPlayback();
+        }
+        super.onStart();
+    }
+
+    private void startPlayback() {
         if (!isOpenThisActivity && thread == null) {
             thread = new Thread(specRun);
             isOpenThisActivity = true;
             thread.start();
         }
-        super.onStart();
+    }
+
+    /**
+     * 停止播放线程并等它结束：之后才能给频谱接环形缓存，或者关掉它还在用的文件和引擎，
+     * 否则它可能在这之间又调ShowSpectrogram把分析线程启动起来
+     */
+    private void stopPlayback() {
+        isOpenThisActivity = false;
+        Thread old = thread;
+        thread = null;
+        if (old == null) {
+            return;
+        }
+        old.interrupt();
+        boolean interrupted = false;
+        while (old.isAlive()) {
+            try {
+                old.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     @Override
@@ -108,53 +379,154 @@ public class MainActivity extends BaseActivity {
 
     @Override
     protected void onStop() {
-        isOpenThisActivity = false;
-        thread.interrupt();
-        thread = null;
+        stopPlayback();
+        if (liveSource != null) {
+            //回来时onStart重新打开麦克风
+            liveSource.stop();
+            liveSource = null;
+        }
+        if (cacheThread != null) {
+            cacheThread.interrupt();
+            cacheThread = null;
+        }
         super.onStop();
     }
 
-    Handler handler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case HANDLER_SPECTROGRAM:
-                    mSpectrogram.ShowSpectrogram((int[]) msg.obj, false, samplerate);
-                    break;
-            }
-            super.handleMessage(msg);
+    @Override
+    protected void onDestroy() {
+        //一般onStop已经停了，这里保证关文件之前播放线程已经结束
+        stopPlayback();
+        if (reader != null) {
+            reader.close();
         }
-    };
+        if (mappedWave != null) {
+            mappedWave.close();
+        }
+        if (multiChannelEngine != null) {
+            multiChannelEngine.shutdown();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * 设置刷新帧率，下次开始播放时生效
+     */
+    public void setFrameRate(double frameRate) {
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * 流式读取时把滑动窗口往前移hop帧，只读新进来的部分，hop超过窗口时先跳过中间的
+     * 窗口里是交错排列的所有声道
+     *
+     * @return 读到文件末尾返回false
+     */
+    private boolean advance(int[] window, long hop) throws IOException {
+        int frames = window.length / channels;
+        if (hop >= frames) {
+            reader.skip(hop - frames);
+            return reader.readInterleaved(window, 0, frames) == frames;
+        }
+        int h = (int) hop;
+        System.arraycopy(window, h * channels, window, 0, (frames - h) * channels);
+        return reader.readInterleaved(window, (frames - h) * channels, h) == h;
+    }
 
     private Runnable specRun = new Runnable() {
         @Override
         public void run() {
             // TODO Auto-generated method stub
-            while (isOpenThisActivity) {
-                long a;
-                long T;
-                int[] buf;
-                int offset = 0;
-                if (data != null && reader.isSuccess()) {
-                    while (offset < (data.length - Spectrogram.SAMPLING_TOTAL)) {
-                        T = System.nanoTime() / 1000000;
-                        buf = new int[Spectrogram.SAMPLING_TOTAL];
-                        for (int i = 0; i < Spectrogram.SAMPLING_TOTAL; i++) {
-                            buf[i] = data[offset + i];
+            if (samplerate <= 0) {
+                return;
+            }
+            FrameClock clock = new FrameClock(frameRate, samplerate);
+            int frameSize = mSpectrogram.getFrameSize();
+            //每个声道的帧数
+            int frames = frameSize / channels;
+            long hop = 0;
+            //窗口里上一帧之后新进来的采样数，不连续时为整帧
+            int fresh = frameSize;
+            int[] window = new int[frameSize];
+            boolean full = false;
+            //当前窗口的起始帧，映射方式下按它取采样，有缓存时按它取对应的一帧
+            long position = 0;
+            //缓存里的一帧
+            float[] powers = new float[mSpectrogram.getBandCount()];
+            float[] correlation = null;
+            try {
+                while (isOpenThisActivity && (mappedWave != null || reader.isSuccess())) {
+                    CachedAnalysis analysis = cached;
+                    if (analysis != null && mSpectrogram.getShowType() != Spectrogram.WAVE_TYPE_SHOW) {
+                        //缓存里有整个文件每一帧的结果，不读采样也不做FFT，读到末尾就回到开头
+                        position += hop;
+                        long index = position / analysis.getHop();
+                        if (index >= analysis.getFrameCount()) {
+                            position = 0;
+                            index = 0;
+                        }
+                        analysis.readPowers((int) index, powers);
+                        if (analysis.hasCorrelation()) {
+                            if (correlation == null) {
+                                correlation = new float[analysis.getCorrelationCount()];
+                            }
+                            analysis.readCorrelation((int) index, correlation);
                         }
-                        handler.sendMessage(handler.obtainMessage(
-                                HANDLER_SPECTROGRAM, buf));
-                        offset += (Spectrogram.SAMPLING_TOTAL * 10) / 17;
-                        while (true) {
-                            a = System.nanoTime() / 1000000;
-                            if ((a - T) >= 100)
+                        mSpectrogram.ShowPowers(powers, correlation, samplerate);
+                        hop = clock.awaitNextFrame();
+                        //回到实时计算时窗口不连续
+                        full = false;
+                        fresh = frameSize;
+                        continue;
+                    }
+                    if (mappedWave != null) {
+                        //直接按位置取，读到末尾就回到开头
+                        position += hop;
+                        if (position > Integer.MAX_VALUE
+                                || mappedWave.readInterleaved((int) position, window, 0, frames) < frames) {
+                            if (position == 0) {
+                                //文件不够一帧
                                 break;
+                            }
+                            position = 0;
+                            hop = 0;
+                            fresh = frameSize;
+                            continue;
                         }
-                        if (!isOpenThisActivity) {
-                            return;
+                        full = true;
+                    } else if (!full) {
+                        position += hop;
+                        if (position > 0) {
+                            //从缓存播放回来，从缓存播放到的位置接着读
+                            reader.close();
+                            openWave();
+                            reader.skip(position);
                         }
+                        full = reader.readInterleaved(window, 0, frames) == frames;
+                    } else {
+                        //滑动窗口，每帧往前移hop个采样，只需要从文件里读新的hop个
+                        full = advance(window, hop);
+                        position += hop;
+                    }
+                    if (!full) {
+                        //读到文件末尾，从头开始循环播放
+                        reader.close();
+                        openWave();
+                        position = 0;
+                        hop = 0;
+                        fresh = frameSize;
+                        continue;
                     }
+                    mSpectrogram.setWavePosition((position + frames) * channels);
+                    //直接交给频谱的分析线程，数据会被拷贝到它的缓存池里，window可以接着用
+                    mSpectrogram.ShowSpectrogram(window, fresh, false, samplerate);
+                    //睡到下一帧，按真实经过的时间得到这一帧要前进的采样数
+                    hop = clock.awaitNextFrame();
+                    fresh = (int) Math.min(hop, frames) * channels;
                 }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (InterruptedException e) {
+                //onStop时中断，结束播放
             }
         }
     };
@@ -0,0 +1,321 @@
+package com.pdm.spectrogram.cache;
+
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.MultiChannelEngine;
+import com.pdm.spectrogram.engine.SpectrumEngine;
+import com.pdm.spectrogram.engine.WaveformPyramid;
+import com.pdm.spectrogram.utils.WaveFileReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 分析结果的磁盘缓存：整个文件每一帧的频段能量和波形摘要存成一个CachedAnalysis文件，
+ * 文件名由源文件内容的SHA-1加上分析参数算出来，同一个文件用同样的参数再打开时直接映射进来，不用解码也不用做FFT
+ * 目录里所有缓存文件的总大小不超过上限，超过时按最近使用的时间(文件的修改时间)删掉最久没用的；
+ * 写到一半进程被杀留下的临时文件也在淘汰时删掉
+ */
+public class AnalysisCache {
+    //默认的磁盘上限
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    //波形摘要每项的采样数(交错后)，每项8个字节，一小时的单声道约20MB
+    public static final int WAVEFORM_BASE = 64;
+    static final String SUFFIX = ".spc";
+    private static final String TEMP_SUFFIX = ".tmp";
+    //不是本对象正在写的临时文件，超过这么久没改过就当作崩溃留下的
+    static final long STALE_TEMP_MILLIS = 60 * 1000L;
+    //写文件时每次攒多少字节
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private final File dir;
+    private volatile long maxBytes;
+    //正在写的临时文件，淘汰时不能删
+    private final Set<File> writing = new HashSet<File>();
+
+    public AnalysisCache(File dir) {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param dir      缓存目录，安卓上一般是getCacheDir()下的子目录
+     * @param maxBytes 所有缓存文件的总大小上限
+     */
+    public AnalysisCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 改上限，马上按新的上限淘汰
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * 源文件内容的SHA-1，十六进制，读完不关闭流
+     */
+    public static String hash(InputStream in) throws IOException {
+        MessageDigest digest = sha1();
+        byte[] buf = new byte[WRITE_BUFFER];
+        int n;
+        while ((n = in.read(buf)) > 0) {
+            digest.update(buf, 0, n);
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * 缓存的键：源文件的哈希加上所有影响结果的分析参数
+     *
+     * @param sourceHash     hash得到的源文件哈希
+     * @param channels       声道数，多声道时用MultiChannelEngine
+     * @param floatPrecision 是否用float精度的引擎
+     */
+    public static String key(String sourceHash, AnalysisConfig config, int channels, boolean floatPrecision) {
+        String params = sourceHash
+                + "|v" + CachedAnalysis.VERSION
+                + "|fft" + config.getFftSize()
+                + "|dec" + config.getDecimation()
+                + "|hop" + config.getHopSize()
+                + "|" + config.getWindow()
+                + "|bands" + config.getBandCount()
+                + "|ch" + channels
+                + (floatPrecision ? "|float" : "|double");
+        try {
+            return hex(sha1().digest(params.getBytes("UTF-8")));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder out = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            out.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return out.toString();
+    }
+
+    private File fileOf(String key) {
+        return new File(dir, key + SUFFIX);
+    }
+
+    /**
+     * 取缓存，没有或者文件坏了返回null，命中时更新最近使用的时间
+     */
+    public synchronized CachedAnalysis open(String key) {
+        File file = fileOf(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            CachedAnalysis analysis = new CachedAnalysis(file);
+            file.setLastModified(System.currentTimeMillis());
+            return analysis;
+        } catch (IOException e) {
+            e.printStackTrace();
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * 从头到尾分析整个文件写进缓存，每帧前进hop个采样(每个声道)，写完按上限淘汰
+     * 在后台线程调用，线程被中断时放弃，不留下写了一半的文件
+     *
+     * @param reader 刚打开的wav，从第一个采样开始读，读完不关闭
+     * @param engine 和显示时参数一样的引擎，立体声的MultiChannelEngine顺便保存声道相关性
+     * @param hop    帧之间的采样数(每个声道)
+     * @return 写好的缓存，文件比一帧还短时返回null
+     */
+    public CachedAnalysis build(String key, WaveFileReader reader, SpectrumEngine engine, int hop)
+            throws IOException, InterruptedException {
+        int channels = reader.getNumChannels();
+        int frameSize = engine.getFrameSize();
+        int frames = frameSize / channels;
+        int bandCount = engine.getBandCount();
+        MultiChannelEngine stereo = engine instanceof MultiChannelEngine
+                && ((MultiChannelEngine) engine).hasCorrelation() ? (MultiChannelEngine) engine : null;
+        int correlationCount = stereo == null ? 0 : stereo.getBandsPerGroup();
+        double samplerate = reader.getSampleRate();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        File temp = File.createTempFile(key, TEMP_SUFFIX, dir);
+        synchronized (this) {
+            writing.add(temp);
+        }
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        boolean done = false;
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+            channel.position(CachedAnalysis.HEADER_SIZE);
+            int[] window = new int[frameSize];
+            float[] powers = new float[bandCount];
+            float[] correlation = new float[correlationCount];
+            WaveformPyramid waveform = new WaveformPyramid(WAVEFORM_BASE);
+            int frameCount = 0;
+            int read = reader.readInterleaved(window, 0, frames);
+            waveform.append(window, 0, read * channels);
+            if (read == frames) {
+                int fresh = frameSize;
+                while (true) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    engine.process(window, fresh, samplerate);
+                    engine.getBandPowers(powers);
+                    if (stereo != null) {
+                        stereo.getCorrelation(correlation);
+                    }
+                    putFloats(channel, out, powers);
+                    putFloats(channel, out, correlation);
+                    frameCount++;
+                    //滑动窗口，只读新进来的hop个
+                    int h = Math.min(hop, frames);
+                    if (h < frames) {
+                        System.arraycopy(window, h * channels, window, 0, (frames - h) * channels);
+                    } else if (hop > frames) {
+                        reader.skip(hop - frames);
+                    }
+                    read = reader.readInterleaved(window, (frames - h) * channels, h);
+                    waveform.append(window, (frames - h) * channels, read * channels);
+                    if (read < h) {
+                        break;
+                    }
+                    fresh = h * channels;
+                }
+            }
+            if (frameCount == 0) {
+                return null;
+            }
+            //波形摘要接在帧的后面，末尾凑不满一项的采样不保存
+            int entries = waveform.getEntryCount();
+            int chunk = WRITE_BUFFER / 8;
+            int[] min = new int[chunk];
+            int[] max = new int[chunk];
+            for (int first = 0; first < entries; first += chunk) {
+                int n = Math.min(chunk, entries - first);
+                waveform.copyEntries(first, min, max, 0, n);
+                for (int i = 0; i < n; i++) {
+                    if (out.remaining() < 8) {
+                        flush(channel, out);
+                    }
+                    out.putInt(min[i]).putInt(max[i]);
+                }
+            }
+            flush(channel, out);
+            out.putInt(CachedAnalysis.MAGIC).putInt(CachedAnalysis.VERSION)
+                    .putInt(frameCount).putInt(bandCount).putInt(correlationCount)
+                    .putInt(hop).putInt(frameSize).putDouble(samplerate)
+                    .putInt(WAVEFORM_BASE).putInt(entries);
+            while (out.position() < CachedAnalysis.HEADER_SIZE) {
+                out.put((byte) 0);
+            }
+            out.flip();
+            channel.write(out, 0);
+            channel.force(false);
+            done = true;
+        } finally {
+            raf.close();
+            if (!done) {
+                synchronized (this) {
+                    writing.remove(temp);
+                }
+                temp.delete();
+            }
+        }
+        File file = fileOf(key);
+        synchronized (this) {
+            writing.remove(temp);
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("cannot rename " + temp + " to " + file);
+            }
+            file.setLastModified(System.currentTimeMillis());
+            CachedAnalysis analysis = new CachedAnalysis(file);
+            evict();
+            return analysis;
+        }
+    }
+
+    private static void putFloats(FileChannel channel, ByteBuffer out, float[] values) throws IOException {
+        for (float v : values) {
+            if (out.remaining() < 4) {
+                flush(channel, out);
+            }
+            out.putFloat(v);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * 总大小超过上限时，从最久没用的开始删；已经映射的缓存删掉文件后还能继续用
+     * 没有在写、STALE_TEMP_MILLIS以上没改过的临时文件直接删掉
+     */
+    public synchronized void evict() {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long stale = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        long total = 0;
+        int count = 0;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(SUFFIX)) {
+                files[count++] = file;
+                total += file.length();
+            } else if (name.endsWith(TEMP_SUFFIX) && !writing.contains(file) && file.lastModified() < stale) {
+                file.delete();
+            }
+        }
+        files = Arrays.copyOf(files, count);
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long x = a.lastModified(), y = b.lastModified();
+                return x < y ? -1 : (x == y ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && total > maxBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.pdm.spectrogram.cache;
+
+import com.pdm.spectrogram.engine.WaveformPyramid;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 一个缓存文件，只读映射到内存，按帧号直接取频段能量，不用读采样也不用做FFT
+ * 文件格式(小端)：
+ * 头HEADER_SIZE个字节：MAGIC、VERSION、帧数、每帧频段数、每帧相关性个数(立体声才有，否则为0)、
+ * 帧之间的采样数(每个声道)、每帧采样数(交错后)、采样率(double)、波形每项的采样数、波形的项数
+ * 然后是帧数 * (频段数 + 相关性个数)个float，按帧排列
+ * 最后是波形的项数 * 2个int，每项的最小、最大值，对应WaveformPyramid的第0层
+ */
+public class CachedAnalysis {
+    static final int MAGIC = 0x41435053;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+
+    private final File file;
+    private final int frameCount;
+    private final int bandCount;
+    private final int correlationCount;
+    private final int hop;
+    private final int frameSize;
+    private final double samplerate;
+    private final int waveformBase;
+    private final int waveformCount;
+    private final FloatBuffer frames;
+    private final IntBuffer waveform;
+
+    /**
+     * @throws IOException 文件不完整或者不是这个版本写的
+     */
+    CachedAnalysis(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer map;
+        try {
+            map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            //映射建好之后关掉文件也能用
+            raf.close();
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        if (map.capacity() < HEADER_SIZE || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+            throw new IOException("not a cache file: " + file);
+        }
+        frameCount = map.getInt(8);
+        bandCount = map.getInt(12);
+        correlationCount = map.getInt(16);
+        hop = map.getInt(20);
+        frameSize = map.getInt(24);
+        samplerate = map.getDouble(28);
+        waveformBase = map.getInt(36);
+        waveformCount = map.getInt(40);
+        long frameBytes = 4L * frameCount * (bandCount + correlationCount);
+        if (frameCount < 0 || bandCount <= 0 || hop <= 0 || waveformBase <= 0 || waveformCount < 0
+                || HEADER_SIZE + frameBytes + 8L * waveformCount != map.capacity()) {
+            throw new IOException("truncated cache file: " + file);
+        }
+        map.position(HEADER_SIZE);
+        frames = map.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        map.position((int) (HEADER_SIZE + frameBytes));
+        waveform = map.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /**
+     * 第n帧从第n * getHop()个采样(每个声道)开始
+     */
+    public int getHop() {
+        return hop;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public double getSamplerate() {
+        return samplerate;
+    }
+
+    public boolean hasCorrelation() {
+        return correlationCount > 0;
+    }
+
+    public int getCorrelationCount() {
+        return correlationCount;
+    }
+
+    /**
+     * 第index帧的频段能量，和当时的引擎getBandPowers得到的一样
+     *
+     * @param out 长度至少为getBandCount()
+     */
+    public void readPowers(int index, float[] out) {
+        //duplicate之后各线程的位置互不影响
+        FloatBuffer buffer = frames.duplicate();
+        buffer.position(index * (bandCount + correlationCount));
+        buffer.get(out, 0, bandCount);
+    }
+
+    /**
+     * 第index帧每个频段的声道相关性，没有时什么都不做
+     */
+    public void readCorrelation(int index, float[] out) {
+        if (correlationCount == 0) {
+            return;
+        }
+        FloatBuffer buffer = frames.duplicate();
+        buffer.position(index * (bandCount + correlationCount) + bandCount);
+        buffer.get(out, 0, correlationCount);
+    }
+
+    /**
+     * 波形摘要每项的采样数(交错后)
+     */
+    public int getWaveformBase() {
+        return waveformBase;
+    }
+
+    /**
+     * 把保存的波形摘要放进金字塔，金字塔的base要和getWaveformBase()一样
+     */
+    public void loadWaveform(WaveformPyramid pyramid) {
+        if (pyramid.getBase() != waveformBase) {
+            throw new IllegalArgumentException("pyramid base " + pyramid.getBase() + " != " + waveformBase);
+        }
+        IntBuffer buffer = waveform.duplicate();
+        int chunk = Math.min(waveformCount, 4096);
+        int[] pairs = new int[2 * chunk];
+        int[] min = new int[chunk];
+        int[] max = new int[chunk];
+        for (int done = 0; done < waveformCount; done += chunk) {
+            int n = Math.min(chunk, waveformCount - done);
+            buffer.get(pairs, 0, 2 * n);
+            for (int i = 0; i < n; i++) {
+                min[i] = pairs[2 * i];
+                max[i] = pairs[2 * i + 1];
+            }
+            pyramid.appendEntries(min, max, 0, n);
+        }
+    }
+}
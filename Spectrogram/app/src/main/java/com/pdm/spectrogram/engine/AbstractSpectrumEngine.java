@@ -0,0 +1,105 @@
+package com.pdm.spectrogram.engine;
+
+/**
+ * 两种精度的引擎共用的部分：分析参数、抽取滤波器和频段的权重表
+ * 通常普清音频的采样率为44.1KHZ，我们这里做的是分频fft(默认8分频)，分频是为了取低频数据,
+ * 因为fft处理后的数据呈线性变换，间隔都是一样的，如果间隔太大，会导致很多频段的低频数据取不到
+ */
+abstract class AbstractSpectrumEngine implements SpectrumEngine {
+    final int fftSize;
+    final int decimation;
+    final int frameSize;
+    final WindowFunction window;
+    //把FFT结果还原成正弦波幅度的系数，不加窗时就是2 / fftSize
+    final double scale;
+    //低频部分的抽取滤波器，不分频时为null
+    final PolyphaseDecimator decimator;
+
+    //把频点汇总成频段
+    final BandMapper mapper;
+    //频谱的频点数，输入是实数，只需要fftSize / 2 + 1个
+    final int binCount;
+    /**
+     * 是否有频段用到分频后的频谱，没有的话不用算第二次FFT
+     */
+    boolean useDecimated;
+    //每个频段的能量
+    final float[] powers;
+    private double samplerate = 0;
+
+    AbstractSpectrumEngine(AnalysisConfig config) {
+        fftSize = config.getFftSize();
+        decimation = config.getDecimation();
+        frameSize = config.getFrameSize();
+        window = config.getWindow();
+        scale = 2.0 / window.sum(fftSize);
+        decimator = decimation > 1 ? new PolyphaseDecimator(decimation, fftSize) : null;
+        mapper = new BandMapper(config.getBandCount());
+        binCount = fftSize / 2 + 1;
+        powers = new float[config.getBandCount()];
+    }
+
+    @Override
+    public void process(int[] buf, double samplerate) {
+        process(buf, 0, frameSize, samplerate);
+    }
+
+    @Override
+    public void process(int[] buf, int newSamples, double samplerate) {
+        process(buf, 0, newSamples, samplerate);
+    }
+
+    /**
+     * 把新进来的采样送进抽取滤波器，不连续时先清掉滤波器状态，
+     * 之后抽取后的最近fftSize个点在decimator的输出缓存里
+     */
+    final void feedDecimator(int[] buf, int offset, int newSamples) {
+        if (newSamples >= frameSize) {
+            decimator.reset();
+            newSamples = frameSize;
+        }
+        decimator.process(buf, offset + frameSize - newSamples, newSamples);
+    }
+
+    /**
+     * 采样率变了才需要重新算频段的权重表
+     * 第一个频谱是不分频的，第二个是分频后的，只取抽取滤波器通带以内的频点
+     */
+    final void ensureMapping(double samplerate) {
+        if (samplerate == this.samplerate) {
+            return;
+        }
+        this.samplerate = samplerate;
+        double[] binWidths;
+        double[] limits;
+        if (decimator != null) {
+            binWidths = new double[]{samplerate / fftSize, samplerate / decimation / fftSize};
+            limits = new double[]{samplerate / 2, PolyphaseDecimator.PASSBAND * samplerate / decimation};
+        } else {
+            binWidths = new double[]{samplerate / fftSize};
+            limits = new double[]{samplerate / 2};
+        }
+        mapper.map(binWidths, limits, binCount, window.enbw(fftSize), scale * scale);
+        useDecimated = decimator != null && mapper.uses(1);
+    }
+
+    @Override
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public int getBandCount() {
+        return powers.length;
+    }
+
+    @Override
+    public void getBandPowers(float[] out) {
+        System.arraycopy(powers, 0, out, 0, powers.length);
+    }
+
+    @Override
+    public double[] getBandFrequencies() {
+        return mapper.getCenters();
+    }
+}
@@ -0,0 +1,104 @@
+package com.pdm.spectrogram.engine;
+
+/**
+ * 分析参数：FFT点数、分频倍数、帧之间的重叠比例、窗函数和频段数，可以按设备性能在运行时调整，
+ * 点数越大频率分辨率越高，但延迟和计算量也越大
+ * 引擎创建时拷贝这些值，之后再改不会影响已经创建的引擎
+ */
+public class AnalysisConfig {
+    public static final int MIN_FFT_SIZE = 256;
+    public static final int MAX_FFT_SIZE = 16384;
+    public static final int MAX_DECIMATION = 16;
+    public static final int MIN_BAND_COUNT = SpectrumEngine.SPECTROGRAM_COUNT;
+    public static final int MAX_BAND_COUNT = 120;
+
+    private int fftSize = SpectrumEngine.FFT_SIZE;
+    private int decimation = 8;
+    private double overlap = 0.5;
+    private WindowFunction window = WindowFunction.HANN;
+    private int bandCount = SpectrumEngine.SPECTROGRAM_COUNT;
+
+    public int getFftSize() {
+        return fftSize;
+    }
+
+    /**
+     * @param fftSize 256到16384之间2的指数倍数
+     */
+    public void setFftSize(int fftSize) {
+        if (fftSize < MIN_FFT_SIZE || fftSize > MAX_FFT_SIZE || (fftSize & (fftSize - 1)) != 0) {
+            throw new IllegalArgumentException("fft size must be a power of two in ["
+                    + MIN_FFT_SIZE + ", " + MAX_FFT_SIZE + "]: " + fftSize);
+        }
+        this.fftSize = fftSize;
+    }
+
+    public int getDecimation() {
+        return decimation;
+    }
+
+    /**
+     * @param decimation 低频部分的分频倍数，1(不分频)、2、4、8、16
+     */
+    public void setDecimation(int decimation) {
+        if (decimation < 1 || decimation > MAX_DECIMATION || (decimation & (decimation - 1)) != 0) {
+            throw new IllegalArgumentException("decimation must be a power of two in [1, "
+                    + MAX_DECIMATION + "]: " + decimation);
+        }
+        this.decimation = decimation;
+    }
+
+    public double getOverlap() {
+        return overlap;
+    }
+
+    /**
+     * @param overlap 相邻两帧的重叠比例，0到1之间(不含1)
+     */
+    public void setOverlap(double overlap) {
+        if (overlap < 0 || overlap >= 1) {
+            throw new IllegalArgumentException("overlap must be in [0, 1): " + overlap);
+        }
+        this.overlap = overlap;
+    }
+
+    public WindowFunction getWindow() {
+        return window;
+    }
+
+    public void setWindow(WindowFunction window) {
+        if (window == null) {
+            throw new IllegalArgumentException("window must not be null");
+        }
+        this.window = window;
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /**
+     * @param bandCount 20HZ-20KHZ之间的频段数，31到120，31段约为1/3倍频程，60段约为1/6倍频程
+     */
+    public void setBandCount(int bandCount) {
+        if (bandCount < MIN_BAND_COUNT || bandCount > MAX_BAND_COUNT) {
+            throw new IllegalArgumentException("band count must be in ["
+                    + MIN_BAND_COUNT + ", " + MAX_BAND_COUNT + "]: " + bandCount);
+        }
+        this.bandCount = bandCount;
+    }
+
+    /**
+     * 每帧需要的采样数，分频后还要有fftSize个点
+     */
+    public int getFrameSize() {
+        return fftSize * decimation;
+    }
+
+    /**
+     * 离线或者流式分析时相邻两帧之间前进的采样数，实时显示时由帧率决定
+     */
+    public int getHopSize() {
+        return Math.max(1, (int) Math.round(getFrameSize() * (1 - overlap)));
+    }
+}
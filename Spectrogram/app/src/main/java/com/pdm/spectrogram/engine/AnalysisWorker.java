@@ -0,0 +1,343 @@
+package com.pdm.spectrogram.engine;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 独立的分析线程：submit把一帧采样拷进缓存池交给它，它在自己的线程里做FFT，
+ * 结果通过SpectrumBuffer发布，界面只需要在onDraw里取最新的一帧画出来，不在UI线程上做FFT
+ * 跟不上时丢掉最老的一帧，保证显示的总是最新的数据，丢掉那一帧的新采样数会并到下一帧里，
+ * 分频滤波器看到的输入仍然是连续的
+ * 实时采集时改用setSource接一个SampleRing：分析线程自己等新采样，每次直接在环形缓存的数组上
+ * 算最新的一个窗口，不经过submit，不拷贝也不加锁，延迟只有等够minHop个采样和一次FFT的时间
+ */
+public class AnalysisWorker implements Runnable {
+    /**
+     * 新的一帧发布后在分析线程里回调，一般用来通知界面刷新
+     */
+    public interface Listener {
+        void onFrameReady();
+    }
+
+    private static final int POOL_SIZE = 3;
+    //等新采样的超时，到时间检查一下是不是该退出了
+    private static final long RING_TIMEOUT_NANOS = 100000000L;
+
+    /**
+     * 排队中的一帧：采样、其中新采样的个数和分析参数，或者已经算好的频段能量(从缓存读出来的)
+     */
+    private static final class Job {
+        final int[] samples;
+        int newSamples;
+        double samplerate;
+        boolean analyze;
+        //precomputed为true时直接发布powers和correlation，不用引擎
+        final float[] powers;
+        float[] correlation;
+        boolean hasCorrelation;
+        boolean precomputed;
+
+        Job(int frameSize, int bandCount) {
+            samples = new int[frameSize];
+            powers = new float[bandCount];
+        }
+    }
+
+    private final int frameSize;
+    private final ArrayBlockingQueue<Job> pool;
+    private final ArrayBlockingQueue<Job> pending;
+    private final SpectrumBuffer buffer;
+    private final Listener listener;
+    private volatile SpectrumEngine engine;
+    private volatile Thread thread;
+    private long sequence = 0;
+    //上一帧没有经过引擎(只画波形或者是算好的)，下一帧要整帧重新算，只在分析线程里用
+    private boolean discontinuous = false;
+    //实时采集的输入，null时用submit
+    private volatile SampleRing ring;
+    //至少攒够多少个新采样才算一次
+    private int minHop;
+    private double ringSamplerate;
+    //实时采集时是做频谱分析还是只拷贝采样画波形
+    private volatile boolean ringAnalyze = true;
+
+    public AnalysisWorker(SpectrumEngine engine, int frameSize, Listener listener) {
+        this.engine = engine;
+        this.frameSize = frameSize;
+        this.listener = listener;
+        pool = new ArrayBlockingQueue<Job>(POOL_SIZE);
+        pending = new ArrayBlockingQueue<Job>(POOL_SIZE);
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool.offer(new Job(frameSize, engine.getBandCount()));
+        }
+        buffer = new SpectrumBuffer(engine.getBandCount(), frameSize);
+    }
+
+    /**
+     * 换引擎，从下一帧开始生效，每帧采样数和频段数要和原来的一样
+     */
+    public void setEngine(SpectrumEngine engine) {
+        if (engine.getFrameSize() != frameSize || engine.getBandCount() != this.engine.getBandCount()) {
+            throw new IllegalArgumentException("engine frame size or band count differs");
+        }
+        this.engine = engine;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public int getBandCount() {
+        return engine.getBandCount();
+    }
+
+    /**
+     * 提交一帧，整帧都当作新数据
+     */
+    public void submit(int[] samples, double samplerate, boolean analyze) {
+        submit(samples, frameSize, samplerate, analyze);
+    }
+
+    /**
+     * 提交一帧，samples会被拷贝，调用完就可以重用
+     *
+     * @param samples    长度至少为frameSize
+     * @param newSamples samples最后有多少个采样是上一帧之后新进来的
+     * @param samplerate 采样率
+     * @param analyze    true=做频谱分析，false=只拷贝采样用来画波形
+     */
+    public void submit(int[] samples, int newSamples, double samplerate, boolean analyze) {
+        Job job = pool.poll();
+        if (job == null) {
+            //缓存都在排队，丢掉最老的一帧，它的新采样算到这一帧里
+            job = pending.poll();
+            if (job == null) {
+                return;
+            }
+            newSamples = (int) Math.min((long) newSamples + job.newSamples, frameSize);
+        }
+        System.arraycopy(samples, 0, job.samples, 0, frameSize);
+        job.newSamples = newSamples;
+        job.samplerate = samplerate;
+        job.analyze = analyze;
+        job.precomputed = false;
+        pending.offer(job);
+    }
+
+    /**
+     * 提交已经算好的一帧，比如从AnalysisCache读出来的，不做FFT直接发布
+     *
+     * @param powers      长度为getBandCount()
+     * @param correlation 立体声的声道相关性，没有时传null
+     */
+    public void submitPowers(float[] powers, float[] correlation, double samplerate) {
+        Job job = pool.poll();
+        if (job == null) {
+            job = pending.poll();
+            if (job == null) {
+                return;
+            }
+        }
+        System.arraycopy(powers, 0, job.powers, 0, job.powers.length);
+        if (correlation != null) {
+            if (job.correlation == null || job.correlation.length != correlation.length) {
+                job.correlation = new float[correlation.length];
+            }
+            System.arraycopy(correlation, 0, job.correlation, 0, correlation.length);
+        }
+        job.precomputed = true;
+        job.analyze = true;
+        job.samplerate = samplerate;
+        //之后再算的帧和这一帧不连续
+        job.newSamples = frameSize;
+        job.hasCorrelation = correlation != null;
+        pending.offer(job);
+    }
+
+    /**
+     * 改成从环形缓存读采样，在start之前调用，已经start过的要先quitAndJoin
+     *
+     * @param ring       窗口长度要等于getFrameSize()，null时回到submit方式
+     * @param minHop     至少攒够多少个新采样(交错后)才算一次，越小延迟越低、算得越频繁
+     * @param samplerate 采样率
+     */
+    public synchronized void setSource(SampleRing ring, int minHop, double samplerate) {
+        if (thread != null) {
+            throw new IllegalStateException("quitAndJoin before changing the source");
+        }
+        if (ring != null && ring.getWindow() != frameSize) {
+            throw new IllegalArgumentException("ring window " + ring.getWindow() + " != frame size " + frameSize);
+        }
+        this.ring = ring;
+        this.minHop = Math.max(1, minHop);
+        this.ringSamplerate = samplerate;
+    }
+
+    /**
+     * 实时采集时是否做频谱分析，false时只拷贝采样用来画波形，随时可以改
+     */
+    public void setAnalyze(boolean analyze) {
+        ringAnalyze = analyze;
+    }
+
+    /**
+     * 读线程(一般是UI线程)取最新的一帧结果
+     */
+    public SpectrumFrame latest() {
+        return buffer.acquire();
+    }
+
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this, "AnalysisWorker");
+            thread.start();
+        }
+    }
+
+    /**
+     * 让分析线程退出，不等它结束；它正在算的那一帧算完后不再发布
+     */
+    public synchronized void quit() {
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /**
+     * 让分析线程退出并等它结束，之后再start或者换一个worker接同一个SampleRing，
+     * 引擎、SpectrumBuffer和环形缓存都不会有两个线程同时写；最多等一帧FFT或者一次等采样的超时
+     * 等的时候被中断也会等完，返回前恢复中断标志
+     */
+    public void quitAndJoin() {
+        Thread old;
+        synchronized (this) {
+            old = thread;
+            quit();
+        }
+        if (old == null || old == Thread.currentThread()) {
+            return;
+        }
+        boolean interrupted = false;
+        while (old.isAlive()) {
+            try {
+                old.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 立体声引擎另外带出每个频段的声道相关性
+     */
+    private static void correlation(SpectrumEngine engine, SpectrumFrame out) {
+        out.hasCorrelation = engine instanceof MultiChannelEngine
+                && ((MultiChannelEngine) engine).hasCorrelation();
+        if (out.hasCorrelation) {
+            MultiChannelEngine stereo = (MultiChannelEngine) engine;
+            if (out.correlation == null || out.correlation.length != stereo.getBandsPerGroup()) {
+                out.correlation = new float[stereo.getBandsPerGroup()];
+            }
+            stereo.getCorrelation(out.correlation);
+        }
+    }
+
+    @Override
+    public void run() {
+        SampleRing ring = this.ring;
+        if (ring != null) {
+            runRing(ring);
+            return;
+        }
+        try {
+            //quit之后又start时，旧线程不能再和新线程一起写
+            while (thread == Thread.currentThread()) {
+                Job job = pending.take();
+                SpectrumFrame out = buffer.back();
+                boolean analyze = job.analyze;
+                double samplerate = job.samplerate;
+                if (job.precomputed) {
+                    System.arraycopy(job.powers, 0, out.powers, 0, out.powers.length);
+                    out.hasCorrelation = job.hasCorrelation;
+                    if (job.hasCorrelation) {
+                        if (out.correlation == null || out.correlation.length != job.correlation.length) {
+                            out.correlation = new float[job.correlation.length];
+                        }
+                        System.arraycopy(job.correlation, 0, out.correlation, 0, job.correlation.length);
+                    }
+                    discontinuous = true;
+                } else if (analyze) {
+                    SpectrumEngine engine = this.engine;
+                    //分频滤波器的状态还停在上一次算的那一帧，不能接着算
+                    engine.process(job.samples, discontinuous ? frameSize : job.newSamples, samplerate);
+                    discontinuous = false;
+                    engine.getBandPowers(out.powers);
+                    correlation(engine, out);
+                } else {
+                    System.arraycopy(job.samples, 0, out.samples, 0, frameSize);
+                    discontinuous = true;
+                }
+                pool.offer(job);
+                if (thread != Thread.currentThread()) {
+                    break;
+                }
+                out.hasSpectrum = analyze;
+                out.samplerate = samplerate;
+                out.sequence = ++sequence;
+                buffer.publish();
+                if (listener != null) {
+                    listener.onFrameReady();
+                }
+            }
+        } catch (InterruptedException e) {
+            //quit
+        }
+    }
+
+    /**
+     * 实时采集：等够minHop个新采样，把窗口移到最新的位置直接在环形缓存上算，
+     * 落后很多时中间的直接跳过，只算最新的一个窗口
+     */
+    private void runRing(SampleRing ring) {
+        long dropped = ring.getDropped();
+        boolean first = true;
+        while (thread == Thread.currentThread()) {
+            //第一次要等满一个窗口
+            if (!ring.await(first ? frameSize : minHop, RING_TIMEOUT_NANOS)) {
+                continue;
+            }
+            long fresh = ring.available();
+            ring.advance(fresh);
+            long nowDropped = ring.getDropped();
+            //中间丢过数据、跳过了一整个窗口以上或者之前只画波形没有算，和上一帧不连续
+            int newSamples = first || discontinuous || nowDropped != dropped || fresh >= frameSize
+                    ? frameSize : (int) fresh;
+            first = false;
+            dropped = nowDropped;
+            int[] samples = ring.array();
+            int offset = ring.windowOffset();
+            SpectrumFrame out = buffer.back();
+            boolean analyze = ringAnalyze;
+            if (analyze) {
+                SpectrumEngine engine = this.engine;
+                engine.process(samples, offset, newSamples, ringSamplerate);
+                discontinuous = false;
+                engine.getBandPowers(out.powers);
+                correlation(engine, out);
+            } else {
+                System.arraycopy(samples, offset, out.samples, 0, frameSize);
+                discontinuous = true;
+            }
+            out.hasSpectrum = analyze;
+            out.samplerate = ringSamplerate;
+            out.sequence = ++sequence;
+            buffer.publish();
+            if (listener != null) {
+                listener.onFrameReady();
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.pdm.spectrogram.engine;
+
+/**
+ * 把FFT的频点按对数频段汇总：每个频段覆盖[中心 / F^0.5, 中心 * F^0.5]，把落在里面的频点能量按重叠比例加起来，
+ * 原来每段只取一个点，中间的点都丢掉了，高频段的能量取得不准
+ * 可以有多个不同采样率(分频倍数)的频谱，每个频段从最合适的那个取；
+ * 权重表只在采样率变化时算一次，按频段连续存放(稀疏表)，每帧只需要对频谱扫一遍乘加
+ * 31段约为1/3倍频程，60段约为1/6倍频程，120段约为1/12倍频程
+ */
+public class BandMapper {
+    /**
+     * 最低和最高频点，20HZ-20KHZ之间成对数关系,这是音频标准
+     */
+    public static final double MIN_FREQUENCY = 20;
+    public static final double MAX_FREQUENCY = 20000;
+    /**
+     * 频段中心至少要落在第10个点之后才用采样率高的频谱(时间分辨率高)，否则用分频后频率分辨率更高的频谱
+     */
+    static final int MIN_BAND_BIN = 10;
+
+    private final int bandCount;
+    //相邻两个频段中心的比例
+    private final double ratio;
+    //每个频段的中心频点
+    private final double[] centers;
+    //第i个频段的权重在bins/weights的[offsets[i], offsets[i + 1])里
+    private final int[] offsets;
+    //频点在拼接后的频谱里的下标，第s个频谱从s * binCount开始
+    private int[] bins = new int[0];
+    private double[] weights = new double[0];
+    private float[] floatWeights = new float[0];
+    //每个频段用的是哪个频谱
+    private final int[] sources;
+
+    public BandMapper(int bandCount) {
+        if (bandCount < 1) {
+            throw new IllegalArgumentException("band count must be positive: " + bandCount);
+        }
+        this.bandCount = bandCount;
+        ratio = Math.pow(MAX_FREQUENCY / MIN_FREQUENCY, 1.0 / bandCount);
+        centers = new double[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            centers[i] = MIN_FREQUENCY * Math.pow(ratio, i);
+        }
+        offsets = new int[bandCount + 1];
+        sources = new int[bandCount];
+    }
+
+    /**
+     * 频率在频段序号上的位置(可以是小数)，用来画对数坐标，第i段的中心在i
+     */
+    public static double indexOf(double frequency, int bandCount) {
+        return bandCount * Math.log(frequency / MIN_FREQUENCY) / Math.log(MAX_FREQUENCY / MIN_FREQUENCY);
+    }
+
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /**
+     * 每个频段的中心频点(Hz)，返回的是内部数组，不要修改
+     */
+    public double[] getCenters() {
+        return centers;
+    }
+
+    /**
+     * 计算权重表
+     *
+     * @param binWidths 每个频谱相邻两个频点的间隔(Hz)，按采样率从高到低排列
+     * @param limits    每个频谱可以用到的最高频率(Hz)，分频后的频谱受抽取滤波器通带限制
+     * @param binCount  每个频谱的频点数，即fftSize / 2 + 1
+     * @param enbw      窗函数的等效噪声带宽(以频点为单位)，一个正弦波的能量会分散到这么多个频点上
+     * @param gain      乘到权重里的系数，一般是把FFT结果还原成幅度的系数的平方
+     */
+    public void map(double[] binWidths, double[] limits, int binCount, double enbw, double gain) {
+        double halfBand = Math.sqrt(ratio);
+        //先算每个频段用哪个频谱和频点范围，数出总共有多少个权重
+        int total = 0;
+        for (int i = 0; i < bandCount; i++) {
+            double high = centers[i] * halfBand;
+            sources[i] = choose(binWidths, limits, centers[i], high);
+            double b = high / binWidths[sources[i]];
+            double a = centers[i] / halfBand / binWidths[sources[i]];
+            total += Math.max(0, last(b, binCount) - first(a) + 1);
+        }
+        if (bins.length != total) {
+            bins = new int[total];
+            weights = new double[total];
+            floatWeights = new float[total];
+        }
+        int n = 0;
+        for (int i = 0; i < bandCount; i++) {
+            offsets[i] = n;
+            double width = binWidths[sources[i]];
+            double a = centers[i] / halfBand / width;
+            double b = centers[i] * halfBand / width;
+            //比一个正弦波的主瓣还宽的频段求总能量，窄的频段相当于在频点之间插值取平均
+            double norm = gain / Math.min(b - a, enbw);
+            int base = sources[i] * binCount;
+            for (int k = first(a), end = last(b, binCount); k <= end; k++) {
+                //第k个频点代表[k - 0.5, k + 0.5]，按和频段重叠的长度加权
+                double overlap = Math.min(b, k + 0.5) - Math.max(a, k - 0.5);
+                bins[n] = base + k;
+                weights[n] = Math.max(0, overlap) * norm;
+                floatWeights[n] = (float) weights[n];
+                n++;
+            }
+        }
+        offsets[bandCount] = n;
+    }
+
+    private static int first(double a) {
+        return Math.max(0, (int) Math.floor(a + 0.5));
+    }
+
+    private static int last(double b, int binCount) {
+        return Math.min(binCount - 1, (int) Math.floor(b + 0.5));
+    }
+
+    /**
+     * 在能覆盖到这个频段的频谱里，优先用采样率高的，频段中心落在太低的频点时换成频率分辨率更高的
+     */
+    private static int choose(double[] binWidths, double[] limits, double center, double high) {
+        int chosen = 0;
+        for (int s = 0; s < binWidths.length; s++) {
+            if (high > limits[s]) {
+                break;
+            }
+            chosen = s;
+            if (center / binWidths[s] >= MIN_BAND_BIN) {
+                break;
+            }
+        }
+        return chosen;
+    }
+
+    /**
+     * 这个频谱有没有频段用到，没用到的话可以不算它的FFT
+     */
+    public boolean uses(int spectrum) {
+        for (int i = 0; i < bandCount; i++) {
+            if (sources[i] == spectrum) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按权重表把频谱能量汇总到各个频段
+     *
+     * @param spectrum 各个频谱的能量(实部平方加虚部平方)拼接在一起，第s个从s * binCount开始
+     * @param out      每个频段的能量
+     */
+    public void aggregate(double[] spectrum, float[] out) {
+        int n = 0;
+        for (int i = 0; i < bandCount; i++) {
+            double sum = 0;
+            for (int end = offsets[i + 1]; n < end; n++) {
+                sum += weights[n] * spectrum[bins[n]];
+            }
+            out[i] = (float) sum;
+        }
+    }
+
+    /**
+     * float版本
+     */
+    public void aggregate(float[] spectrum, float[] out) {
+        int n = 0;
+        for (int i = 0; i < bandCount; i++) {
+            float sum = 0;
+            for (int end = offsets[i + 1]; n < end; n++) {
+                sum += floatWeights[n] * spectrum[bins[n]];
+            }
+            out[i] = sum;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.pdm.spectrogram.engine;
+
+import com.pdm.spectrogram.utils.FloatFFTPlan;
+
+/**
+ * float精度的频谱引擎，数组和旋转因子表都是float，内存和缓存占用是double版本的一半，
+ * 精度对显示32级电频来说足够了
+ */
+public class FloatSpectrumEngine extends AbstractSpectrumEngine {
+    //不分频的实部和虚部，输入是实数，只需要fftSize / 2 + 1个频点
+    private final float[] first_fft_real;
+    private final float[] first_fft_imag;
+    //分频后的实部和虚部
+    private final float[] second_fft_real;
+    private final float[] second_fft_imag;
+    //两个频谱每个频点的能量，不分频的在前，分频后的在后
+    private final float[] spectrum;
+    //FFT计划，旋转因子和位反转表只算一次
+    private final FloatFFTPlan fftPlan;
+    //窗函数系数
+    private final float[] windowTable;
+
+    public FloatSpectrumEngine() {
+        this(new AnalysisConfig());
+    }
+
+    public FloatSpectrumEngine(AnalysisConfig config) {
+        super(config);
+        first_fft_real = new float[fftSize / 2 + 1];
+        first_fft_imag = new float[fftSize / 2 + 1];
+        second_fft_real = new float[fftSize / 2 + 1];
+        second_fft_imag = new float[fftSize / 2 + 1];
+        spectrum = new float[2 * binCount];
+        fftPlan = FloatFFTPlan.get(fftSize);
+        windowTable = window.floatTable(fftSize);
+    }
+
+    @Override
+    public void process(int[] buf, int offset, int newSamples, double samplerate) {
+        ensureMapping(samplerate);
+        pack(buf, offset);
+        // 高频部分从原始数据取
+        fftPlan.realForward(first_fft_real, first_fft_imag);
+        if (decimator != null) {
+            // 没有频段用到低频部分时也要送进去，保证滤波器状态连续
+            decimate(buf, offset, newSamples);
+        }
+        power(first_fft_real, first_fft_imag, 0);
+        if (useDecimated) {
+            // 分频后的数据的FFT,频率间隔为samplerate / decimation / fftSize，取低频部分
+            fftPlan.realForward(second_fft_real, second_fft_imag);
+            power(second_fft_real, second_fft_imag, binCount);
+        }
+        mapper.aggregate(spectrum, powers);
+    }
+
+    /**
+     * 每个频点的能量，还原成幅度的系数已经乘在频段的权重里
+     */
+    private void power(float[] real, float[] imag, int offset) {
+        for (int k = 0; k < binCount; k++) {
+            spectrum[offset + k] = real[k] * real[k] + imag[k] * imag[k];
+        }
+    }
+
+    /**
+     * 取最新的fftSize个采样加窗，偶数下标放实部、奇数下标放虚部，打包成fftSize / 2个复数做实数FFT
+     */
+    void pack(int[] buf, int offset) {
+        int start = offset + frameSize - fftSize;
+        for (int i = 0; i < fftSize / 2; i++) {
+            first_fft_real[i] = buf[start + 2 * i] * windowTable[2 * i];
+            first_fft_imag[i] = buf[start + 2 * i + 1] * windowTable[2 * i + 1];
+        }
+    }
+
+    /**
+     * 分频(相当于降低了decimation倍采样率)，这样fftSize个点的fft频率密度就越大，有利于取低频
+     * 新采样经过抽取滤波器后，取最近的fftSize个点加窗，按实数FFT的方式打包
+     */
+    void decimate(int[] buf, int offset, int newSamples) {
+        feedDecimator(buf, offset, newSamples);
+        double[] out = decimator.getOutput();
+        int p = decimator.getOutputStart();
+        for (int i = 0; i < fftSize / 2; i++, p += 2) {
+            second_fft_real[i] = (float) out[p] * windowTable[2 * i];
+            second_fft_imag[i] = (float) out[p + 1] * windowTable[2 * i + 1];
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.pdm.spectrogram.engine;
+
+/**
+ * 纵坐标分布表：从5开始按等比递增到编码长度能表示的最大值，把电频值换算成第几级方格
+ * 另外存一份平方后的分界值，能量(幅度的平方)可以直接二分查找，不用先开方
+ */
+public class LevelTable {
+    /**
+     * 纵坐标分布数组
+     */
+    private final double[] row_local_table;
+    //row_local_table每一项的平方，和能量比较
+    private final double[] squared_table;
+    //音频编码长度存储的最大10进制的值
+    private final double bits;
+
+    /**
+     * @param bitspersample 采样点的编码长度
+     * @param rowCount      最多的格子数
+     */
+    public LevelTable(int bitspersample, int rowCount) {
+        row_local_table = new double[rowCount];
+        // 构建纵坐标的值;bits = 16位数转十进制的最大值
+        row_local_table[0] = 5.0;
+        bits = Math.pow(2.0, bitspersample - 1) - 1;
+        double step = Math.pow(bits / row_local_table[0], 1.0 / rowCount);// x的y次幂
+        for (int i = 1; i < rowCount; i++) {
+            row_local_table[i] = row_local_table[i - 1] * step;
+        }
+        squared_table = new double[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            squared_table[i] = row_local_table[i] * row_local_table[i];
+        }
+    }
+
+    public int getRowCount() {
+        return row_local_table.length;
+    }
+
+    public double getMaxValue() {
+        return bits;
+    }
+
+    /**
+     * 电频值落在第几级，从0开始，超过最后一个分界值的算最高一级
+     *
+     * @param model 电频值
+     */
+    public int level(double model) {
+        return levelOfPower(model * model);
+    }
+
+    /**
+     * 能量(电频值的平方)落在第几级，二分查找平方后的分界值，不用开方
+     *
+     * @param power 能量，见SpectrumEngine.getBandPowers
+     */
+    public int levelOfPower(double power) {
+        //找第一个大于power的分界值，它的前一级就是结果
+        int low = 0;
+        int high = squared_table.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (squared_table[mid] <= power) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low > 0 ? low - 1 : 0;
+    }
+}
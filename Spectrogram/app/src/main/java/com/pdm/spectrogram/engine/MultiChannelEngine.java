@@ -0,0 +1,340 @@
+package com.pdm.spectrogram.engine;
+
+/**
+ * 多声道分析：输入是交错排列的多声道采样，每个声道一个引擎，调用线程和几个常驻的辅助线程并行计算，
+ * 多核设备上立体声、5.1的每帧耗时和单声道差不多；任务和线程都是建好的，每帧只用一个锁同步，不分配对象
+ * 立体声时另外算中置(M = (L + R) / 2)和侧边(S = (L - R) / 2)两路频谱，以及每个频段的声道相关性
+ * (P_M - P_S) / (P_M + P_S)，1为两个声道完全相同，0为不相关，-1为反相
+ * getBandPowers按组输出：CHANNELS为每个声道一组，MID_SIDE为中置、侧边两组，每组getBandsPerGroup()个频段
+ */
+public class MultiChannelEngine implements SpectrumEngine {
+    /**
+     * getBandPowers输出哪几组频段
+     */
+    public enum Output {
+        CHANNELS, MID_SIDE
+    }
+
+    private final int channels;
+    //每个声道每帧的采样数
+    private final int channelFrameSize;
+    private final int bandsPerGroup;
+    //前channels个是各声道，立体声时后面两个是中置和侧边
+    private final SpectrumEngine[] engines;
+    private final int[][] planes;
+    private final float[][] powers;
+    private final float[] correlation;
+    private final double[] frequencies;
+    private final ChannelTask[] tasks;
+    //第k个线程算下标为k、k + threads、...的任务，第0个是调用process的线程
+    private final int threads;
+    private final Thread[] helpers;
+    private volatile Output output = Output.CHANNELS;
+
+    //辅助线程的同步：process每帧把generation加一叫醒它们，pending减到0时全部算完
+    private final Object lock = new Object();
+    private long generation = 0;
+    private int pending = 0;
+    private Throwable failure;
+    private boolean shutdown = false;
+
+    //当前这一帧的参数，只在process里设置，各个任务只读
+    private int[] buf;
+    private int offset;
+    private int newFrames;
+    private double samplerate;
+
+    /**
+     * 用double精度的引擎
+     */
+    public MultiChannelEngine(AnalysisConfig config, int channels) {
+        this(config, channels, false);
+    }
+
+    /**
+     * @param config         每个声道的分析参数
+     * @param channels       声道数
+     * @param floatPrecision true=用FloatSpectrumEngine
+     */
+    public MultiChannelEngine(AnalysisConfig config, int channels, boolean floatPrecision) {
+        this(config, channels, floatPrecision, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxThreads 最多用几个线程(包括调用线程)，测试时用来在单核机器上也走多线程
+     */
+    MultiChannelEngine(AnalysisConfig config, int channels, boolean floatPrecision, int maxThreads) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("channels must be positive: " + channels);
+        }
+        this.channels = channels;
+        channelFrameSize = config.getFrameSize();
+        bandsPerGroup = config.getBandCount();
+        int count = channels == 2 ? 4 : channels;
+        engines = new SpectrumEngine[count];
+        planes = new int[count][channelFrameSize];
+        powers = new float[count][bandsPerGroup];
+        for (int i = 0; i < count; i++) {
+            engines[i] = floatPrecision ? new FloatSpectrumEngine(config) : new DoubleSpectrumEngine(config);
+        }
+        correlation = channels == 2 ? new float[bandsPerGroup] : null;
+        frequencies = new double[getGroupCount() * bandsPerGroup];
+        tasks = new ChannelTask[count];
+        for (int i = 0; i < count; i++) {
+            tasks[i] = new ChannelTask(i);
+        }
+        //线程数不超过核数，单声道时不用辅助线程
+        threads = Math.max(1, Math.min(count, maxThreads));
+        helpers = new Thread[threads - 1];
+        for (int k = 1; k < threads; k++) {
+            helpers[k - 1] = new Thread(new Helper(k), "MultiChannelEngine");
+            helpers[k - 1].setDaemon(true);
+            helpers[k - 1].start();
+        }
+    }
+
+    /**
+     * 第k个线程的那几个任务
+     */
+    private void runTasks(int k) {
+        for (int i = k; i < tasks.length; i += threads) {
+            tasks[i].run();
+        }
+    }
+
+    /**
+     * 常驻的辅助线程：等process叫醒，算完自己的任务后报告，shutdown后退出
+     */
+    private final class Helper implements Runnable {
+        private final int k;
+
+        Helper(int k) {
+            this.k = k;
+        }
+
+        @Override
+        public void run() {
+            long seen = 0;
+            while (true) {
+                synchronized (lock) {
+                    while (generation == seen && !shutdown) {
+                        try {
+                            lock.wait();
+                        } catch (InterruptedException e) {
+                            //只有shutdown能让它退出
+                        }
+                    }
+                    //shutdown之前已经开始的那一帧还是要算完，不然process一直等
+                    if (generation == seen) {
+                        return;
+                    }
+                    seen = generation;
+                }
+                Throwable error = null;
+                try {
+                    runTasks(k);
+                } catch (Throwable e) {
+                    error = e;
+                }
+                synchronized (lock) {
+                    if (error != null && failure == null) {
+                        failure = error;
+                    }
+                    if (--pending == 0) {
+                        lock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个声道(或者中置、侧边)：从交错的输入里取出自己的那一路，再交给自己的引擎
+     */
+    private final class ChannelTask implements Runnable {
+        private final int index;
+
+        ChannelTask(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            int[] plane = planes[index];
+            int[] in = buf;
+            //窗口整体移动了，整帧都要重新取出来，分频滤波器自己只处理新进来的部分
+            if (index < channels) {
+                for (int i = 0, p = offset + index; i < channelFrameSize; i++, p += channels) {
+                    plane[i] = in[p];
+                }
+            } else if (index == channels) {
+                //32位整数和浮点的采样占满int的范围，和、差用long算，不然满幅度时溢出
+                for (int i = 0, p = offset; i < channelFrameSize; i++, p += 2) {
+                    plane[i] = (int) (((long) in[p] + in[p + 1]) >> 1);
+                }
+            } else {
+                for (int i = 0, p = offset; i < channelFrameSize; i++, p += 2) {
+                    plane[i] = (int) (((long) in[p] - in[p + 1]) >> 1);
+                }
+            }
+            engines[index].process(plane, newFrames, samplerate);
+            engines[index].getBandPowers(powers[index]);
+        }
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public Output getOutput() {
+        return output;
+    }
+
+    /**
+     * 切换输出，从下一次getBandPowers开始生效，MID_SIDE只支持立体声
+     */
+    public void setOutput(Output output) {
+        if (output == Output.MID_SIDE && channels != 2) {
+            throw new IllegalArgumentException("mid/side needs 2 channels, got " + channels);
+        }
+        this.output = output;
+    }
+
+    /**
+     * getBandPowers输出的组数，两种输出下立体声都是2组，频段数不变
+     */
+    public int getGroupCount() {
+        return channels;
+    }
+
+    public int getBandsPerGroup() {
+        return bandsPerGroup;
+    }
+
+    /**
+     * 只有立体声才有声道相关性
+     */
+    public boolean hasCorrelation() {
+        return correlation != null;
+    }
+
+    /**
+     * 每个频段两个声道的相关性，-1到1
+     *
+     * @param out 长度至少为getBandsPerGroup()
+     */
+    public void getCorrelation(float[] out) {
+        System.arraycopy(correlation, 0, out, 0, bandsPerGroup);
+    }
+
+    @Override
+    public void process(int[] buf, double samplerate) {
+        process(buf, getFrameSize(), samplerate);
+    }
+
+    @Override
+    public void process(int[] buf, int newSamples, double samplerate) {
+        process(buf, 0, newSamples, samplerate);
+    }
+
+    /**
+     * @param buf        从offset开始交错排列的getFrameSize()个采样
+     * @param newSamples 新采样的个数，同样按交错后的个数算
+     */
+    @Override
+    public void process(int[] buf, int offset, int newSamples, double samplerate) {
+        this.buf = buf;
+        this.offset = offset;
+        this.newFrames = newSamples >= getFrameSize() ? channelFrameSize : newSamples / channels;
+        this.samplerate = samplerate;
+        if (helpers.length == 0) {
+            runTasks(0);
+        } else {
+            synchronized (lock) {
+                if (shutdown) {
+                    throw new IllegalStateException("engine is shut down");
+                }
+                failure = null;
+                pending = helpers.length;
+                generation++;
+                lock.notifyAll();
+            }
+            Throwable error = null;
+            try {
+                runTasks(0);
+            } catch (Throwable e) {
+                error = e;
+            }
+            //辅助线程还在读buf、写各自的结果，被中断也要等它们算完
+            boolean interrupted = false;
+            synchronized (lock) {
+                while (pending > 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (error == null) {
+                    error = failure;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                this.buf = null;
+                throw new IllegalStateException(error);
+            }
+        }
+        this.buf = null;
+        if (correlation != null) {
+            float[] mid = powers[2];
+            float[] side = powers[3];
+            for (int i = 0; i < bandsPerGroup; i++) {
+                float sum = mid[i] + side[i];
+                correlation[i] = sum > 0 ? (mid[i] - side[i]) / sum : 0;
+            }
+        }
+    }
+
+    @Override
+    public int getFrameSize() {
+        return channelFrameSize * channels;
+    }
+
+    @Override
+    public int getBandCount() {
+        return getGroupCount() * bandsPerGroup;
+    }
+
+    @Override
+    public void getBandPowers(float[] out) {
+        int first = output == Output.MID_SIDE ? channels : 0;
+        for (int g = 0; g < getGroupCount(); g++) {
+            System.arraycopy(powers[first + g], 0, out, g * bandsPerGroup, bandsPerGroup);
+        }
+    }
+
+    /**
+     * 每组重复一遍的频段中心频点
+     */
+    @Override
+    public double[] getBandFrequencies() {
+        double[] centers = engines[0].getBandFrequencies();
+        for (int g = 0; g < getGroupCount(); g++) {
+            System.arraycopy(centers, 0, frequencies, g * bandsPerGroup, bandsPerGroup);
+        }
+        return frequencies;
+    }
+
+    /**
+     * 让辅助线程退出，不再使用时调用
+     */
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.pdm.spectrogram.engine;
+
+import java.util.Arrays;
+
+/**
+ * 流式多相FIR抽取滤波器，代替原来每8个点求平均的分频(求平均的滤波效果很差，高频会混叠到低频)
+ * 滤波器的状态在两次调用之间保留，每帧只需要处理新进来的采样，重叠部分不用重新滤波；
+ * 只在需要输出的位置(每factor个输入一个)做卷积，相当于多相分解后每个输入只算taps / factor次乘加
+ * 最近的outputSize个输出保存在环形缓存里，给分频后的FFT直接取用
+ */
+public class PolyphaseDecimator {
+    //每一相的抽头数，总抽头数为factor * TAPS_PER_PHASE
+    static final int TAPS_PER_PHASE = 16;
+    //截止频率，相对于抽取后采样率的一半
+    private static final double CUTOFF = 0.8;
+    /**
+     * 通带上限，相对于抽取后的采样率，低于它的频点可以放心从抽取后的数据取
+     */
+    public static final double PASSBAND = 0.3;
+
+    private final int factor;
+    private final int outputSize;
+    //抽头系数按从旧到新的顺序排列，和history直接对应相乘
+    private final double[] taps;
+    //输入的历史，每个采样写两份(pos和pos + taps.length)，任意位置开始的一段都是连续的，不用取模
+    private final double[] history;
+    private int historyPos;
+    //距离上一次输出已经进来的采样数
+    private int phase;
+    //输出的环形缓存，同样写两份
+    private final double[] output;
+    private int outputPos;
+
+    /**
+     * @param factor     抽取倍数，2的指数倍数
+     * @param outputSize 保留最近多少个输出
+     */
+    public PolyphaseDecimator(int factor, int outputSize) {
+        if (factor < 2 || (factor & (factor - 1)) != 0) {
+            throw new IllegalArgumentException("factor must be a power of two >= 2: " + factor);
+        }
+        this.factor = factor;
+        this.outputSize = outputSize;
+        taps = design(factor);
+        history = new double[2 * taps.length];
+        output = new double[2 * outputSize];
+    }
+
+    /**
+     * Blackman窗的sinc低通，直流增益为1
+     */
+    private static double[] design(int factor) {
+        int n = factor * TAPS_PER_PHASE;
+        double[] taps = new double[n];
+        double fc = CUTOFF * 0.5 / factor;
+        double center = (n - 1) / 2.0;
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            double t = i - center;
+            double sinc = t == 0 ? 2 * fc : Math.sin(2 * Math.PI * fc * t) / (Math.PI * t);
+            double w = 0.42 - 0.5 * Math.cos(2 * Math.PI * (i + 0.5) / n)
+                    + 0.08 * Math.cos(4 * Math.PI * (i + 0.5) / n);
+            taps[i] = sinc * w;
+            sum += taps[i];
+        }
+        for (int i = 0; i < n; i++) {
+            taps[i] /= sum;
+        }
+        return taps;
+    }
+
+    public int getFactor() {
+        return factor;
+    }
+
+    /**
+     * 清掉滤波器状态和输出，输入不连续(比如跳转)时调用
+     */
+    public void reset() {
+        Arrays.fill(history, 0);
+        Arrays.fill(output, 0);
+        historyPos = 0;
+        phase = 0;
+        outputPos = 0;
+    }
+
+    /**
+     * 送入新的采样
+     */
+    public void process(int[] in, int offset, int length) {
+        int n = taps.length;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double x = in[i];
+            history[historyPos] = x;
+            history[historyPos + n] = x;
+            if (++historyPos == n) {
+                historyPos = 0;
+            }
+            if (++phase == factor) {
+                phase = 0;
+                // history[historyPos]到history[historyPos + n - 1]是从旧到新的n个输入
+                double acc = 0;
+                for (int k = 0, h = historyPos; k < n; k++, h++) {
+                    acc += taps[k] * history[h];
+                }
+                output[outputPos] = acc;
+                output[outputPos + outputSize] = acc;
+                if (++outputPos == outputSize) {
+                    outputPos = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * 输出缓存，最近outputSize个输出从旧到新在getOutput()[getOutputStart()]开始的连续位置
+     */
+    public double[] getOutput() {
+        return output;
+    }
+
+    public int getOutputStart() {
+        return outputPos;
+    }
+}
@@ -0,0 +1,227 @@
+package com.pdm.spectrogram.engine;
+
+import com.pdm.spectrogram.utils.PcmDecoder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单生产者单消费者的无锁环形缓存，采样直接存成int，采集线程写，分析线程读
+ * 数组长度为capacity + window，写到开头window个位置的采样在末尾再写一份(镜像)，
+ * 所以任意位置开始的window个采样在数组里都是连续的，分析线程直接在array()上算，不用拷贝也不用加锁
+ * 两个位置都是只增不减的long，生产者只改writePosition，消费者只改readPosition，都是volatile：
+ * 生产者先写数据再更新writePosition，消费者看到新的writePosition时数据一定已经可见
+ * 消费者持有[readPosition - window, readPosition)这一个窗口，生产者不会覆盖它；
+ * 放不下时整段丢掉并记数，不会把一段多声道的采样拆开，消费者看到丢弃数变了就知道不连续
+ */
+public class SampleRing {
+    private final int[] data;
+    private final int capacity;
+    private final int mask;
+    private final int window;
+    private volatile long writePosition = 0;
+    private volatile long readPosition = 0;
+    private volatile long dropped = 0;
+    //消费者在等的位置，生产者写到这里才唤醒它，平时不用每次都unpark
+    private volatile long wakeAt = Long.MAX_VALUE;
+    private volatile Thread consumer;
+
+    /**
+     * @param capacity 能放的采样数，会向上取到2的指数倍数，至少是window的两倍
+     * @param window   每次分析的窗口长度(交错后)，比如8192
+     */
+    public SampleRing(int capacity, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        int size = Integer.highestOneBit(Math.max(capacity, 2 * window) - 1) << 1;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.window = window;
+        data = new int[size + window];
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * 生产者还能写多少个采样而不覆盖消费者的窗口
+     */
+    public int free() {
+        long held = Math.max(0, readPosition - window);
+        return (int) (capacity - (writePosition - held));
+    }
+
+    /**
+     * 生产者：写一段采样，放不下时整段丢掉
+     *
+     * @return 写进去返回true
+     */
+    public boolean write(int[] src, int offset, int length) {
+        if (length > free()) {
+            dropped += length;
+            return false;
+        }
+        long w = writePosition;
+        int start = (int) (w & mask);
+        int first = Math.min(length, capacity - start);
+        System.arraycopy(src, offset, data, start, first);
+        System.arraycopy(src, offset + first, data, 0, length - first);
+        mirror(start, first, length);
+        publish(w + length);
+        return true;
+    }
+
+    /**
+     * 生产者：写一段16位的采样，AudioRecord读出来的就是short
+     */
+    public boolean write(short[] src, int offset, int length) {
+        if (length > free()) {
+            dropped += length;
+            return false;
+        }
+        long w = writePosition;
+        int start = (int) (w & mask);
+        for (int i = 0; i < length; i++) {
+            data[(start + i) & mask] = src[offset + i];
+        }
+        mirror(start, Math.min(length, capacity - start), length);
+        publish(w + length);
+        return true;
+    }
+
+    /**
+     * 生产者：直接从ByteBuffer解码一段PCM写进来，不经过中间数组，网络收到的数据用
+     * src的字节序要设成LITTLE_ENDIAN；放不下时整段丢掉，两种情况src的位置都跳过这一段
+     *
+     * @param length 采样数
+     */
+    public boolean write(ByteBuffer src, PcmDecoder decoder, int length) {
+        int p = src.position();
+        int bytes = decoder.getBytesPerSample();
+        src.position(p + length * bytes);
+        if (length > free()) {
+            dropped += length;
+            return false;
+        }
+        long w = writePosition;
+        int start = (int) (w & mask);
+        int first = Math.min(length, capacity - start);
+        decoder.decode(src, p, bytes, data, start, first);
+        decoder.decode(src, p + first * bytes, bytes, data, 0, length - first);
+        mirror(start, first, length);
+        publish(w + length);
+        return true;
+    }
+
+    /**
+     * 生产者：记下一段没写进来的采样(比如网络上丢了的包)，和放不下丢掉的一样算进getDropped()，
+     * 消费者由此知道前后不连续
+     */
+    public void drop(long length) {
+        dropped += length;
+    }
+
+    /**
+     * 刚写的落在开头window个位置的部分，在末尾也写一份
+     */
+    private void mirror(int start, int first, int length) {
+        if (start < window) {
+            System.arraycopy(data, start, data, capacity + start, Math.min(first, window - start));
+        }
+        int wrapped = length - first;
+        if (wrapped > 0) {
+            System.arraycopy(data, 0, data, capacity, Math.min(wrapped, window));
+        }
+    }
+
+    private void publish(long position) {
+        writePosition = position;
+        if (position >= wakeAt) {
+            Thread c = consumer;
+            if (c != null) {
+                LockSupport.unpark(c);
+            }
+        }
+    }
+
+    /**
+     * 生产者因为放不下而丢掉的采样总数
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * 消费者当前窗口的结束位置
+     */
+    public long getReadPosition() {
+        return readPosition;
+    }
+
+    /**
+     * 消费者：读过的位置之后还有多少个新采样
+     */
+    public long available() {
+        return writePosition - readPosition;
+    }
+
+    /**
+     * 消费者：等到至少有count个新采样，超时或者线程被中断时返回false
+     */
+    public boolean await(long count, long timeoutNanos) {
+        long target = readPosition + count;
+        if (writePosition >= target) {
+            return true;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        consumer = Thread.currentThread();
+        wakeAt = target;
+        try {
+            while (writePosition < target) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0 || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, left);
+            }
+            return true;
+        } finally {
+            wakeAt = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 消费者：窗口往前移count个采样，count不能超过available()
+     */
+    public void advance(long count) {
+        if (count > available()) {
+            throw new IllegalArgumentException("only " + available() + " samples available");
+        }
+        readPosition += count;
+    }
+
+    /**
+     * 消费者：当前窗口(readPosition之前的window个采样)在array()里的起始下标，窗口在数组里是连续的
+     * readPosition不到window时窗口开头是还没写过的0
+     */
+    public int windowOffset() {
+        return (int) ((readPosition - window) & mask);
+    }
+
+    /**
+     * 底层数组，只读，窗口以外的部分随时会被生产者改写
+     */
+    public int[] array() {
+        return data;
+    }
+}
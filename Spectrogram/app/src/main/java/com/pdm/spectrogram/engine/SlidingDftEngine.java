@@ -0,0 +1,187 @@
+package com.pdm.spectrogram.engine;
+
+import java.util.Arrays;
+
+/**
+ * 滑动DFT引擎：只跟踪每个频段中心那一个频点，每进来一个采样每个频段只做固定的几次乘加，
+ * 不用攒够一帧再做两次完整的FFT，柱子可以按采样的粒度更新，适合只看这几个频点的监测场合
+ * 每个频段的窗长按频段宽度定(低频窗长，高频窗短，相当于常数Q)，所有频段共用一个输入环形缓存；
+ * 频域加Hann窗：同一个频段用中心和左右相邻两个频点三个谐振器组合，泄漏和FFT引擎的默认窗一样
+ * 递推公式：S(n) = r * e^(iw) * S(n-1) + x(n) - r^N * e^(iwN) * x(n-N)，r略小于1，误差不会累积
+ */
+public class SlidingDftEngine implements SpectrumEngine {
+    //阻尼系数，r^N在最长的窗上也接近1
+    static final double DAMPING = 1 - 1e-9;
+    //窗长的范围，最长的约为44.1KHZ下的0.74秒
+    static final int MIN_WINDOW = 16;
+    static final int MAX_WINDOW = 1 << 15;
+
+    private final int frameSize;
+    private final BandMapper mapper;
+    private final int bandCount;
+    //每个频段的窗长
+    private final int[] windows;
+    //三个谐振器的旋转系数 r * e^(iw)，按 中心、左、右 排列，每个频段占3个
+    private final double[] rotRe;
+    private final double[] rotIm;
+    //r^N * e^(iwN)，三个谐振器相同
+    private final double[] tailRe;
+    private final double[] tailIm;
+    //谐振器的状态
+    private final double[] sumRe;
+    private final double[] sumIm;
+    //输入的环形缓存，长度为2的指数倍数
+    private double[] ring = new double[0];
+    private int mask;
+    private int pos;
+    //高于奈奎斯特频率的频段不跟踪
+    private int activeBands;
+    private double samplerate = 0;
+
+    public SlidingDftEngine() {
+        this(new AnalysisConfig());
+    }
+
+    /**
+     * 用到配置里的每帧采样数和频段数，FFT点数、分频倍数和窗函数对这个引擎没有意义
+     */
+    public SlidingDftEngine(AnalysisConfig config) {
+        frameSize = config.getFrameSize();
+        bandCount = config.getBandCount();
+        mapper = new BandMapper(bandCount);
+        windows = new int[bandCount];
+        rotRe = new double[3 * bandCount];
+        rotIm = new double[3 * bandCount];
+        tailRe = new double[bandCount];
+        tailIm = new double[bandCount];
+        sumRe = new double[3 * bandCount];
+        sumIm = new double[3 * bandCount];
+    }
+
+    @Override
+    public void process(int[] buf, double samplerate) {
+        process(buf, frameSize, samplerate);
+    }
+
+    @Override
+    public void process(int[] buf, int newSamples, double samplerate) {
+        process(buf, 0, newSamples, samplerate);
+    }
+
+    @Override
+    public void process(int[] buf, int offset, int newSamples, double samplerate) {
+        if (newSamples >= frameSize) {
+            //不连续，清掉状态，只需要送入最长的窗那么多
+            ensureCoefficients(samplerate);
+            reset();
+            int length = Math.min(frameSize, ring.length);
+            update(buf, offset + frameSize - length, length, samplerate);
+        } else {
+            update(buf, offset + frameSize - newSamples, newSamples, samplerate);
+        }
+    }
+
+    /**
+     * 送入任意长度的一段新采样，每个采样之后所有频段都是最新的，可以一个采样一个采样地调用
+     */
+    public void update(int[] samples, int offset, int length, double samplerate) {
+        ensureCoefficients(samplerate);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            double x = samples[i];
+            ring[pos] = x;
+            for (int b = 0; b < activeBands; b++) {
+                double old = ring[(pos - windows[b]) & mask];
+                //新进来的减去出窗的，三个谐振器共用
+                double inRe = x - tailRe[b] * old;
+                double inIm = -tailIm[b] * old;
+                for (int j = 3 * b, e = j + 3; j < e; j++) {
+                    double re = sumRe[j], im = sumIm[j];
+                    sumRe[j] = rotRe[j] * re - rotIm[j] * im + inRe;
+                    sumIm[j] = rotRe[j] * im + rotIm[j] * re + inIm;
+                }
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    /**
+     * 采样率变了才重新算窗长和系数，同时清掉状态
+     */
+    private void ensureCoefficients(double samplerate) {
+        if (samplerate == this.samplerate) {
+            return;
+        }
+        this.samplerate = samplerate;
+        double[] centers = mapper.getCenters();
+        //相邻两个频段中心的比例
+        double ratio = centers.length > 1 ? centers[1] / centers[0] : 2;
+        double bandwidth = Math.sqrt(ratio) - 1 / Math.sqrt(ratio);
+        int longest = 0;
+        activeBands = 0;
+        for (int b = 0; b < centers.length && centers[b] < samplerate / 2; b++) {
+            //频点间隔取频段宽度的一半，加Hann窗后主瓣正好是频段宽度
+            int n = (int) Math.round(2 * samplerate / (centers[b] * bandwidth));
+            n = Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, n));
+            windows[b] = n;
+            longest = Math.max(longest, n);
+            double w = 2 * Math.PI * centers[b] / samplerate;
+            double step = 2 * Math.PI / n;
+            double[] omegas = {w, w - step, w + step};
+            for (int j = 0; j < 3; j++) {
+                rotRe[3 * b + j] = DAMPING * Math.cos(omegas[j]);
+                rotIm[3 * b + j] = DAMPING * Math.sin(omegas[j]);
+            }
+            //e^(i(w±step)N) = e^(iwN)
+            double decay = Math.pow(DAMPING, n);
+            tailRe[b] = decay * Math.cos(w * n);
+            tailIm[b] = decay * Math.sin(w * n);
+            activeBands = b + 1;
+        }
+        int size = Integer.highestOneBit(Math.max(1, longest)) << 1;
+        if (ring.length != size) {
+            ring = new double[size];
+            mask = size - 1;
+        }
+        reset();
+    }
+
+    private void reset() {
+        Arrays.fill(ring, 0);
+        Arrays.fill(sumRe, 0);
+        Arrays.fill(sumIm, 0);
+        pos = 0;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    @Override
+    public int getBandCount() {
+        return bandCount;
+    }
+
+    /**
+     * 取的时候才把三个谐振器组合成加Hann窗的结果：X = S / 2 - (S左 + S右) / 4，幅度为4|X| / N
+     */
+    @Override
+    public void getBandPowers(float[] out) {
+        for (int b = 0; b < bandCount; b++) {
+            if (b >= activeBands) {
+                out[b] = 0;
+                continue;
+            }
+            int j = 3 * b;
+            double re = 0.5 * sumRe[j] - 0.25 * (sumRe[j + 1] + sumRe[j + 2]);
+            double im = 0.5 * sumIm[j] - 0.25 * (sumIm[j + 1] + sumIm[j + 2]);
+            double scale = 4.0 / windows[b];
+            out[b] = (float) ((re * re + im * im) * scale * scale);
+        }
+    }
+
+    @Override
+    public double[] getBandFrequencies() {
+        return mapper.getCenters();
+    }
+}
@@ -0,0 +1,49 @@
+package com.pdm.spectrogram.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 三缓冲：写的一方一直写自己手里的那一帧，写完和中间那帧交换；读的一方有新帧时再和中间那帧交换
+ * 两边都不加锁、不分配对象，读的一方拿到的帧在下一次acquire之前不会被改写
+ * 只支持一个写线程和一个读线程
+ */
+public class SpectrumBuffer {
+    //中间帧的下标，DIRTY表示写完之后还没被读走
+    private static final int DIRTY = 4;
+    private static final int INDEX = 3;
+
+    private final SpectrumFrame[] frames = new SpectrumFrame[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+
+    public SpectrumBuffer(int bandCount, int frameSize) {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new SpectrumFrame(bandCount, frameSize);
+        }
+    }
+
+    /**
+     * 写线程：当前可以写的帧
+     */
+    SpectrumFrame back() {
+        return frames[back];
+    }
+
+    /**
+     * 写线程：写完back()之后发布出去
+     */
+    void publish() {
+        back = middle.getAndSet(back | DIRTY) & INDEX;
+    }
+
+    /**
+     * 读线程：取最新发布的一帧，没有新帧时返回上一次拿到的
+     */
+    public SpectrumFrame acquire() {
+        if ((middle.get() & DIRTY) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return frames[front];
+    }
+}
@@ -0,0 +1,64 @@
+package com.pdm.spectrogram.engine;
+
+/**
+ * 频谱计算引擎，不依赖Android，可以直接在JVM上跑单元测试和性能测试
+ * 每次传入getFrameSize()个采样点，算出getBandCount()个频段的能量
+ * Author:pdm on 2016/3/15
+ * Email:aiyh0202@163.com
+ */
+public interface SpectrumEngine {
+    // 默认每次取8K数据，因为需要8分频（每次采样1024个点）1024*8，8分频是为了取低频数据
+    int SAMPLING_TOTAL = 8192;
+    // 默认进行两次1024个数据的FFT
+    int FFT_SIZE = 1024;
+    //默认显示的段数，31段，约为1/3倍频程
+    int SPECTROGRAM_COUNT = 31;
+
+    /**
+     * 对一帧数据进行FFT计算，整帧都当作新数据，和上一帧不连续
+     *
+     * @param buf        长度为getFrameSize()
+     * @param samplerate 采样率
+     */
+    void process(int[] buf, double samplerate);
+
+    /**
+     * 对一帧数据进行FFT计算，buf的最后newSamples个采样是上一帧之后新进来的，
+     * 分频滤波器只需要处理这一部分
+     *
+     * @param buf        长度为getFrameSize()
+     * @param newSamples 新采样的个数，大于等于getFrameSize()时相当于process(buf, samplerate)
+     * @param samplerate 采样率
+     */
+    void process(int[] buf, int newSamples, double samplerate);
+
+    /**
+     * 同process(buf, newSamples, samplerate)，只是这一帧从buf[offset]开始，
+     * 可以直接在SampleRing的数组上算，不用先拷出来
+     *
+     * @param offset 这一帧第一个采样的下标，buf至少有offset + getFrameSize()个
+     */
+    void process(int[] buf, int offset, int newSamples, double samplerate);
+
+    /**
+     * 每帧需要的采样数
+     */
+    int getFrameSize();
+
+    /**
+     * 频段个数
+     */
+    int getBandCount();
+
+    /**
+     * 取出每个频段的能量，即正弦波幅度的平方，开方后就是原来的电频值
+     *
+     * @param out 长度至少为getBandCount()
+     */
+    void getBandPowers(float[] out);
+
+    /**
+     * 每个频段的中心频点(Hz)，20HZ-20KHZ之间按对数分布
+     */
+    double[] getBandFrequencies();
+}
@@ -0,0 +1,60 @@
+package com.pdm.spectrogram.engine;
+
+/**
+ * 分析线程发布的一帧结果：每个频段的能量，以及波形显示用的采样
+ * 由SpectrumBuffer循环复用，读的一方拿到之后在下一次acquire之前不会被改写，只读不要改
+ */
+public class SpectrumFrame {
+    final float[] powers;
+    final int[] samples;
+    long sequence;
+    double samplerate;
+    boolean hasSpectrum;
+    //立体声引擎才有，分析线程第一次用到时分配
+    float[] correlation;
+    boolean hasCorrelation;
+
+    SpectrumFrame(int bandCount, int frameSize) {
+        powers = new float[bandCount];
+        samples = new int[frameSize];
+    }
+
+    /**
+     * 每个频段的能量，见SpectrumEngine.getBandPowers
+     */
+    public float[] getPowers() {
+        return powers;
+    }
+
+    /**
+     * 这一帧的原始采样，只有不做频谱分析(波形显示)时才会拷贝进来
+     */
+    public int[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * 帧序号，从1开始递增，0表示还没有数据
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public double getSamplerate() {
+        return samplerate;
+    }
+
+    /**
+     * 每个频段两个声道的相关性，-1到1，只有立体声的MultiChannelEngine才有，否则为null
+     */
+    public float[] getCorrelation() {
+        return hasCorrelation ? correlation : null;
+    }
+
+    /**
+     * powers是否是这一帧算出来的
+     */
+    public boolean hasSpectrum() {
+        return hasSpectrum;
+    }
+}
@@ -0,0 +1,211 @@
+package com.pdm.spectrogram.engine;
+
+/**
+ * 波形的最小/最大值金字塔，类似贴图的mip-map：第0层每项是base个采样的最小、最大值，
+ * 往上每层每项合并下一层的FACTOR项，采样边追加边建
+ * 画波形时每个像素列只从合适的一层取最多几项，不管显示一小时的全貌还是逐个采样的特写，
+ * 耗时都只和像素列数有关；每列取的是区间内真实的最小、最大值，不会像隔点取样那样漏掉尖峰
+ * 取的区间按项对齐往外扩，最多多包含区间两边各不到一项的采样，峰值只会多不会少
+ */
+public class WaveformPyramid {
+    //相邻两层每项采样数的比例
+    public static final int FACTOR = 4;
+    //层数上限，base为1时顶层每项4^15(约10.7亿)个采样，44.1kHz单声道约6.8小时；
+    //一列的采样比这还多时每列要扫更多的顶层项，结果不变，只是慢一些
+    static final int MAX_LEVELS = 16;
+    private static final int INITIAL_CAPACITY = 256;
+
+    //第0层每项的采样数，1就是保存原始采样
+    private final int base;
+    private final int[][] mins = new int[MAX_LEVELS][];
+    private final int[][] maxs = new int[MAX_LEVELS][];
+    //每层已经完整的项数
+    private final int[] counts = new int[MAX_LEVELS];
+    private int levels;
+    //追加的采样总数
+    private long length;
+    //第0层还没凑满base个采样的那一项
+    private int pendingMin, pendingMax, pendingCount;
+    //render时累计的结果
+    private int scanMin, scanMax;
+
+    /**
+     * 保存原始采样，可以放大到单个采样
+     */
+    public WaveformPyramid() {
+        this(1);
+    }
+
+    /**
+     * @param base 第0层每项的采样数，长文件的全貌用较大的值省内存(每项8个字节)，
+     *             但每列少于base个采样时分辨率只到base
+     */
+    public WaveformPyramid(int base) {
+        if (base < 1) {
+            throw new IllegalArgumentException("base must be positive: " + base);
+        }
+        this.base = base;
+        clear();
+    }
+
+    /**
+     * 清空，已经分配的数组留着下次用
+     */
+    public void clear() {
+        for (int i = 0; i < MAX_LEVELS; i++) {
+            counts[i] = 0;
+        }
+        levels = 1;
+        length = 0;
+        pendingCount = 0;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int getBase() {
+        return base;
+    }
+
+    /**
+     * 追加一段采样
+     */
+    public void append(int[] samples, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int x = samples[i];
+            if (pendingCount == 0) {
+                pendingMin = x;
+                pendingMax = x;
+            } else if (x < pendingMin) {
+                pendingMin = x;
+            } else if (x > pendingMax) {
+                pendingMax = x;
+            }
+            if (++pendingCount == base) {
+                push(0, pendingMin, pendingMax);
+                pendingCount = 0;
+            }
+        }
+        this.length += length;
+    }
+
+    /**
+     * 第0层完整的项数，每项getBase()个采样
+     */
+    public int getEntryCount() {
+        return counts[0];
+    }
+
+    /**
+     * 取出第0层从first开始的count项，用来保存
+     */
+    public void copyEntries(int first, int[] min, int[] max, int offset, int count) {
+        System.arraycopy(mins[0], first, min, offset, count);
+        System.arraycopy(maxs[0], first, max, offset, count);
+    }
+
+    /**
+     * 直接追加第0层的项(比如从缓存文件读出来的)，每项算getBase()个采样，上面的层照常合并
+     * 之前追加的采样必须正好凑满整数项
+     */
+    public void appendEntries(int[] min, int[] max, int offset, int count) {
+        if (pendingCount != 0) {
+            throw new IllegalStateException("pending samples are not a whole entry");
+        }
+        for (int i = offset, end = offset + count; i < end; i++) {
+            push(0, min[i], max[i]);
+        }
+        length += (long) count * base;
+    }
+
+    /**
+     * 第level层多了一项，凑满FACTOR项就合并成上一层的一项
+     */
+    private void push(int level, int min, int max) {
+        int n = counts[level];
+        if (mins[level] == null || n == mins[level].length) {
+            grow(level);
+        }
+        mins[level][n] = min;
+        maxs[level][n] = max;
+        counts[level] = ++n;
+        if (n % FACTOR == 0 && level + 1 < MAX_LEVELS) {
+            int[] lo = mins[level], hi = maxs[level];
+            for (int j = n - FACTOR; j < n - 1; j++) {
+                min = Math.min(min, lo[j]);
+                max = Math.max(max, hi[j]);
+            }
+            levels = Math.max(levels, level + 2);
+            push(level + 1, min, max);
+        }
+    }
+
+    private void grow(int level) {
+        int[] lo = mins[level];
+        int size = lo == null ? INITIAL_CAPACITY : lo.length * 2;
+        int[] newMin = new int[size];
+        int[] newMax = new int[size];
+        if (lo != null) {
+            System.arraycopy(lo, 0, newMin, 0, counts[level]);
+            System.arraycopy(maxs[level], 0, newMax, 0, counts[level]);
+        }
+        mins[level] = newMin;
+        maxs[level] = newMax;
+    }
+
+    /**
+     * 把[start, end)的采样平均分成columns列，求每列的最小、最大值；超出已有采样的列最小值大于最大值
+     *
+     * @param outMin 长度至少为columns
+     * @param outMax 长度至少为columns
+     */
+    public void render(long start, long end, int columns, int[] outMin, int[] outMax) {
+        double step = (double) (end - start) / columns;
+        //每列采样数对应的层：这一层每项不超过一列的采样数，每列最多取FACTOR + 2项
+        int level = 0;
+        long size = base;
+        while (level + 1 < levels && size * FACTOR <= step) {
+            level++;
+            size *= FACTOR;
+        }
+        for (int c = 0; c < columns; c++) {
+            long s = Math.max(0, start + (long) Math.floor(c * step));
+            long e = Math.min(length, start + (long) Math.floor((c + 1) * step));
+            if (e <= s) {
+                //放大到一列不到一个采样时，这一列取它所在的那个采样
+                e = s + 1;
+            }
+            scanMin = Integer.MAX_VALUE;
+            scanMax = Integer.MIN_VALUE;
+            if (s < length) {
+                scan(level, size, s, Math.min(e, length));
+            }
+            outMin[c] = scanMin;
+            outMax[c] = scanMax;
+        }
+    }
+
+    /**
+     * 用第level层覆盖[s, e)，这一层还没建好的末尾交给下一层，第0层的末尾是未凑满的那一项
+     */
+    private void scan(int level, long size, long s, long e) {
+        int[] lo = mins[level], hi = maxs[level];
+        long available = counts[level];
+        long first = s / size;
+        long last = Math.min((e - 1) / size, available - 1);
+        for (long j = first; j <= last; j++) {
+            scanMin = Math.min(scanMin, lo[(int) j]);
+            scanMax = Math.max(scanMax, hi[(int) j]);
+        }
+        long covered = available * size;
+        if (e > covered) {
+            if (level > 0) {
+                scan(level - 1, size / FACTOR, Math.max(s, covered), e);
+            } else if (pendingCount > 0) {
+                scanMin = Math.min(scanMin, pendingMin);
+                scanMax = Math.max(scanMax, pendingMax);
+            }
+        }
+    }
+}
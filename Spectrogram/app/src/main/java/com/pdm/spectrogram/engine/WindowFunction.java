@@ -0,0 +1,106 @@
+package com.pdm.spectrogram.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FFT前加的窗函数，不加窗(RECTANGULAR)时频谱泄漏比较严重
+ * 每种窗每个长度的系数表只算一次，缓存起来给所有引擎共用
+ */
+public enum WindowFunction {
+    RECTANGULAR {
+        @Override
+        double value(double x) {
+            return 1;
+        }
+    },
+    HANN {
+        @Override
+        double value(double x) {
+            return 0.5 - 0.5 * Math.cos(2 * Math.PI * x);
+        }
+    },
+    HAMMING {
+        @Override
+        double value(double x) {
+            return 0.54 - 0.46 * Math.cos(2 * Math.PI * x);
+        }
+    },
+    BLACKMAN_HARRIS {
+        @Override
+        double value(double x) {
+            return 0.35875 - 0.48829 * Math.cos(2 * Math.PI * x)
+                    + 0.14128 * Math.cos(4 * Math.PI * x)
+                    - 0.01168 * Math.cos(6 * Math.PI * x);
+        }
+    };
+
+    private final Map<Integer, double[]> tables = new HashMap<Integer, double[]>();
+    private final Map<Integer, float[]> floatTables = new HashMap<Integer, float[]>();
+
+    /**
+     * x为在窗里的位置，0到1
+     */
+    abstract double value(double x);
+
+    /**
+     * n个点的窗系数(周期形式，适合做FFT)，返回的是缓存的数组，不要修改
+     */
+    public double[] table(int n) {
+        synchronized (tables) {
+            double[] table = tables.get(n);
+            if (table == null) {
+                table = new double[n];
+                for (int i = 0; i < n; i++) {
+                    table[i] = value((double) i / n);
+                }
+                tables.put(n, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * float版本的窗系数，返回的是缓存的数组，不要修改
+     */
+    public float[] floatTable(int n) {
+        synchronized (floatTables) {
+            float[] table = floatTables.get(n);
+            if (table == null) {
+                double[] values = table(n);
+                table = new float[n];
+                for (int i = 0; i < n; i++) {
+                    table[i] = (float) values[i];
+                }
+                floatTables.put(n, table);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * 窗系数之和，用来把FFT的结果还原成正弦波的幅度
+     */
+    public double sum(int n) {
+        double[] table = table(n);
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += table[i];
+        }
+        return sum;
+    }
+
+    /**
+     * 等效噪声带宽，以频点为单位：一个正弦波的能量在FFT后会分散到这么多个频点上，不加窗时为1
+     */
+    public double enbw(int n) {
+        double[] table = table(n);
+        double sum = 0;
+        double squares = 0;
+        for (int i = 0; i < n; i++) {
+            sum += table[i];
+            squares += table[i] * table[i];
+        }
+        return n * squares / (sum * sum);
+    }
+}
@@ -0,0 +1,30 @@
+package com.pdm.spectrogram.source;
+
+import com.pdm.spectrogram.engine.SampleRing;
+
+import java.io.IOException;
+
+/**
+ * 音源：在自己的线程里不停地把交错排列的采样写进SampleRing，是环形缓存唯一的生产者
+ * 可以是麦克风、wav文件、网络或者测试用的PCM数据，分析那一边不关心采样从哪来
+ */
+public interface AudioSource {
+    double getSampleRate();
+
+    int getChannels();
+
+    /**
+     * 采样的位数，写进环形缓存的是还原成有符号整数的采样，16位时范围为-32768到32767
+     */
+    int getBitsPerSample();
+
+    /**
+     * 开始往ring里写，马上返回，一个音源同时只能写一个ring
+     */
+    void start(SampleRing ring) throws IOException;
+
+    /**
+     * 停止并等采集线程结束，之后不会再写ring
+     */
+    void stop();
+}
@@ -0,0 +1,81 @@
+package com.pdm.spectrogram.source;
+
+import com.pdm.spectrogram.utils.WaveFileReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * wav文件：按采样率的节奏流式读出来写进环形缓存，和麦克风走同一条路，可以循环播放
+ */
+public class FileSource extends PacedSource {
+    /**
+     * 每次从头播放时重新打开文件
+     */
+    public interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private final Opener opener;
+    private final boolean loop;
+    private WaveFileReader reader;
+    private final double samplerate;
+    private final int channels;
+    private final int bits;
+
+    /**
+     * 先打开一次读出格式
+     *
+     * @param loop 读到末尾是否从头再来
+     */
+    public FileSource(Opener opener, boolean loop) throws IOException {
+        super(true);
+        this.opener = opener;
+        this.loop = loop;
+        reader = open();
+        samplerate = reader.getSampleRate();
+        channels = reader.getNumChannels();
+        bits = reader.getBitPerSample();
+    }
+
+    private WaveFileReader open() throws IOException {
+        WaveFileReader reader = new WaveFileReader();
+        if (!reader.open(opener.open())) {
+            reader.close();
+            throw new IOException("unsupported wav file");
+        }
+        return reader;
+    }
+
+    @Override
+    int read(int[] dst, int frames) throws IOException {
+        int n = reader.readInterleaved(dst, 0, frames);
+        if (n < frames && loop) {
+            reader.close();
+            reader = open();
+            n += reader.readInterleaved(dst, n * channels, frames - n);
+        }
+        return n;
+    }
+
+    @Override
+    public double getSampleRate() {
+        return samplerate;
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public int getBitsPerSample() {
+        return bits;
+    }
+
+    @Override
+    public synchronized void stop() {
+        super.stop();
+        reader.close();
+    }
+}
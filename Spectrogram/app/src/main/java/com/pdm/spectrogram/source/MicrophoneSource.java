@@ -0,0 +1,108 @@
+package com.pdm.spectrogram.source;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.os.Process;
+import android.util.Log;
+
+import com.pdm.spectrogram.engine.SampleRing;
+
+import java.io.IOException;
+
+/**
+ * 麦克风：单声道16位，用AudioRecord允许的最小缓存，每次只读CHUNK个采样就写进环形缓存，
+ * 读线程是音频优先级，从声音进来到分析线程拿到只差一次read的时间
+ * 需要RECORD_AUDIO权限
+ */
+public class MicrophoneSource implements AudioSource {
+    private static final String TAG = "MicrophoneSource";
+    //每次读的采样数，44.1KHZ下约5.8毫秒
+    static final int CHUNK = 256;
+
+    private final int samplerate;
+    private volatile Thread thread;
+    private AudioRecord record;
+
+    public MicrophoneSource() {
+        this(44100);
+    }
+
+    /**
+     * @param samplerate 44100是所有设备都支持的
+     */
+    public MicrophoneSource(int samplerate) {
+        this.samplerate = samplerate;
+    }
+
+    @Override
+    public double getSampleRate() {
+        return samplerate;
+    }
+
+    @Override
+    public int getChannels() {
+        return 1;
+    }
+
+    @Override
+    public int getBitsPerSample() {
+        return 16;
+    }
+
+    @Override
+    public synchronized void start(final SampleRing ring) throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("already started");
+        }
+        int minBuffer = AudioRecord.getMinBufferSize(samplerate, AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minBuffer == AudioRecord.ERROR_BAD_VALUE || minBuffer == AudioRecord.ERROR_INVALID_OPERATION) {
+            throw new IOException("unsupported sample rate " + samplerate);
+        }
+        //缓存越小延迟越低，至少放得下两次read
+        final AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.MIC, samplerate,
+                AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, Math.max(minBuffer, 4 * CHUNK));
+        if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+            record.release();
+            throw new IOException("cannot open microphone");
+        }
+        this.record = record;
+        record.startRecording();
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+                short[] chunk = new short[CHUNK];
+                while (thread == Thread.currentThread()) {
+                    int n = record.read(chunk, 0, CHUNK);
+                    if (n < 0) {
+                        Log.e(TAG, "read failed: " + n);
+                        break;
+                    }
+                    //分析线程跟不上时这一段丢掉，不能阻塞录音
+                    ring.write(chunk, 0, n);
+                }
+            }
+        }, TAG);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        thread = null;
+        //stop会让阻塞中的read返回
+        record.stop();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        record.release();
+        record = null;
+    }
+}
@@ -0,0 +1,396 @@
+package com.pdm.spectrogram.source;
+
+import com.pdm.spectrogram.engine.SampleRing;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * 网络音源的接收端：一个线程用一个Selector同时收任意多路TCP连接和UDP数据报，格式见PcmStreamProtocol
+ * 每一路是一个NetworkStream，采样直接从direct ByteBuffer解码写进这一路的SampleRing，不经过byte[]，
+ * 每路的开销只有一次read和解码，一个线程能跟上很多路48KHZ的流
+ * 分析跟不上(环形缓存放不下)时按Overflow处理：
+ * DROP整帧丢掉；PAUSE暂停读这个TCP连接，内核的接收缓存满了以后TCP的流控会让发送端慢下来，
+ * 暂停超过maxPause还没有空间就丢掉这一帧接着读，分析线程卡住时也不会拖住发送端；UDP没有流控，总是丢
+ */
+public class NetworkReceiver implements Runnable {
+    public enum Overflow {
+        DROP, PAUSE
+    }
+
+    /**
+     * 回调都在接收线程里
+     */
+    public interface Listener {
+        /**
+         * 新的一路收到第一帧
+         *
+         * @return 这一路要写的环形缓存，接收线程是它唯一的生产者；返回null表示不要这一路，TCP连接会被断开
+         */
+        SampleRing onStreamOpened(NetworkStream stream);
+
+        /**
+         * onStreamOpened返回了环形缓存的一路结束了：TCP连接断开或者接收端停止
+         */
+        void onStreamClosed(NetworkStream stream);
+    }
+
+    //有暂停的连接时多久检查一次环形缓存有没有空间
+    private static final long PAUSE_POLL_MILLIS = 1;
+    //每个TCP连接的接收缓存，至少放得下一整帧
+    private static final int TCP_BUFFER = 2 * PcmStreamProtocol.MAX_FRAME;
+    //UDP套接字的内核接收缓存，接收线程偶尔慢一下时不丢包
+    private static final int UDP_RECEIVE_BUFFER = 1 << 20;
+    //UDP的序号比期望的小这么多帧以内算迟到或者重复，再小就是发送端重启了，从新的序号接着收
+    private static final int REORDER_WINDOW = 64;
+
+    /**
+     * 一个TCP连接
+     */
+    private static final class Connection {
+        final SocketChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(TCP_BUFFER).order(ByteOrder.LITTLE_ENDIAN);
+        SelectionKey key;
+        NetworkStream stream;
+        boolean paused;
+        long pausedSince;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Listener listener;
+    private final Selector selector;
+    private final ArrayList<SelectableChannel> bound = new ArrayList<SelectableChannel>();
+    private final ArrayList<Connection> paused = new ArrayList<Connection>();
+    private final HashMap<Integer, NetworkStream> datagramStreams = new HashMap<Integer, NetworkStream>();
+    private final ByteBuffer datagram = ByteBuffer.allocateDirect(PcmStreamProtocol.MAX_FRAME)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private volatile Overflow overflow = Overflow.DROP;
+    private volatile long maxPauseNanos = 50000000L;
+    private volatile Thread thread;
+
+    public NetworkReceiver(Listener listener) throws IOException {
+        this.listener = listener;
+        selector = Selector.open();
+    }
+
+    /**
+     * 环形缓存放不下时怎么办，随时可以改
+     *
+     * @param maxPauseMillis PAUSE时一个连接最多暂停多久，之后丢掉放不下的那一帧
+     */
+    public void setOverflow(Overflow overflow, long maxPauseMillis) {
+        this.overflow = overflow;
+        this.maxPauseNanos = maxPauseMillis * 1000000L;
+    }
+
+    /**
+     * 在port上接受TCP连接，在start之前调用
+     *
+     * @param port 0表示随便一个空闲端口
+     * @return 实际的端口
+     */
+    public synchronized int bindTcp(int port) throws IOException {
+        checkNotStarted();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        try {
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        bound.add(server);
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * 在port上收UDP数据报，在start之前调用
+     *
+     * @param port 0表示随便一个空闲端口
+     * @return 实际的端口
+     */
+    public synchronized int bindUdp(int port) throws IOException {
+        checkNotStarted();
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.socket().setReceiveBufferSize(UDP_RECEIVE_BUFFER);
+            channel.socket().bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        bound.add(channel);
+        return channel.socket().getLocalPort();
+    }
+
+    private void checkNotStarted() {
+        if (thread != null || !selector.isOpen()) {
+            throw new IllegalStateException("bind before start");
+        }
+    }
+
+    public synchronized void start() {
+        checkNotStarted();
+        thread = new Thread(this, "NetworkReceiver");
+        thread.start();
+    }
+
+    /**
+     * 停止并等接收线程结束，关掉所有连接和端口，之后不能再start
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            if (t == null) {
+                //没有start过，直接关掉绑定的端口
+                if (selector.isOpen()) {
+                    closeAll();
+                }
+                return;
+            }
+            thread = null;
+        }
+        selector.wakeup();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (thread == Thread.currentThread()) {
+                selector.select(paused.isEmpty() ? 0 : PAUSE_POLL_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                    } else if (key.attachment() != null) {
+                        read((Connection) key.attachment());
+                    } else {
+                        receive((DatagramChannel) key.channel());
+                    }
+                }
+                //暂停的连接看看现在放不放得下
+                for (int i = paused.size() - 1; i >= 0; i--) {
+                    read(paused.get(i));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection c = new Connection(channel);
+        c.key = channel.register(selector, SelectionKey.OP_READ, c);
+    }
+
+    /**
+     * 读一个TCP连接，处理缓存里所有完整的帧；暂停中的连接不读，只重新处理缓存里剩下的帧
+     */
+    private void read(Connection c) {
+        ByteBuffer buffer = c.buffer;
+        try {
+            if (!c.paused && c.channel.read(buffer) < 0) {
+                close(c);
+                return;
+            }
+        } catch (IOException e) {
+            close(c);
+            return;
+        }
+        buffer.flip();
+        boolean valid = consume(c);
+        buffer.compact();
+        if (!valid) {
+            close(c);
+        }
+    }
+
+    /**
+     * @return false表示数据不合格式或者这一路不要了，要断开
+     */
+    private boolean consume(Connection c) {
+        ByteBuffer buffer = c.buffer;
+        while (buffer.remaining() >= PcmStreamProtocol.HEADER_SIZE) {
+            int p = buffer.position();
+            int payload = PcmStreamProtocol.check(buffer, p);
+            if (payload < 0) {
+                return false;
+            }
+            if (buffer.remaining() < PcmStreamProtocol.HEADER_SIZE + payload) {
+                break;
+            }
+            NetworkStream stream = c.stream;
+            if (stream == null) {
+                stream = open(buffer, p, c.channel.socket().getRemoteSocketAddress(), true);
+                c.stream = stream;
+                if (stream.ring == null) {
+                    return false;
+                }
+            } else if (!stream.matches(buffer, p)) {
+                return false;
+            }
+            int samples = payload / stream.decoder.getBytesPerSample();
+            SampleRing ring = stream.ring;
+            if (samples > ring.free() && overflow == Overflow.PAUSE) {
+                long now = System.nanoTime();
+                if (!c.paused) {
+                    c.paused = true;
+                    c.pausedSince = now;
+                    c.key.interestOps(0);
+                    paused.add(c);
+                }
+                if (now - c.pausedSince < maxPauseNanos) {
+                    return true;
+                }
+            }
+            if (c.paused) {
+                c.paused = false;
+                c.key.interestOps(SelectionKey.OP_READ);
+                paused.remove(c);
+            }
+            buffer.position(p + PcmStreamProtocol.HEADER_SIZE);
+            if (!ring.write(buffer, stream.decoder, samples)) {
+                stream.dropped(samples);
+            }
+            stream.received();
+        }
+        return true;
+    }
+
+    /**
+     * 收完UDP套接字里所有的数据报，格式不对的直接扔掉
+     */
+    private void receive(DatagramChannel channel) throws IOException {
+        ByteBuffer buffer = datagram;
+        while (true) {
+            buffer.clear();
+            SocketAddress from = channel.receive(buffer);
+            if (from == null) {
+                return;
+            }
+            buffer.flip();
+            if (buffer.remaining() < PcmStreamProtocol.HEADER_SIZE) {
+                continue;
+            }
+            int payload = PcmStreamProtocol.check(buffer, 0);
+            if (payload < 0 || buffer.remaining() != PcmStreamProtocol.HEADER_SIZE + payload) {
+                continue;
+            }
+            int id = buffer.getInt(PcmStreamProtocol.STREAM_ID);
+            int sequence = buffer.getInt(PcmStreamProtocol.SEQUENCE);
+            NetworkStream stream = datagramStreams.get(id);
+            if (stream == null) {
+                stream = open(buffer, 0, from, false);
+                datagramStreams.put(id, stream);
+                stream.nextSequence = sequence;
+            } else if (!stream.matches(buffer, 0)) {
+                continue;
+            }
+            SampleRing ring = stream.ring;
+            //序号回绕时差值仍然是对的，迟到或者重复的帧扔掉
+            int gap = sequence - stream.nextSequence;
+            if (ring == null || (gap < 0 && gap >= -REORDER_WINDOW)) {
+                continue;
+            }
+            stream.nextSequence = sequence + 1;
+            int samples = payload / stream.decoder.getBytesPerSample();
+            if (gap < 0) {
+                //发送端用同一个id重启了，不知道中间停了多久，按丢了一帧算，让分析线程知道不连续
+                ring.drop(samples);
+            } else if (gap > 0) {
+                //丢了的帧按这一帧的长度算，让分析线程知道不连续
+                stream.lost(gap);
+                ring.drop((long) gap * samples);
+            }
+            buffer.position(PcmStreamProtocol.HEADER_SIZE);
+            if (!ring.write(buffer, stream.decoder, samples)) {
+                stream.dropped(samples);
+            }
+            stream.received();
+        }
+    }
+
+    private NetworkStream open(ByteBuffer header, int position, SocketAddress remote, boolean tcp) {
+        NetworkStream stream = new NetworkStream(header, position, remote, tcp);
+        stream.ring = listener.onStreamOpened(stream);
+        return stream;
+    }
+
+    private void close(Connection c) {
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (c.paused) {
+            paused.remove(c);
+        }
+        if (c.stream != null && c.stream.ring != null) {
+            listener.onStreamClosed(c.stream);
+        }
+    }
+
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() != null) {
+                close((Connection) key.attachment());
+            }
+        }
+        for (NetworkStream stream : datagramStreams.values()) {
+            if (stream.ring != null) {
+                listener.onStreamClosed(stream);
+            }
+        }
+        datagramStreams.clear();
+        for (SelectableChannel channel : bound) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
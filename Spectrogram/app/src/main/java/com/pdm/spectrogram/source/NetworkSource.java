@@ -0,0 +1,114 @@
+package com.pdm.spectrogram.source;
+
+import com.pdm.spectrogram.engine.SampleRing;
+
+import java.io.IOException;
+
+/**
+ * 从网络收一路PCM，比如另一台设备的麦克风：格式事先约定好，
+ * 收到的第一路格式相符的流写进start给的环形缓存，同时只收一路，其它的不要；TCP断开后可以重新连上来
+ * 同时收很多路时直接用NetworkReceiver
+ */
+public class NetworkSource implements AudioSource {
+    private final int port;
+    private final boolean udp;
+    private final int samplerate;
+    private final int channels;
+    private final int bits;
+    private NetworkReceiver.Overflow overflow = NetworkReceiver.Overflow.DROP;
+    private long maxPauseMillis = 0;
+    private NetworkReceiver receiver;
+    private volatile NetworkStream stream;
+    private volatile int localPort = -1;
+
+    /**
+     * @param port 监听的端口，0表示随便一个空闲端口，用getLocalPort取
+     * @param udp  true=收UDP数据报，false=接受TCP连接
+     */
+    public NetworkSource(int port, boolean udp, int samplerate, int channels, int bits) {
+        this.port = port;
+        this.udp = udp;
+        this.samplerate = samplerate;
+        this.channels = channels;
+        this.bits = bits;
+    }
+
+    /**
+     * 环形缓存放不下时怎么办，在start之前调用，见NetworkReceiver.setOverflow
+     */
+    public void setOverflow(NetworkReceiver.Overflow overflow, long maxPauseMillis) {
+        this.overflow = overflow;
+        this.maxPauseMillis = maxPauseMillis;
+    }
+
+    @Override
+    public double getSampleRate() {
+        return samplerate;
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public int getBitsPerSample() {
+        return bits;
+    }
+
+    /**
+     * start之后实际监听的端口
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * 正在收的那一路，还没有时返回null
+     */
+    public NetworkStream getStream() {
+        return stream;
+    }
+
+    @Override
+    public synchronized void start(final SampleRing ring) throws IOException {
+        if (receiver != null) {
+            throw new IllegalStateException("already started");
+        }
+        NetworkReceiver receiver = new NetworkReceiver(new NetworkReceiver.Listener() {
+            @Override
+            public SampleRing onStreamOpened(NetworkStream s) {
+                if (stream != null || s.getSampleRate() != samplerate
+                        || s.getChannels() != channels || s.getBitsPerSample() != bits) {
+                    return null;
+                }
+                stream = s;
+                return ring;
+            }
+
+            @Override
+            public void onStreamClosed(NetworkStream s) {
+                if (s == stream) {
+                    stream = null;
+                }
+            }
+        });
+        receiver.setOverflow(overflow, maxPauseMillis);
+        try {
+            localPort = udp ? receiver.bindUdp(port) : receiver.bindTcp(port);
+        } catch (IOException e) {
+            receiver.stop();
+            throw e;
+        }
+        receiver.start();
+        this.receiver = receiver;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (receiver != null) {
+            receiver.stop();
+            receiver = null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.pdm.spectrogram.source;
+
+import com.pdm.spectrogram.engine.SampleRing;
+import com.pdm.spectrogram.utils.PcmDecoder;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * NetworkReceiver收到的一路流：一个TCP连接，或者同一个编号的UDP数据报
+ * 格式由第一帧决定，之后格式变了的帧不要；统计数由接收线程写，其它线程可以随时读
+ */
+public class NetworkStream {
+    private final int id;
+    private final int samplerate;
+    private final int channels;
+    private final int bits;
+    private final SocketAddress remote;
+    private final boolean tcp;
+    final PcmDecoder decoder;
+    //null表示Listener不要这一路
+    SampleRing ring;
+    //UDP下一帧应该的序号
+    int nextSequence;
+    private volatile long frames = 0;
+    private volatile long dropped = 0;
+    private volatile long lost = 0;
+
+    NetworkStream(ByteBuffer header, int position, SocketAddress remote, boolean tcp) {
+        id = header.getInt(position + PcmStreamProtocol.STREAM_ID);
+        samplerate = header.getInt(position + PcmStreamProtocol.SAMPLERATE);
+        channels = header.get(position + PcmStreamProtocol.CHANNELS) & 0xff;
+        bits = header.get(position + PcmStreamProtocol.BITS) & 0xff;
+        this.remote = remote;
+        this.tcp = tcp;
+        decoder = PcmDecoder.forBits(bits);
+    }
+
+    /**
+     * 帧头的格式和这一路的一样
+     */
+    boolean matches(ByteBuffer header, int position) {
+        return header.getInt(position + PcmStreamProtocol.STREAM_ID) == id
+                && header.getInt(position + PcmStreamProtocol.SAMPLERATE) == samplerate
+                && (header.get(position + PcmStreamProtocol.CHANNELS) & 0xff) == channels
+                && (header.get(position + PcmStreamProtocol.BITS) & 0xff) == bits;
+    }
+
+    void received() {
+        frames++;
+    }
+
+    void dropped(long samples) {
+        dropped += samples;
+    }
+
+    void lost(long count) {
+        lost += count;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getSampleRate() {
+        return samplerate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getBitsPerSample() {
+        return bits;
+    }
+
+    public SocketAddress getRemoteAddress() {
+        return remote;
+    }
+
+    public boolean isTcp() {
+        return tcp;
+    }
+
+    /**
+     * 收到的帧数，包括放不下丢掉的
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * 环形缓存放不下而丢掉的采样数
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * UDP按序号算出来网络上丢了的帧数
+     */
+    public long getLost() {
+        return lost;
+    }
+}
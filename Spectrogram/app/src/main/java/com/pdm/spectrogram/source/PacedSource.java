@@ -0,0 +1,118 @@
+package com.pdm.spectrogram.source;
+
+import com.pdm.spectrogram.engine.SampleRing;
+import com.pdm.spectrogram.utils.FrameClock;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 自己产生采样的音源(文件、回放)：每次CHUNK帧写进环形缓存
+ * 实时方式按采样率的节奏写，和麦克风一样，分析跟不上时丢掉；
+ * 非实时方式尽快写，环形缓存满了就等分析线程腾出空间，一个采样都不丢，测试和离线处理用
+ */
+abstract class PacedSource implements AudioSource {
+    //每次写的帧数(每个声道)
+    static final int CHUNK = 256;
+    //非实时方式等空间时每次睡多久
+    private static final long SPACE_WAIT_NANOS = 100000L;
+
+    private final boolean realtime;
+    private volatile Thread thread;
+    private volatile boolean finished = false;
+
+    PacedSource(boolean realtime) {
+        this.realtime = realtime;
+    }
+
+    /**
+     * 在采集线程里调用，读最多frames帧交错排列的采样到dst开头
+     *
+     * @return 读到的帧数，没有更多数据时返回0
+     */
+    abstract int read(int[] dst, int frames) throws IOException;
+
+    @Override
+    public synchronized void start(final SampleRing ring) {
+        if (thread != null) {
+            throw new IllegalStateException("already started");
+        }
+        finished = false;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    produce(ring);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    //stop
+                } finally {
+                    finished = true;
+                }
+            }
+        }, getClass().getSimpleName());
+        thread.start();
+    }
+
+    private void produce(SampleRing ring) throws IOException, InterruptedException {
+        int channels = getChannels();
+        int[] chunk = new int[CHUNK * channels];
+        FrameClock clock = realtime ? new FrameClock(getSampleRate() / CHUNK, getSampleRate()) : null;
+        //这一轮要写的帧数，实时方式下由经过的时间决定
+        long due = CHUNK;
+        while (thread == Thread.currentThread()) {
+            for (long left = due; left > 0; ) {
+                int n = read(chunk, (int) Math.min(CHUNK, left));
+                if (n <= 0) {
+                    return;
+                }
+                int length = n * channels;
+                if (!realtime) {
+                    while (ring.free() < length) {
+                        if (thread != Thread.currentThread()) {
+                            return;
+                        }
+                        LockSupport.parkNanos(SPACE_WAIT_NANOS);
+                    }
+                }
+                ring.write(chunk, 0, length);
+                left -= n;
+            }
+            due = realtime ? clock.awaitNextFrame() : CHUNK;
+        }
+    }
+
+    /**
+     * 数据都写完了(不循环的音源)或者已经停止
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 等数据写完，最多等millis毫秒
+     */
+    public boolean awaitFinished(long millis) throws InterruptedException {
+        Thread t = thread;
+        if (t != null) {
+            t.join(millis);
+        }
+        return finished;
+    }
+
+    @Override
+    public synchronized void stop() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        thread = null;
+        t.interrupt();
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
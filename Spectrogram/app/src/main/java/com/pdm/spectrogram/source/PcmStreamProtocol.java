@@ -0,0 +1,59 @@
+package com.pdm.spectrogram.source;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 网络上传PCM的帧格式，TCP上一帧接一帧连续发，UDP每个数据报正好一帧，全部小端：
+ * 0 MAGIC(int) 4 流的编号(int) 8 帧序号(int，每帧加1，UDP用来发现丢包)
+ * 12 采样率(int) 16 声道数(byte) 17 采样位数(byte，8、16、24或32) 18 采样数据的字节数(unsigned short)
+ * 之后是交错排列的采样，8位无符号，其它有符号，和wav的data块一样
+ */
+public final class PcmStreamProtocol {
+    //"PCMS"
+    public static final int MAGIC = 0x534d4350;
+    public static final int HEADER_SIZE = 20;
+    //一帧要能放进一个UDP数据报
+    public static final int MAX_PAYLOAD = 65507 - HEADER_SIZE;
+    public static final int MAX_FRAME = HEADER_SIZE + MAX_PAYLOAD;
+
+    static final int STREAM_ID = 4;
+    static final int SEQUENCE = 8;
+    static final int SAMPLERATE = 12;
+    static final int CHANNELS = 16;
+    static final int BITS = 17;
+    static final int PAYLOAD = 18;
+
+    private PcmStreamProtocol() {
+    }
+
+    /**
+     * 在out的当前位置写一帧头，out的字节序要设成LITTLE_ENDIAN，之后接着写payloadBytes个字节的采样
+     */
+    public static void putHeader(ByteBuffer out, int streamId, int sequence, int samplerate,
+                                 int channels, int bits, int payloadBytes) {
+        if (payloadBytes > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("payload too large: " + payloadBytes);
+        }
+        out.putInt(MAGIC).putInt(streamId).putInt(sequence).putInt(samplerate)
+                .put((byte) channels).put((byte) bits).putShort((short) payloadBytes);
+    }
+
+    /**
+     * 检查buffer里从position开始的帧头
+     *
+     * @return 采样数据的字节数，帧头不对时返回-1
+     */
+    static int check(ByteBuffer buffer, int position) {
+        if (buffer.getInt(position) != MAGIC || buffer.getInt(position + SAMPLERATE) <= 0) {
+            return -1;
+        }
+        int channels = buffer.get(position + CHANNELS) & 0xff;
+        int bits = buffer.get(position + BITS) & 0xff;
+        int payload = buffer.getShort(position + PAYLOAD) & 0xffff;
+        if (channels == 0 || bits % 8 != 0 || bits < 8 || bits > 32
+                || payload > MAX_PAYLOAD || payload % (channels * bits / 8) != 0) {
+            return -1;
+        }
+        return payload;
+    }
+}
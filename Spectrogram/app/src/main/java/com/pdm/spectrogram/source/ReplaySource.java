@@ -0,0 +1,58 @@
+package com.pdm.spectrogram.source;
+
+/**
+ * 回放内存里的PCM数据，不依赖安卓，用来在普通的JVM上跑通采集到分析的整条路
+ */
+public class ReplaySource extends PacedSource {
+    private final int[] pcm;
+    private final int channels;
+    private final double samplerate;
+    private final int bits;
+    private final boolean loop;
+    //下一帧的位置
+    private int position = 0;
+
+    /**
+     * @param pcm      交错排列的采样
+     * @param realtime true=按采样率的节奏写，false=尽快写，环形缓存满了就等，一个采样都不丢
+     * @param loop     写完是否从头再来
+     */
+    public ReplaySource(int[] pcm, int channels, double samplerate, int bits, boolean realtime, boolean loop) {
+        super(realtime);
+        if (channels < 1 || pcm.length % channels != 0) {
+            throw new IllegalArgumentException("pcm length " + pcm.length + " is not a multiple of " + channels);
+        }
+        this.pcm = pcm;
+        this.channels = channels;
+        this.samplerate = samplerate;
+        this.bits = bits;
+        this.loop = loop;
+    }
+
+    @Override
+    int read(int[] dst, int frames) {
+        int total = pcm.length / channels;
+        if (position == total && loop) {
+            position = 0;
+        }
+        int n = Math.min(frames, total - position);
+        System.arraycopy(pcm, position * channels, dst, 0, n * channels);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public double getSampleRate() {
+        return samplerate;
+    }
+
+    @Override
+    public int getChannels() {
+        return channels;
+    }
+
+    @Override
+    public int getBitsPerSample() {
+        return bits;
+    }
+}
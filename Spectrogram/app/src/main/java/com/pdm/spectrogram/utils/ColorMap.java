@@ -0,0 +1,77 @@
+package com.pdm.spectrogram.utils;
+
+/**
+ * 能量到颜色的查找表：分贝数线性分成256级，每一级一个事先算好的颜色(黑、蓝、红、黄、白)
+ * 和LevelTable一样，每一级的分界值事先换算成能量，取颜色时对分界值二分查找，不用算对数
+ * 颜色带不透明的alpha，安卓的Bitmap和java的BufferedImage都能直接用
+ */
+public class ColorMap {
+    //颜色的级数
+    public static final int SIZE = 256;
+    //相对满幅度的分贝数，低于它的都是第0级
+    public static final double DEFAULT_MIN_DB = -100;
+    //渐变的几个颜色，均匀分布在0到255之间
+    private static final int[][] STOPS = {{0, 0, 0}, {0, 0, 160}, {200, 0, 60}, {255, 200, 0}, {255, 255, 255}};
+
+    private final int[] colors = new int[SIZE];
+    //第i个分界值是第i级和第i + 1级之间的能量
+    private final double[] thresholds = new double[SIZE - 1];
+
+    public ColorMap(double fullScale) {
+        this(fullScale, DEFAULT_MIN_DB);
+    }
+
+    /**
+     * @param fullScale 满幅度，16位时为32768，能量为满幅度的平方时是第255级
+     * @param minDb     第0级对应的分贝数，负数
+     */
+    public ColorMap(double fullScale, double minDb) {
+        if (fullScale <= 0 || minDb >= 0) {
+            throw new IllegalArgumentException("bad color range: " + fullScale + ", " + minDb);
+        }
+        for (int i = 0; i < SIZE; i++) {
+            double t = i / (double) (SIZE - 1) * (STOPS.length - 1);
+            int s = Math.min((int) t, STOPS.length - 2);
+            double f = t - s;
+            int r = (int) Math.round(STOPS[s][0] + (STOPS[s + 1][0] - STOPS[s][0]) * f);
+            int g = (int) Math.round(STOPS[s][1] + (STOPS[s + 1][1] - STOPS[s][1]) * f);
+            int b = (int) Math.round(STOPS[s][2] + (STOPS[s + 1][2] - STOPS[s][2]) * f);
+            colors[i] = 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+        double reference = fullScale * fullScale;
+        for (int i = 0; i < thresholds.length; i++) {
+            //两级中间的分贝数，相当于对分贝数四舍五入
+            double db = minDb - minDb * (i + 0.5) / (SIZE - 1);
+            thresholds[i] = reference * Math.pow(10, db / 10);
+        }
+    }
+
+    /**
+     * 能量所在的级数，0到255
+     *
+     * @param power 幅度的平方
+     */
+    public int index(double power) {
+        int low = 0, high = thresholds.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (power >= thresholds[mid]) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public int color(double power) {
+        return colors[index(power)];
+    }
+
+    /**
+     * 每一级的颜色，不要修改
+     */
+    public int[] getColors() {
+        return colors;
+    }
+}
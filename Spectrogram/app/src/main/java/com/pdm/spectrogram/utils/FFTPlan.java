@@ -0,0 +1,180 @@
+package com.pdm.spectrogram.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FFT计划：同一个点数的旋转因子(cos/sin)和位反转表只计算一次，之后每一帧直接查表复用，
+ * 原来的写法每次调用都要算Math.log、Math.pow、Math.cos、Math.sin，低端机上这部分占了大半的时间
+ * 用法：FFTPlan.get(1024).transform(real, imag);
+ * 输入是纯实数的时候用realForward，把n个实数打包成n/2个复数做FFT，再拆分出n/2+1个频点，运算量和内存都减半
+ */
+public class FFTPlan {
+    //按点数缓存，整个进程共享
+    private static final Map<Integer, FFTPlan> PLANS = new HashMap<Integer, FFTPlan>();
+
+    private final int n;
+    //log2(n)
+    private final int m;
+    //旋转因子表，cosTable[k] = cos(2*PI*k/n), sinTable[k] = -sin(2*PI*k/n), k < n/2
+    private final double[] cosTable;
+    private final double[] sinTable;
+    //位反转需要交换的下标对，只记录i < j的部分
+    private final int[] swapFrom;
+    private final int[] swapTo;
+    //实数FFT用到的n/2点计划，第一次用到时再取
+    private FFTPlan halfPlan;
+
+    /**
+     * 获取n个点的FFT计划，没有的话就创建并缓存
+     *
+     * @param n 点数，必须为2的指数倍数
+     */
+    public static FFTPlan get(int n) {
+        synchronized (PLANS) {
+            FFTPlan plan = PLANS.get(n);
+            if (plan == null) {
+                plan = new FFTPlan(n);
+                PLANS.put(n, plan);
+            }
+            return plan;
+        }
+    }
+
+    private FFTPlan(int n) {
+        if (n < 2 || (n & (n - 1)) != 0) {
+            throw new IllegalArgumentException("fft size must be a power of two: " + n);
+        }
+        this.n = n;
+        this.m = Integer.numberOfTrailingZeros(n);
+        int half = n / 2;
+        cosTable = new double[half];
+        sinTable = new double[half];
+        for (int k = 0; k < half; k++) {
+            double angle = 2 * Math.PI * k / n;
+            cosTable[k] = Math.cos(angle);
+            sinTable[k] = -Math.sin(angle);
+        }
+        //先数一下要交换多少对，再填表
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (i < reverse(i)) {
+                count++;
+            }
+        }
+        swapFrom = new int[count];
+        swapTo = new int[count];
+        count = 0;
+        for (int i = 0; i < n; i++) {
+            int j = reverse(i);
+            if (i < j) {
+                swapFrom[count] = i;
+                swapTo[count] = j;
+                count++;
+            }
+        }
+    }
+
+    private int reverse(int i) {
+        return Integer.reverse(i) >>> (32 - m);
+    }
+
+    public int getSize() {
+        return n;
+    }
+
+    /**
+     * 原地进行快速傅立叶变换，结果仍保存在real和imag中
+     *
+     * @param real 实部，长度至少为n
+     * @param imag 虚部，长度至少为n
+     */
+    public void transform(double[] real, double[] imag) {
+        int i, j, ip;
+        double tR, tI, uR, uI;
+        // 位反转排序，直接按表交换
+        for (int s = 0; s < swapFrom.length; s++) {
+            i = swapFrom[s];
+            j = swapTo[s];
+            tR = real[j];
+            tI = imag[j];
+            real[j] = real[i];
+            imag[j] = imag[i];
+            real[i] = tR;
+            imag[i] = tI;
+        }
+        // 蝶形运算，le为当前子DFT的长度，旋转因子按步长n/le从表里取
+        for (int le = 2; le <= n; le <<= 1) {
+            int le2 = le >> 1;
+            int stride = n / le;
+            for (j = 0; j < le2; j++) {
+                uR = cosTable[j * stride];
+                uI = sinTable[j * stride];
+                for (i = j; i < n; i += le) {
+                    ip = i + le2;
+                    tR = real[ip] * uR - imag[ip] * uI;
+                    tI = real[ip] * uI + imag[ip] * uR;
+                    real[ip] = real[i] - tR;
+                    imag[ip] = imag[i] - tI;
+                    real[i] += tR;
+                    imag[i] += tI;
+                }
+            }
+        }
+    }
+
+    /**
+     * 实数FFT：n个实数x按 z[k] = x[2k] + i*x[2k+1] 打包成n/2个复数放在real和imag的前n/2个位置，
+     * 做n/2点的复数FFT后再拆分，得到与n点复数FFT相同的0..n/2频点(其余频点与之共轭对称)
+     *
+     * @param real 输入时为x的偶数下标，输出为频点0..n/2的实部，长度至少为n/2+1
+     * @param imag 输入时为x的奇数下标，输出为频点0..n/2的虚部，长度至少为n/2+1
+     */
+    public void realForward(double[] real, double[] imag) {
+        int half = n / 2;
+        if (half == 1) {
+            double x0 = real[0];
+            real[0] = x0 + imag[0];
+            real[1] = x0 - imag[0];
+            imag[0] = 0;
+            imag[1] = 0;
+            return;
+        }
+        if (halfPlan == null) {
+            halfPlan = get(half);
+        }
+        halfPlan.transform(real, imag);
+        // 0和n/2两个频点只有实部
+        double zr = real[0];
+        double zi = imag[0];
+        real[0] = zr + zi;
+        imag[0] = 0;
+        real[half] = zr - zi;
+        imag[half] = 0;
+        // k和half-k成对计算，可以原地拆分
+        for (int k = 1; k <= half / 2; k++) {
+            int j = half - k;
+            double zkR = real[k], zkI = imag[k];
+            double zjR = real[j], zjI = imag[j];
+            // F = (Z[k] + conj(Z[j])) / 2, G = (Z[k] - conj(Z[j])) / 2i
+            double fR = (zkR + zjR) * 0.5;
+            double fI = (zkI - zjI) * 0.5;
+            double gR = (zkI + zjI) * 0.5;
+            double gI = (zjR - zkR) * 0.5;
+            // X[k] = F + W^k * G
+            double wR = cosTable[k];
+            double wI = sinTable[k];
+            double tR = gR * wR - gI * wI;
+            double tI = gR * wI + gI * wR;
+            real[k] = fR + tR;
+            imag[k] = fI + tI;
+            // X[j] = conj(F) + W^j * conj(G)，W^j = -conj(W^k)
+            if (j != k) {
+                tR = -(gR * wR - gI * wI);
+                tI = gR * wI + gI * wR;
+                real[j] = fR + tR;
+                imag[j] = -fI + tI;
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.pdm.spectrogram.utils;
+
+/**
+ * 帧时钟：按设定的帧率睡到下一帧的时间点，不再空转占满一个核
+ * 每一帧的时间点和采样位置都是从开始时刻按帧号算出来的，不会累积误差；
+ * 线程被耽误落后的时候直接跳到当前时间对应的帧，跳过的采样也算进这一帧的步长，保证显示和真实时间同步
+ */
+public class FrameClock {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final double frameRate;
+    private final double samplerate;
+    private long origin;
+    private long frame;
+
+    /**
+     * @param frameRate  帧率，比如30、60
+     * @param samplerate 音频采样率
+     */
+    public FrameClock(double frameRate, double samplerate) {
+        if (frameRate <= 0 || samplerate <= 0) {
+            throw new IllegalArgumentException("frame rate and sample rate must be positive");
+        }
+        this.frameRate = frameRate;
+        this.samplerate = samplerate;
+        start();
+    }
+
+    /**
+     * 从现在开始计时，帧号归零
+     */
+    public void start() {
+        origin = System.nanoTime();
+        frame = 0;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * 当前帧号
+     */
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * 第frame帧在音频里的采样位置
+     */
+    public long samplePosition(long frame) {
+        return Math.round(frame * samplerate / frameRate);
+    }
+
+    /**
+     * 第frame帧的时间点，相对start的纳秒数
+     */
+    private long frameTime(long frame) {
+        return Math.round(frame * NANOS_PER_SECOND / frameRate);
+    }
+
+    /**
+     * 睡到下一帧的时间点
+     *
+     * @return 这一帧相对上一帧要前进的采样数，落后时包含跳过的帧
+     */
+    public long awaitNextFrame() throws InterruptedException {
+        long deadline = origin + frameTime(frame + 1);
+        long wait = deadline - System.nanoTime();
+        if (wait > 0) {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+        }
+        // 按当前时间算出应该在第几帧，至少前进一帧
+        long elapsed = System.nanoTime() - origin;
+        long target = Math.max(frame + 1, (long) (elapsed * frameRate / NANOS_PER_SECOND));
+        long hop = samplePosition(target) - samplePosition(frame);
+        frame = target;
+        return hop;
+    }
+}
@@ -0,0 +1,156 @@
+package com.pdm.spectrogram.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 用FileChannel.map把本地wav文件映射到内存，data块直接以小端的ByteBuffer/ShortBuffer视图给出，
+ * 不经过InputStream，也不用逐字节拼采样；任意位置的读取都是O(1)的，拖动进度不需要重新读文件
+ * 只适用于本地文件(或者APK里没有压缩的asset)，网络流等还是用WaveFileReader
+ * 支持的格式和WaveFileReader一样，解码用PcmDecoder直接在映射上做
+ * 块的位置由RiffChunkIndex得到，data前面有LIST、JUNK等别的块、fmt块更长或者是RF64文件都可以
+ */
+public class MappedWaveFile {
+    private final FileChannel channel;
+    private final RiffChunkIndex index;
+    //只映射data块
+    private final MappedByteBuffer mapped;
+
+    private int audioformat;
+    private int numchannels;
+    private long samplerate;
+    private int bitspersample;
+    private int blockalign;
+    //映射的data块长度
+    private int dataSize;
+    private PcmDecoder decoder;
+
+    private final ByteBuffer data;
+    private final ShortBuffer samples;
+
+    /**
+     * 映射整个文件
+     */
+    public MappedWaveFile(File path) throws IOException {
+        this(new RandomAccessFile(path, "r").getChannel(), 0, -1);
+    }
+
+    /**
+     * 映射文件中的一段，比如AssetFileDescriptor给出的asset在APK中的位置，close时会关闭channel
+     *
+     * @param offset wav在文件中的起始位置
+     * @param length wav的长度，-1表示到文件末尾
+     */
+    public MappedWaveFile(FileChannel channel, long offset, long length) throws IOException {
+        this.channel = channel;
+        try {
+            index = RiffChunkIndex.read(channel, offset, length);
+            audioformat = index.getAudioFormat();
+            numchannels = index.getNumChannels();
+            samplerate = index.getSampleRate();
+            bitspersample = index.getBitsPerSample();
+            blockalign = index.getBlockAlign();
+            decoder = PcmDecoder.forFormat(audioformat, bitspersample);
+            //只映射data块，单个映射最大2G，RF64超过2G的部分不映射；文件被截断时到文件末尾为止
+            long size = Math.min(index.getDataSize(), channel.size() - offset - index.getDataOffset());
+            dataSize = (int) Math.min(Math.max(0, size), Integer.MAX_VALUE);
+            dataSize -= dataSize % blockalign;
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset + index.getDataOffset(), dataSize);
+            data = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            samples = audioformat == PcmDecoder.FORMAT_PCM && bitspersample == 16 ? data.asShortBuffer() : null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 文件的块表，LIST、bext等块的位置可以从这里找
+     */
+    public RiffChunkIndex getChunkIndex() {
+        return index;
+    }
+
+    public long getSampleRate() {
+        return samplerate;
+    }
+
+    public int getNumChannels() {
+        return numchannels;
+    }
+
+    public int getBitPerSample() {
+        return bitspersample;
+    }
+
+    /**
+     * 1为整数PCM，3为浮点，EXTENSIBLE的文件返回它的子格式
+     */
+    public int getAudioFormat() {
+        return audioformat;
+    }
+
+    /**
+     * 每个声道的采样数
+     */
+    public int getFrameCount() {
+        return dataSize / blockalign;
+    }
+
+    /**
+     * data块的小端字节视图，position为0，多声道时交错排列
+     */
+    public ByteBuffer getData() {
+        return data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * 16位整数时data块的ShortBuffer视图，第frame帧第ch声道在frame * numchannels + ch的位置；其他位数返回null
+     */
+    public ShortBuffer getSamples() {
+        return samples == null ? null : samples.duplicate();
+    }
+
+    /**
+     * 从第frame帧开始取frames个采样帧的channel声道，直接从映射里读，不用从头读文件
+     *
+     * @return 实际读到的帧数，超出文件末尾时小于frames
+     */
+    public int read(int frame, int[] dst, int offset, int frames, int channel) {
+        if (channel < 0 || channel >= numchannels) {
+            throw new IllegalArgumentException("channel " + channel + " out of range, "
+                    + numchannels + " channels");
+        }
+        int n = Math.max(0, Math.min(frames, getFrameCount() - frame));
+        decoder.decode(data, frame * blockalign + channel * decoder.getBytesPerSample(), blockalign, dst, offset, n);
+        return n;
+    }
+
+    /**
+     * 从第frame帧开始取frames帧，所有声道按交错顺序写到dst[offset]开始的位置，共frames * getNumChannels()个值
+     *
+     * @return 实际取到的帧数，到文件末尾时小于frames
+     */
+    public int readInterleaved(int frame, int[] dst, int offset, int frames) {
+        int n = Math.max(0, Math.min(frames, getFrameCount() - frame));
+        decoder.decode(data, frame * blockalign, decoder.getBytesPerSample(), dst, offset, n * numchannels);
+        return n;
+    }
+
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.pdm.spectrogram.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 把小端的PCM字节解码成有符号的int采样：8位(无符号，减去128)、16、24、32位整数和32位浮点
+ * 每种格式一个子类，循环体里没有分支，按块调用，JIT可以展开；字节从ByteBuffer按绝对位置取，
+ * byte[]用ByteBuffer.wrap包一下，16、32位每个采样是一次不对齐的读，不用逐字节拼
+ * 浮点乘以2^31转成32位整数，超过±1.0的截到int的范围，和32位整数的满幅度一样
+ */
+public abstract class PcmDecoder {
+    //wav的audioformat
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_FLOAT = 3;
+    public static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final int bits;
+
+    PcmDecoder(int bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * 整数PCM
+     *
+     * @param bits 8、16、24或32
+     */
+    public static PcmDecoder forBits(int bits) {
+        return forFormat(FORMAT_PCM, bits);
+    }
+
+    /**
+     * @param audioFormat FORMAT_PCM或FORMAT_FLOAT，FORMAT_EXTENSIBLE要先换成子格式
+     * @throws IllegalArgumentException 不支持的格式
+     */
+    public static PcmDecoder forFormat(int audioFormat, int bits) {
+        if (audioFormat == FORMAT_PCM) {
+            switch (bits) {
+                case 8:
+                    return new Unsigned8();
+                case 16:
+                    return new Signed16();
+                case 24:
+                    return new Signed24();
+                case 32:
+                    return new Signed32();
+                default:
+                    break;
+            }
+        } else if (audioFormat == FORMAT_FLOAT && bits == 32) {
+            return new Float32();
+        }
+        throw new IllegalArgumentException("audio format " + audioFormat + " with "
+                + bits + " bits per sample is not supported");
+    }
+
+    /**
+     * 每个采样的位数，解码后的范围是-2^(bits-1)到2^(bits-1)-1
+     */
+    public int getBitsPerSample() {
+        return bits;
+    }
+
+    public int getBytesPerSample() {
+        return bits / 8;
+    }
+
+    /**
+     * 满幅度2^(bits-1)，算分贝用
+     */
+    public double getFullScale() {
+        return (double) (1L << (bits - 1));
+    }
+
+    /**
+     * 从src的绝对位置position开始，每隔stride个字节取一个采样，共count个，写到dst[offset]开始的位置，
+     * 不改变src的position；src的字节序要设成LITTLE_ENDIAN
+     *
+     * @param stride 交错的多声道只取一个声道时是每帧的字节数，全部取时等于getBytesPerSample()
+     */
+    public abstract void decode(ByteBuffer src, int position, int stride, int[] dst, int offset, int count);
+
+    private static final class Unsigned8 extends PcmDecoder {
+        Unsigned8() {
+            super(8);
+        }
+
+        @Override
+        public void decode(ByteBuffer src, int position, int stride, int[] dst, int offset, int count) {
+            for (int i = 0, p = position; i < count; i++, p += stride) {
+                dst[offset + i] = (src.get(p) & 0xff) - 128;
+            }
+        }
+    }
+
+    private static final class Signed16 extends PcmDecoder {
+        Signed16() {
+            super(16);
+        }
+
+        @Override
+        public void decode(ByteBuffer src, int position, int stride, int[] dst, int offset, int count) {
+            for (int i = 0, p = position; i < count; i++, p += stride) {
+                dst[offset + i] = src.getShort(p);
+            }
+        }
+    }
+
+    private static final class Signed24 extends PcmDecoder {
+        Signed24() {
+            super(24);
+        }
+
+        @Override
+        public void decode(ByteBuffer src, int position, int stride, int[] dst, int offset, int count) {
+            //低两个字节当无符号数，最高的字节带符号
+            for (int i = 0, p = position; i < count; i++, p += stride) {
+                dst[offset + i] = (src.getShort(p) & 0xffff) | (src.get(p + 2) << 16);
+            }
+        }
+    }
+
+    private static final class Signed32 extends PcmDecoder {
+        Signed32() {
+            super(32);
+        }
+
+        @Override
+        public void decode(ByteBuffer src, int position, int stride, int[] dst, int offset, int count) {
+            for (int i = 0, p = position; i < count; i++, p += stride) {
+                dst[offset + i] = src.getInt(p);
+            }
+        }
+    }
+
+    private static final class Float32 extends PcmDecoder {
+        private static final float SCALE = 2147483648f;
+
+        Float32() {
+            super(32);
+        }
+
+        @Override
+        public void decode(ByteBuffer src, int position, int stride, int[] dst, int offset, int count) {
+            //float转int超出范围时取最大、最小值，NaN为0，不用判断
+            for (int i = 0, p = position; i < count; i++, p += stride) {
+                dst[offset + i] = (int) (src.getFloat(p) * SCALE);
+            }
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.pdm.spectrogram.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * wav文件的块表：从头到尾走一遍RIFF的块，每个块只读8个字节的块头，按声明的长度跳过内容(奇数长度补一个字节)，
+ * 记下每个块内容的位置和长度；只读fmt和ds64两个块的内容，LIST、bext、fact、JUNK等不认识的块都不读
+ * 支持RF64(以及BW64)：块头里的长度为0xFFFFFFFF时，真正的长度从ds64块里取，data块可以超过4G
+ * 建好以后第n帧在文件里的位置是getDataOffset() + n * getBlockAlign()，随机访问是O(1)的
+ * 两种建法：FileChannel按位置读块头，走完整个块表；InputStream只能往前跳，走到data块为止，流停在采样数据的开头
+ */
+public class RiffChunkIndex {
+    public static final int RIFF = fourcc("RIFF");
+    public static final int RF64 = fourcc("RF64");
+    public static final int BW64 = fourcc("BW64");
+    public static final int WAVE = fourcc("WAVE");
+    public static final int FMT = fourcc("fmt ");
+    public static final int DS64 = fourcc("ds64");
+    public static final int DATA = fourcc("data");
+    //RF64里表示长度在ds64块里
+    private static final long SIZE_IN_DS64 = 0xFFFFFFFFL;
+    //fmt块最多读这么多，WAVE_FORMAT_EXTENSIBLE是40个字节
+    private static final int MAX_FMT = 64;
+
+    /**
+     * 块的内容从哪里读：按位置读，位置只会越来越大
+     */
+    private interface Source {
+        /**
+         * 从position开始读满dst剩下的部分，不够时抛出EOFException
+         */
+        void read(long position, ByteBuffer dst) throws IOException;
+    }
+
+    private int count = 0;
+    private int[] ids = new int[8];
+    private long[] offsets = new long[8];
+    private long[] sizes = new long[8];
+    private boolean rf64;
+    private int data = -1;
+    //ds64里的data块长度，以及其它长度放不下的块
+    private long ds64DataSize = -1;
+    private int[] tableIds = new int[0];
+    private long[] tableSizes = new long[0];
+
+    private int audioformat;
+    private int numchannels;
+    private long samplerate;
+    private int blockalign;
+    private int bitspersample;
+
+    private RiffChunkIndex() {
+    }
+
+    /**
+     * 从channel的offset开始、长length个字节的wav(比如APK里的asset)建块表，只读块头、fmt和ds64
+     *
+     * @param length wav的长度，-1表示到文件末尾
+     * @throws IllegalArgumentException 不是wav文件，或者没有fmt、data块
+     */
+    public static RiffChunkIndex read(final FileChannel channel, final long offset, long length) throws IOException {
+        if (length < 0) {
+            length = channel.size() - offset;
+        }
+        RiffChunkIndex index = new RiffChunkIndex();
+        index.walk(new Source() {
+            @Override
+            public void read(long position, ByteBuffer dst) throws IOException {
+                while (dst.hasRemaining()) {
+                    if (channel.read(dst, offset + position + dst.position()) < 0) {
+                        throw new EOFException("no more data!!!");
+                    }
+                }
+            }
+        }, length, false);
+        return index;
+    }
+
+    /**
+     * 从流的开头建块表，走到data块为止，返回时流停在第一个采样
+     * 跳过的块用skip，流不支持skip时读掉
+     *
+     * @throws IllegalArgumentException 不是wav文件，或者data块之前没有fmt块
+     */
+    public static RiffChunkIndex read(final InputStream in) throws IOException {
+        RiffChunkIndex index = new RiffChunkIndex();
+        index.walk(new Source() {
+            private long current = 0;
+            private final byte[] buf = new byte[MAX_FMT];
+
+            @Override
+            public void read(long position, ByteBuffer dst) throws IOException {
+                skipFully(in, position - current);
+                current = position;
+                while (dst.hasRemaining()) {
+                    int n = in.read(buf, 0, Math.min(buf.length, dst.remaining()));
+                    if (n < 0) {
+                        throw new EOFException("no more data!!!");
+                    }
+                    dst.put(buf, 0, n);
+                    current += n;
+                }
+            }
+        }, Long.MAX_VALUE, true);
+        return index;
+    }
+
+    /**
+     * 往前跳过count个字节，流不支持skip时读掉
+     */
+    public static void skipFully(InputStream in, long count) throws IOException {
+        byte[] scratch = null;
+        while (count > 0) {
+            long n = in.skip(count);
+            if (n <= 0) {
+                if (scratch == null) {
+                    scratch = new byte[(int) Math.min(count, 16 * 1024)];
+                }
+                n = in.read(scratch, 0, (int) Math.min(count, scratch.length));
+                if (n < 0) {
+                    throw new EOFException("no more data!!!");
+                }
+            }
+            count -= n;
+        }
+    }
+
+    /**
+     * 走一遍块表
+     *
+     * @param length    文件的长度，流不知道时为Long.MAX_VALUE
+     * @param stopAtData 流只能往前，到data块就停下
+     */
+    private void walk(Source source, long length, boolean stopAtData) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+        source.read(0, header);
+        int magic = header.getInt(0);
+        if (magic != RIFF && magic != RF64 && magic != BW64) {
+            throw new IllegalArgumentException("RIFF miss, not a wave file.");
+        }
+        if (header.getInt(8) != WAVE) {
+            throw new IllegalArgumentException("WAVE miss, not a wave file.");
+        }
+        rf64 = magic != RIFF;
+        long riffSize = header.getInt(4) & 0xFFFFFFFFL;
+        //RIFF头里的长度不可靠(有的录音程序写0)，只在它比文件短的时候用它
+        long end = length;
+        if (!rf64 && riffSize >= 4 && 8 + riffSize < end) {
+            end = 8 + riffSize;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        long position = 12;
+        while (position + 8 <= end) {
+            chunk.clear();
+            try {
+                source.read(position, chunk);
+            } catch (EOFException e) {
+                //末尾不完整的块头当作文件结束
+                break;
+            }
+            int id = chunk.getInt(0);
+            long size = chunk.getInt(4) & 0xFFFFFFFFL;
+            long content = position + 8;
+            if (rf64 && size == SIZE_IN_DS64) {
+                size = sizeFromDs64(id);
+            }
+            if (id == DATA && size > end - content) {
+                //没写完的文件或者流式录音写的0xFFFFFFFF，data块到文件末尾为止
+                size = end == Long.MAX_VALUE ? size : end - content;
+            }
+            add(id, content, size);
+            if (id == FMT) {
+                readFormat(source, content, size);
+            } else if (id == DS64) {
+                readDs64(source, content, size);
+            } else if (id == DATA && data < 0) {
+                data = count - 1;
+                if (stopAtData) {
+                    break;
+                }
+            }
+            //奇数长度的块后面补一个字节
+            position = content + size + (size & 1);
+        }
+        if (bitspersample == 0) {
+            throw new IllegalArgumentException("fmt miss, not a wave file.");
+        }
+        if (data < 0) {
+            throw new IllegalArgumentException("data miss, not a wave file.");
+        }
+    }
+
+    private long sizeFromDs64(int id) {
+        if (id == DATA && ds64DataSize >= 0) {
+            return ds64DataSize;
+        }
+        for (int i = 0; i < tableIds.length; i++) {
+            if (tableIds[i] == id) {
+                return tableSizes[i];
+            }
+        }
+        return SIZE_IN_DS64;
+    }
+
+    private void add(int id, long offset, long size) {
+        if (count == ids.length) {
+            ids = Arrays.copyOf(ids, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+            sizes = Arrays.copyOf(sizes, count * 2);
+        }
+        ids[count] = id;
+        offsets[count] = offset;
+        sizes[count] = size;
+        count++;
+    }
+
+    private void readFormat(Source source, long position, long size) throws IOException {
+        if (size < 16) {
+            throw new IllegalArgumentException("fmt chunk too short: " + size);
+        }
+        ByteBuffer fmt = ByteBuffer.allocate((int) Math.min(size, MAX_FMT)).order(ByteOrder.LITTLE_ENDIAN);
+        source.read(position, fmt);
+        audioformat = fmt.getShort(0) & 0xFFFF;
+        numchannels = fmt.getShort(2) & 0xFFFF;
+        samplerate = fmt.getInt(4) & 0xFFFFFFFFL;
+        blockalign = fmt.getShort(12) & 0xFFFF;
+        bitspersample = fmt.getShort(14) & 0xFFFF;
+        if (audioformat == PcmDecoder.FORMAT_EXTENSIBLE && fmt.capacity() >= 26) {
+            //cbSize、有效位数、声道掩码之后是子格式GUID，前两个字节就是真正的格式
+            audioformat = fmt.getShort(24) & 0xFFFF;
+        }
+        if (numchannels == 0 || bitspersample == 0) {
+            throw new IllegalArgumentException("bad fmt chunk: " + numchannels + " channels, "
+                    + bitspersample + " bits");
+        }
+        //有的文件blockalign写错，按声道数和位数算
+        blockalign = numchannels * ((bitspersample + 7) / 8);
+    }
+
+    /**
+     * ds64：RIFF长度、data长度、采样数(都是8个字节)，然后是其它长度超过4G的块的表
+     */
+    private void readDs64(Source source, long position, long size) throws IOException {
+        if (size < 28) {
+            throw new IllegalArgumentException("ds64 chunk too short: " + size);
+        }
+        ByteBuffer ds64 = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
+        source.read(position, ds64);
+        ds64DataSize = ds64.getLong(8);
+        //表的每一项是4个字节的块ID加8个字节的长度
+        int tableLength = (int) Math.min(Math.max(0, ds64.getInt(24)), (size - 28) / 12);
+        if (tableLength > 0) {
+            ByteBuffer table = ByteBuffer.allocate(12 * tableLength).order(ByteOrder.LITTLE_ENDIAN);
+            source.read(position + 28, table);
+            tableIds = new int[tableLength];
+            tableSizes = new long[tableLength];
+            for (int i = 0; i < tableLength; i++) {
+                tableIds[i] = table.getInt(12 * i);
+                tableSizes[i] = table.getLong(12 * i + 4);
+            }
+        }
+    }
+
+    public static int fourcc(String id) {
+        return (id.charAt(0)) | (id.charAt(1) << 8) | (id.charAt(2) << 16) | (id.charAt(3) << 24);
+    }
+
+    /**
+     * 是不是RF64(或BW64)文件
+     */
+    public boolean isRf64() {
+        return rf64;
+    }
+
+    /**
+     * 记下的块数，流建的块表只到data块为止
+     */
+    public int getChunkCount() {
+        return count;
+    }
+
+    public int getId(int chunk) {
+        return ids[chunk];
+    }
+
+    /**
+     * 第chunk个块内容的起始位置(从wav的开头算，不含8个字节的块头)
+     */
+    public long getOffset(int chunk) {
+        return offsets[chunk];
+    }
+
+    public long getSize(int chunk) {
+        return sizes[chunk];
+    }
+
+    /**
+     * 第一个ID为id的块，没有时返回-1
+     */
+    public int find(int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 第一个采样在wav里的位置
+     */
+    public long getDataOffset() {
+        return offsets[data];
+    }
+
+    /**
+     * 采样数据的字节数，不完整的最后一帧不算
+     */
+    public long getDataSize() {
+        return sizes[data] - sizes[data] % blockalign;
+    }
+
+    /**
+     * 每个声道的采样数
+     */
+    public long getFrameCount() {
+        return sizes[data] / blockalign;
+    }
+
+    /**
+     * 第frame帧在wav里的位置
+     */
+    public long getFramePosition(long frame) {
+        return offsets[data] + frame * blockalign;
+    }
+
+    /**
+     * 1为整数PCM，3为浮点，EXTENSIBLE的文件返回它的子格式
+     */
+    public int getAudioFormat() {
+        return audioformat;
+    }
+
+    public int getNumChannels() {
+        return numchannels;
+    }
+
+    public long getSampleRate() {
+        return samplerate;
+    }
+
+    /**
+     * 每帧的字节数
+     */
+    public int getBlockAlign() {
+        return blockalign;
+    }
+
+    public int getBitsPerSample() {
+        return bitspersample;
+    }
+}
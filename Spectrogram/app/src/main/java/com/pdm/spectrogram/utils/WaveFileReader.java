@@ -2,12 +2,18 @@ package com.pdm.spectrogram.utils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 /**
  * Author:pdm on 2016/3/15
  * Email:aiyh0202@163.com
  * CSDN:http://blog.csdn.net/aiyh0202
  * GitHub:https://github.com/flyingfishes
  * 这里是解析wav的标签头，因为写的
+ * 两种用法：initReader一次把整个文件解析成int[声道][采样]；
+ * open/read/close是流式读取，每次只解码调用者需要的那一段到调用者给的缓存里，内存占用跟文件长度无关
+ * 支持8、16、24、32位整数和32位浮点(包括WAVE_FORMAT_EXTENSIBLE)，解码由PcmDecoder按块完成，8位还原成有符号数
+ * wav头由RiffChunkIndex解析，不认识的块按长度跳过，也支持RF64
  */
 public class WaveFileReader
 {
@@ -15,47 +21,28 @@ public class WaveFileReader
 
 	private int len = 0;
 
-	private String chunkdescriptor = null;
-	static private int lenchunkdescriptor = 4;
-
-	private long chunksize = 0;
-	static private int lenchunksize = 4;
-
-	private String waveflag = null;
-	static private int lenwaveflag = 4;
-
-	private String fmtubchunk = null;
-	static private int lenfmtubchunk = 4;
-
-	private long subchunk1size = 0;
-	static private int lensubchunk1size = 4;
-
 	private int audioformat = 0;
-	static private int lenaudioformat = 2;
 
 	private int numchannels = 0;
-	static private int lennumchannels = 2;
 
 	private long samplerate = 0;
-	static private int lensamplerate = 2;
-
-	private long byterate = 0;
-	static private int lenbyterate = 4;
-
-	private int blockalign = 0;
-	static private int lenblockling = 2;
 
 	private int bitspersample = 0;
-	static private int lenbitspersample = 2;
-
-	private String datasubchunk = null;
-	static private int lendatasubchunk = 4;
 
-	private long subchunk2size = 0;
+	// wav的块表，流只走到data块为止
+	private RiffChunkIndex index = null;
 
 	private InputStream bis = null;
 
 	private boolean issuccess = false;
+
+	// 流式读取时每次从流里读的块大小(字节)，以及还剩多少字节的采样数据没读
+	private static final int STREAM_BLOCK_SIZE = 16 * 1024;
+	private byte[] streamBuf = null;
+	// streamBuf的小端视图，解码时按绝对位置取
+	private ByteBuffer streamView = null;
+	private PcmDecoder decoder = null;
+	private long remaining = 0;
 	// 获取数据
 	// 数据是一个二维数组，[n][m]代表第n个声道的第m个采样值
 
@@ -65,12 +52,18 @@ public class WaveFileReader
 		return issuccess;
 	}
 
-	// 获取每个采样的编码长度，8bit或者16bit
+	// 获取每个采样的编码长度，8、16、24或32bit
 	public int getBitPerSample() 
 	{
 		return this.bitspersample;
 	}
 
+	// 获取编码格式，1代表整数PCM 3代表浮点，EXTENSIBLE的文件返回它的子格式
+	public int getAudioFormat()
+	{
+		return this.audioformat;
+	}
+
 	// 获取采样率
 	public long getSampleRate() 
 	{
@@ -91,104 +84,28 @@ public class WaveFileReader
 
 	public int[][] initReader(InputStream inputStream)
 	{
-		byte[] 	Byte_buf = new byte[256];
-		long	File_Len;
-		int 	Audio_Index;
-		long 	Block_Nr;
-		long 	j;
-		long	k;
-		int		l;
 		int[][] data = null;
 		try 
 		{
 			bis = inputStream;
 
-			this.chunkdescriptor = readString(lenchunkdescriptor);
-			
-			if (!chunkdescriptor.endsWith("RIFF"))
-			{
-				throw new IllegalArgumentException("RIFF miss, " + filename
-						+ " is not a wave file.");
-			}
-			
-			this.chunksize = readLong();
-			this.waveflag = readString(lenwaveflag);
-			if (!waveflag.endsWith("WAVE"))
-			{
-				throw new IllegalArgumentException("WAVE miss, " + filename
-						+ " is not a wave file.");
-			}
-
-			this.fmtubchunk = readString(lenfmtubchunk);
-			if (!fmtubchunk.endsWith("fmt "))
-			{
-				throw new IllegalArgumentException("fmt miss, " + filename
-						+ " is not a wave file.");
-			}
-
-			this.subchunk1size = readLong();
-			this.audioformat = readInt();
-			this.numchannels = readInt();
-			this.samplerate = readLong();
-			this.byterate = readLong();
-			this.blockalign = readInt();
-			this.bitspersample = readInt();
-
-			this.datasubchunk = readString(lendatasubchunk);
-			if (!datasubchunk.endsWith("data"))
-			{
-				throw new IllegalArgumentException("data miss, " + filename
-						+ " is not a wave file.");
-			}
-			this.subchunk2size = readLong();
-
-			this.len = (int) (this.subchunk2size / (this.bitspersample / 8) / this.numchannels);
+			readHeader();
+			beginData();
 			
 			data = new int[this.numchannels][this.len];
-			
-			if (this.bitspersample == 8) 
+			int bytesPerSample = decoder.getBytesPerSample();
+			int frameBytes = bytesPerSample * this.numchannels;
+			int done = 0;
+			int n;
+			// 每次读一块整数个帧，每个声道按步长解码一遍
+			while ((n = readBlock(this.len - done)) > 0)
 			{
-				for (int i = 0; i < this.len; ++i) 
+				for (int ch = 0; ch < this.numchannels; ++ch)
 				{
-					for (int n = 0; n < this.numchannels; ++n) 
-					{
-						data[n][i] = bis.read();
-					} 
-
+					decoder.decode(streamView, ch * bytesPerSample, frameBytes, data[ch], done, n);
 				}
+				done += n;
 			}
-			else if (this.bitspersample == 16) 
-			{
-				File_Len = this.len * this.numchannels * 2;
-				Audio_Index = 0;
-				for(Block_Nr = (File_Len + 255) / 256;Block_Nr > 0;--Block_Nr)
-				{
-					if(File_Len < 256)
-					{
-						Byte_buf = new byte[(int)File_Len];
-						bis.read(Byte_buf);
-						j = File_Len;
-					}
-					else
-					{
-						bis.read(Byte_buf);
-						j = 256;
-					}
-
-					l = 0;
-					while (l < j) 
-					{
-						for(int ch = 0;ch < this.numchannels;++ch)
-						{
-							k = ((long)Byte_buf[l + 1] << 8) + Byte_buf[l];
-							data[ch][Audio_Index] = (int)k;
-							l += 2;
-						}
-						++Audio_Index;
-					} 
-					File_Len -= 256;
-				}
-			}			
 			issuccess = true;
 		} 
 		catch (Exception e)
@@ -212,75 +129,178 @@ public class WaveFileReader
 		return data;
 	}
 
-	private String readString(int len)
+	/**
+	 * 流式读取：只解析wav头，之后用read一段一段地取采样
+	 * @param inputStream wav数据流，close时关闭
+	 * @return 是否解析成功
+	 */
+	public boolean open(InputStream inputStream)
 	{
-		byte[] buf = new byte[len];
-		try {
-			if (bis.read(buf) != len)
-			{
-				throw new IOException("no more data!!!");
-			}
-		} 
-		catch (IOException e)
+		bis = inputStream;
+		issuccess = false;
+		try
+		{
+			readHeader();
+			beginData();
+			issuccess = true;
+		}
+		catch (Exception e)
 		{
 			e.printStackTrace();
+			close();
 		}
-		return new String(buf);
+		return issuccess;
 	}
 
-	private int readInt() 
+	/**
+	 * 从当前位置往后读frames个采样帧，只取channel声道的值写到dst[offset]开始的位置
+	 * 除非读到文件末尾，否则一定会读满frames个
+	 * @return 实际读到的帧数，读到文件末尾时小于frames
+	 */
+	public int read(int[] dst, int offset, int frames, int channel) throws IOException
 	{
-		byte[] buf = new byte[2];
-		int res = 0;
-		try 
+		if (channel < 0 || channel >= this.numchannels)
 		{
-			if (bis.read(buf) != 2)
-			{
-				throw new IOException("no more data!!!");
-			}
-			res = (buf[0] & 0x000000FF) | (((int) buf[1]) << 8);
-		} 
-		catch (IOException e)
+			throw new IllegalArgumentException("channel " + channel + " out of range, "
+					+ this.numchannels + " channels");
+		}
+		int bytesPerSample = decoder.getBytesPerSample();
+		int frameBytes = bytesPerSample * this.numchannels;
+		int done = 0;
+		int n;
+		while ((n = readBlock(frames - done)) > 0)
 		{
-			e.printStackTrace();
+			decoder.decode(streamView, channel * bytesPerSample, frameBytes, dst, offset + done, n);
+			done += n;
 		}
-		return res;
+		return done;
+	}
+
+	/**
+	 * 从当前位置往后读frames个采样帧，所有声道按原来的交错顺序写到dst[offset]开始的位置，
+	 * 共frames * getNumChannels()个值，多声道分析时用
+	 * @return 实际读到的帧数，读到文件末尾时小于frames
+	 */
+	public int readInterleaved(int[] dst, int offset, int frames) throws IOException
+	{
+		int bytesPerSample = decoder.getBytesPerSample();
+		int done = 0;
+		int n;
+		while ((n = readBlock(frames - done)) > 0)
+		{
+			decoder.decode(streamView, 0, bytesPerSample, dst, offset + done * this.numchannels,
+					n * this.numchannels);
+			done += n;
+		}
+		return done;
+	}
+
+	/**
+	 * 准备读data块：记下采样数据的字节数，分配读块用的缓存
+	 */
+	private void beginData()
+	{
+		remaining = this.len * (long) this.numchannels * decoder.getBytesPerSample();
+		if (streamBuf == null)
+		{
+			streamBuf = new byte[STREAM_BLOCK_SIZE];
+			streamView = ByteBuffer.wrap(streamBuf).order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * 读最多frames个采样帧的字节到streamBuf开头，每次读整数个帧，保证块里不会有半帧
+	 * 文件比头里写的短(截断了或者还在录)时，返回已经读到的整帧，后面当作文件末尾
+	 * @return 读到的帧数，到文件末尾时为0
+	 */
+	private int readBlock(int frames) throws IOException
+	{
+		int frameBytes = decoder.getBytesPerSample() * this.numchannels;
+		int n = (int) Math.min(Math.min(frames, streamBuf.length / frameBytes), remaining / frameBytes);
+		if (n <= 0)
+		{
+			return 0;
+		}
+		int read = readFully(streamBuf, n * frameBytes);
+		if (read < n * frameBytes)
+		{
+			remaining = 0;
+			return read / frameBytes;
+		}
+		remaining -= read;
+		return n;
+	}
+
+	/**
+	 * 跳过frames个采样帧，不解码
+	 * @return 实际跳过的帧数，到文件末尾时小于frames
+	 */
+	public long skip(long frames) throws IOException
+	{
+		int frameBytes = decoder.getBytesPerSample() * this.numchannels;
+		long bytes = Math.min(frames, remaining / frameBytes) * frameBytes;
+		RiffChunkIndex.skipFully(bis, bytes);
+		remaining -= bytes;
+		return bytes / frameBytes;
 	}
 
-	private long readLong() {
-		long res = 0;
-		try {
-			long[] l = new long[4];
-			for (int i = 0; i < 4; ++i) 
+	// 流式读取结束后关闭数据流
+	public void close()
+	{
+		try
+		{
+			if (bis != null)
 			{
-				l[i] = bis.read();
-				if (l[i] == -1) 
-				{
-					throw new IOException("no more data!!!");
-				}
+				bis.close();
 			}
-			res = l[0] | (l[1] << 8) | (l[2] << 16) | (l[3] << 24);
-		} 
-		catch (IOException e)
+		}
+		catch (Exception e)
 		{
 			e.printStackTrace();
 		}
-		return res;
+		bis = null;
+		remaining = 0;
 	}
 
-	private byte[] readBytes(int len) 
+	// 读满len个字节，流提前结束时返回实际读到的字节数
+	private int readFully(byte[] buf, int len) throws IOException
 	{
-		byte[] buf = new byte[len];
-		try {
-			if (bis.read(buf) != len)
+		int off = 0;
+		while (off < len)
+		{
+			int n = bis.read(buf, off, len - off);
+			if (n < 0)
 			{
-				throw new IOException("no more data!!!");
+				break;
 			}
-		} 
-		catch (IOException e)
+			off += n;
+		}
+		return off;
+	}
+
+	// 解析wav头：按块走到data块，跳过LIST、JUNK等别的块，格式不对时抛出IllegalArgumentException
+	private void readHeader() throws IOException
+	{
+		try
 		{
-			e.printStackTrace();
+			this.index = RiffChunkIndex.read(bis);
 		}
-		return buf;
+		catch (IllegalArgumentException e)
+		{
+			throw new IllegalArgumentException(filename + ": " + e.getMessage(), e);
+		}
+		this.audioformat = index.getAudioFormat();
+		this.numchannels = index.getNumChannels();
+		this.samplerate = index.getSampleRate();
+		this.bitspersample = index.getBitsPerSample();
+		this.decoder = PcmDecoder.forFormat(this.audioformat, this.bitspersample);
+		// RF64的data块可以超过4G，帧数超过int时只读前面的部分
+		this.len = (int) Math.min(index.getFrameCount(), Integer.MAX_VALUE);
+	}
+
+	// 获取wav的块表，流式读取时只有data块和它前面的块
+	public RiffChunkIndex getChunkIndex()
+	{
+		return this.index;
 	}
 }
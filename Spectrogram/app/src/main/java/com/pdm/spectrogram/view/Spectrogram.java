@@ -2,17 +2,30 @@ package com.pdm.spectrogram.view;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Handler;
 import android.os.Message;
 import android.util.AttributeSet;
 import android.view.View;
 
+import com.pdm.spectrogram.engine.AnalysisWorker;
+import com.pdm.spectrogram.engine.BandMapper;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.engine.LevelTable;
+import com.pdm.spectrogram.engine.MultiChannelEngine;
+import com.pdm.spectrogram.engine.SampleRing;
+import com.pdm.spectrogram.engine.SpectrumEngine;
+import com.pdm.spectrogram.engine.SpectrumFrame;
+import com.pdm.spectrogram.engine.WaveformPyramid;
+import com.pdm.spectrogram.utils.ColorMap;
+
 /**
  * 通常普清音频的采样率为44.1KHZ,安卓处理音频输出都会进行重采样压缩成44.1KHZ，也就是如果要听高清音频，手机肯定是不行滴
- * 我们这里做的是8分频fft，8分频是为了取低频数据,因为fft处理后的数据呈线性变换，间隔都是一样的，如果间隔太大，会导致很多频段的低频数据取不到
+ * FFT计算放在SpectrumEngine里，由AnalysisWorker在自己的线程里算，这里只负责绘制最新的结果
  * Author:pdm on 2016/3/15
  * Email:aiyh0202@163.com
  * CSDN:http://blog.csdn.net/aiyh0202
@@ -20,28 +33,81 @@ import android.view.View;
  */
 public class Spectrogram extends View {
     private static final String TAG = "Spectrogram";
-    //圆周率
-    private static final double PI = 3.14159265f;
     // 每次取8K数据，因为需要8分频（每次采样1024个点）1024*8，8分频是为了取低频数据
-    public static final int SAMPLING_TOTAL = 8192;
-    private static final int FFT_SIZE = 1024; // 进行两次1024个数据的FFT
-    //中间显示的段数，这里取31段展示
-    private static final int SPECTROGRAM_COUNT = 31;
-    //这里代表最高电频（最多的格子数）
+    public static final int SAMPLING_TOTAL = SpectrumEngine.SAMPLING_TOTAL;
+    //默认显示的段数，31段，实际段数由引擎决定
+    private static final int SPECTROGRAM_COUNT = SpectrumEngine.SPECTROGRAM_COUNT;
+    //横坐标标注的频点，按对数位置放
+    private static final double[] AXIS_FREQUENCIES = {20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000};
+    private static final String[] AXIS_LABELS = {"20Hz", "50Hz", "100Hz", "200Hz", "500Hz",
+            "1KHz", "2KHz", "5KHz", "10KHz", "20KHz"};
+    //这里代表最高电频（默认最多的格子数）
     private static final int ROW_LOCAL_COUNT = 32;
+    //当前的格子数，可以调到64格以上
+    private int rowCount = ROW_LOCAL_COUNT;
     /**
-     * 高频与低频的分界位置
-     */
-    private static final int LowFreqDividing = 14;
-    /**
-     * 纵坐标分布数组
+     * 纵坐标分布表
      */
-    private double[] row_local_table = new double[ROW_LOCAL_COUNT];
+    private LevelTable levelTable;
 
     public void setBitspersample(int bitspersample) {
         this.bitspersample = bitspersample;
+        levelTable = null;
     }
 
+    /**
+     * 设置纵向的格子数，在UI线程调用
+     */
+    public void setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+        levelTable = null;
+        invalidate();
+    }
+
+    //柱子的每个格子画成一段粗线，线宽等于格子高度，一帧所有的格子放在一个数组里，一次drawLines画完
+    private final Paint barPaint = new Paint();
+    //最高点的方格，同样一次画完
+    private final Paint topPaint = new Paint();
+    private float[] barLines = new float[0];
+    private float[] topLines = new float[0];
+    //每个频段柱子的左边，每一格的中线，只在大小、频段数或者格子数变化时重新算
+    private float[] bandLeft = new float[0];
+    private float[] rowCenter = new float[0];
+    private float barWidth;
+    //当前这一帧的最小/最大值金字塔，只在分析线程发布新的一帧时重建，重画但没有新帧时不动；
+    //帧是滑动的窗口，金字塔不能从头部删采样，只追加新采样会越攒越长，所以每帧清空重建，
+    //代价是把这一帧过一遍；一帧以外的历史由setWaveOverview给的整个文件的摘要提供
+    private final WaveformPyramid waveform = new WaveformPyramid();
+    private int[] waveMin = new int[0];
+    private int[] waveMax = new int[0];
+    //波形显示最近的多少个采样，0为整帧
+    private volatile int waveSpan = 0;
+    //缓存里整个文件的波形摘要，要显示的采样比一帧多时从这里取，没有缓存时为null
+    private volatile WaveformPyramid overview;
+    //当前窗口最后一个采样在整个文件里的位置(交错后)
+    private volatile long overviewPosition;
+    //波形和相关性折线的端点，一次drawLines
+    private float[] waveLines = new float[0];
+    private float[] correlationLines = new float[0];
+    //横坐标标注事先画到位图里，只在大小或者频段分组变化时重画
+    private Bitmap axisBitmap;
+    private float axisTop;
+    private boolean axisDirty = true;
+
+    //瀑布图：每来一帧往环形的位图里写一列(宽1像素，每个频段1像素高)，最老的一列被覆盖，
+    //画的时候从写的位置分成两段贴上去，历史数据不用移动也不用重画
+    private Bitmap waterfall;
+    //位图的宽度(保存的帧数)和下一列写在哪，也就是最老的一列
+    private int waterfallWidth;
+    private int waterfallPos;
+    private int[] waterfallColumn = new int[0];
+    //能量到颜色的查找表，跟着位数重新建
+    private ColorMap colorMap;
+    private final Rect waterfallSrc = new Rect();
+    private final Rect waterfallDst = new Rect();
+    //放大时不插值，每个频段是清楚的一条
+    private final Paint waterfallPaint = new Paint();
+
     private int bitspersample = 16;//这里默认为16位
 
     private double bits;//音频编码长度存储的最大10进制的值
@@ -56,23 +122,30 @@ public class Spectrogram extends View {
 
     private float LineViewWidth = 0;
     private float LineViewHeight = 0;
-    //不分频的实部和虚部
-    private double[] first_fft_real = new double[FFT_SIZE];
-    private double[] first_fft_imag = new double[FFT_SIZE];
-    //分频后的实部和虚部
-    private double[] second_fft_real = new double[FFT_SIZE];
-    private double[] second_fft_imag = new double[FFT_SIZE];
-    //绘制频谱的实部和虚部
-    private double[] real = new double[SPECTROGRAM_COUNT];
-    private double[] imag = new double[SPECTROGRAM_COUNT];
-
+    //分析线程，FFT不在UI线程上算
+    private volatile AnalysisWorker worker;
+    //实时采集时分析线程直接读的环形缓存，没有时为null
+    private SampleRing ring;
+    private int ringHop;
+    private double ringSamplerate;
+    //绘制频谱的每个频段的能量，从分析线程发布的最新一帧拷贝过来
+    private float[] powers = new float[SPECTROGRAM_COUNT];
+    //已经取过的帧序号
+    private long lastSequence = 0;
+    //多声道时频段分成几组(每个声道一组，或者中置、侧边两组)，每组都是20HZ-20KHZ
+    private int groups = 1;
+    //立体声时每个频段两个声道的相关性，没有时为null
+    private float[] correlation;
+
+    //每个柱子这一帧的高度(从上往下数的格子位置)，和频段数一样长，不在onDraw里分配
+    private int[] local = new int[SPECTROGRAM_COUNT];
     // 落差效果，记录最高点的坐标
-    private int[] top_local = new int[ROW_LOCAL_COUNT]; // 绿色点的坐标
+    private int[] top_local = new int[SPECTROGRAM_COUNT]; // 绿色点的坐标
     /**
      * 达到最大时,等到该数达到定值时才开始下落top_local_count[i] = 0的时候，处于最高点，top_local_count[i]会一直
      * 叠加到10，最高点方格才会下落
      */
-    private int[] top_local_count = new int[ROW_LOCAL_COUNT];
+    private int[] top_local_count = new int[SPECTROGRAM_COUNT];
     //下落延时次数
     private static final int DELAY = 10;
 
@@ -88,22 +161,23 @@ public class Spectrogram extends View {
      * 没有显示
      */
     public static final int NONE_TYPE_SHOW = 3;
+    /**
+     * 瀑布图显示方式：横轴时间，纵轴频段，颜色为能量
+     */
+    public static final int WATERFALL_TYPE_SHOW = 4;
 
-    private int show_type = GRID_TYPE_SHOW;
+    private volatile int show_type = GRID_TYPE_SHOW;
 
     /**
      * true=有信号,false=无信号
      */
-    private boolean Signaled = false;
+    private volatile boolean Signaled = false;
 
     private int[] data = new int[SAMPLING_TOTAL];
 
     private static final int INVALIDATE = 121212;
     private int sepColor, textColor, topColor;
     private int sepAlpha, textAlpha;
-    private double[] sampleratePoint;//显示频点
-    private int[] loc;//取31组频率
-    private double step = 0;
 
     public int getTextAlpha() {
         return textAlpha;
@@ -111,6 +185,7 @@ public class Spectrogram extends View {
 
     public void setTextAlpha(int textAlpha) {
         this.textAlpha = textAlpha;
+        axisDirty = true;
     }
 
     public int getSepAlpha() {
@@ -119,6 +194,8 @@ public class Spectrogram extends View {
 
     public void setSepAlpha(int sepAlpha) {
         this.sepAlpha = sepAlpha;
+        barPaint.setAlpha(sepAlpha);
+        topPaint.setAlpha(sepAlpha);
     }
 
     @SuppressLint("HandlerLeak")
@@ -135,41 +212,170 @@ public class Spectrogram extends View {
     public Spectrogram(Context context, AttributeSet attrs) {
         super(context, attrs);
         // TODO Auto-generated private static final intructor stub
-        for (int i = 0; i < FFT_SIZE; i++) {
-            first_fft_real[i] = 0;
-            first_fft_imag[i] = 0;
-            second_fft_real[i] = 0;
-            second_fft_imag[i] = 0;
-        }
-        for (int i = 0; i < SPECTROGRAM_COUNT; i++) {
-            real[i] = 0;
-            imag[i] = 0;
-        }
-    }
-
-    @Override
-    protected void onDraw(Canvas canvas) {
-        // TODO Auto-generated method stub
-        super.onDraw(canvas);
-        this.canvas = canvas;
-        LineViewWidth = this.getWidth() - XINTERVAL;
-        LineViewHeight = this.getHeight() - YINTERVAL;
+        worker = new AnalysisWorker(new DoubleSpectrumEngine(), SAMPLING_TOTAL, frameListener);
         //频谱颜色
         sepColor = Color.rgb(63, 81, 181);
         //字体颜色
         textColor = Color.rgb(63, 81, 181);
         //最高点方格颜色
         topColor = Color.rgb(51, 181, 229);
+        barPaint.setColor(sepColor);
+        barPaint.setStyle(Paint.Style.STROKE);
+        barPaint.setStrokeCap(Paint.Cap.BUTT);
+        topPaint.setColor(topColor);
+        topPaint.setStyle(Paint.Style.STROKE);
+        topPaint.setStrokeCap(Paint.Cap.BUTT);
+        waterfallPaint.setFilterBitmap(false);
         // 设置透明度(有真实信号加深)0-250
         setSepAlpha(250);
         setTextAlpha(250);
+    }
+
+    private final AnalysisWorker.Listener frameListener = new AnalysisWorker.Listener() {
+        @Override
+        public void onFrameReady() {
+            // 刷屏，上一次的还没处理就不用再发
+            if (!mHandler.hasMessages(INVALIDATE)) {
+                mHandler.sendEmptyMessage(INVALIDATE);
+            }
+        }
+    };
+
+    /**
+     * 设置频谱计算引擎，内存带宽吃紧的设备可以用FloatSpectrumEngine，只看这几个频段、要求延迟低时可以用SlidingDftEngine，
+     * 换了FFT点数、分频倍数(每帧采样数变了)或者频段数时要在UI线程调用，之后ShowSpectrogram要传getFrameSize()个采样
+     *
+     * @param engine
+     */
+    public void setSpectrumEngine(SpectrumEngine engine) {
+        if (engine.getFrameSize() == worker.getFrameSize()
+                && engine.getBandCount() == worker.getBandCount()) {
+            worker.setEngine(engine);
+            return;
+        }
+        AnalysisWorker old = worker;
+        //旧线程可能还在读同一个环形缓存，等它结束再让新的接上
+        old.quitAndJoin();
+        worker = new AnalysisWorker(engine, engine.getFrameSize(), frameListener);
+        if (ring != null) {
+            if (ring.getWindow() == engine.getFrameSize()) {
+                attachRing();
+            } else {
+                //窗口长度不一样，要重新setSampleRing
+                ring = null;
+            }
+        }
+        data = new int[engine.getFrameSize()];
+        int bandCount = engine.getBandCount();
+        groups = engine instanceof MultiChannelEngine ? ((MultiChannelEngine) engine).getGroupCount() : 1;
+        correlation = null;
+        powers = new float[bandCount];
+        local = new int[bandCount];
+        top_local = new int[bandCount];
+        top_local_count = new int[bandCount];
+        lastSequence = 0;
+        axisDirty = true;
+        releaseWaterfall();
+    }
+
+    /**
+     * 实时采集：分析线程直接从环形缓存读最新的窗口，不再需要ShowSpectrogram，在UI线程调用
+     *
+     * @param ring       窗口长度为getFrameSize()，null时回到ShowSpectrogram方式
+     * @param minHop     至少攒够多少个新采样才算一次
+     * @param samplerate 采样率
+     */
+    public void setSampleRing(SampleRing ring, int minHop, double samplerate) {
+        this.ring = ring;
+        this.ringHop = minHop;
+        this.ringSamplerate = samplerate;
+        //旧线程退出后新线程才能用同一个引擎和SpectrumBuffer
+        worker.quitAndJoin();
+        if (ring != null) {
+            attachRing();
+        } else {
+            worker.setSource(null, 0, 0);
+        }
+    }
+
+    private void attachRing() {
+        worker.setSource(ring, ringHop, ringSamplerate);
+        worker.setAnalyze(show_type != WAVE_TYPE_SHOW);
+        worker.start();
+    }
+
+    /**
+     * 每次ShowSpectrogram需要的采样数
+     */
+    public int getFrameSize() {
+        return worker.getFrameSize();
+    }
+
+    /**
+     * 每帧的频段数，ShowPowers要传这么多个
+     */
+    public int getBandCount() {
+        return worker.getBandCount();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        LineViewWidth = w - XINTERVAL;
+        LineViewHeight = h - YINTERVAL;
+        // 大小变了，横坐标和格子的位置都要重新算
+        axisDirty = true;
+        bandLeft = new float[0];
+        releaseWaterfall();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        worker.quitAndJoin();
+        if (axisBitmap != null) {
+            axisBitmap.recycle();
+            axisBitmap = null;
+        }
+        axisDirty = true;
+        releaseWaterfall();
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        // TODO Auto-generated method stub
+        super.onDraw(canvas);
+        this.canvas = canvas;
         // 构建纵坐标的值;bits = 16位数转十进制的最大值,这里面的值是定值，只需要算一次
-        if (step == 0) {
-            row_local_table[0] = 5.0;
-            bits = Math.pow(2.0, bitspersample - 1) - 1;
-            step = Math.pow(bits / row_local_table[0], 1.0 / ROW_LOCAL_COUNT);// x的y次幂
-            for (int i = 1; i < ROW_LOCAL_COUNT; i++) {
-                row_local_table[i] = row_local_table[i - 1] * step;
+        if (levelTable == null) {
+            levelTable = new LevelTable(bitspersample, rowCount);
+            bits = levelTable.getMaxValue();
+            colorMap = new ColorMap(bits);
+        }
+        // 取分析线程发布的最新一帧
+        SpectrumFrame frame = worker.latest();
+        if (frame.getSequence() != lastSequence) {
+            lastSequence = frame.getSequence();
+            if (frame.hasSpectrum()) {
+                System.arraycopy(frame.getPowers(), 0, powers, 0, powers.length);
+                float[] c = frame.getCorrelation();
+                if (c == null) {
+                    correlation = null;
+                } else {
+                    if (correlation == null || correlation.length != c.length) {
+                        correlation = new float[c.length];
+                    }
+                    System.arraycopy(c, 0, correlation, 0, c.length);
+                }
+                if (show_type == WATERFALL_TYPE_SHOW) {
+                    //每一帧只写新的一列
+                    appendWaterfallColumn();
+                }
+            } else {
+                System.arraycopy(frame.getSamples(), 0, data, 0, data.length);
+                //新的一帧，整帧重建(见waveform的说明)
+                waveform.clear();
+                waveform.append(data, 0, data.length);
             }
         }
         //显示频谱
@@ -177,10 +383,16 @@ public class Spectrogram extends View {
             // 格子的频谱(绘制横坐标)
             drawSpectrogramAxis();
             //绘制纵坐标方格
-            drawGridTypeSpectrogram(real, imag);
+            drawGridTypeSpectrogram(powers);
+            //立体声的声道相关性
+            if (correlation != null) {
+                drawCorrelation();
+            }
         } else if (show_type == WAVE_TYPE_SHOW) {
             // 显示波形图
             drawWave();
+        } else if (show_type == WATERFALL_TYPE_SHOW) {
+            drawWaterfall();
         } else if (show_type == NONE_TYPE_SHOW) {
 
         }
@@ -193,96 +405,144 @@ public class Spectrogram extends View {
      */
     public void setShowType(int type) {
         show_type = type;
+        worker.setAnalyze(type != WAVE_TYPE_SHOW);
         invalidate();
     }
 
+    public int getShowType() {
+        return show_type;
+    }
+
     /**
-     * 更改显示方式
+     * 更改显示方式，按方格、瀑布图、波形的顺序轮换
      */
     public void changeShowType() {
         if (show_type == GRID_TYPE_SHOW) {
+            show_type = WATERFALL_TYPE_SHOW;
+        } else if (show_type == WATERFALL_TYPE_SHOW) {
             show_type = WAVE_TYPE_SHOW;
         } else if (show_type == WAVE_TYPE_SHOW) {
             show_type = GRID_TYPE_SHOW;
         }
+        worker.setAnalyze(show_type != WAVE_TYPE_SHOW);
         // 刷新
         invalidate();
     }
 
     /**
-     * 绘制频率坐标
+     * 绘制频率坐标：标注画好的位图直接贴上去
      */
     private void drawSpectrogramAxis() {
-        //这里对应的值是30HZ-20KHZ，中间的值成对数关系，即sampleratePoint
-        String[] X_axis = {"20Hz", "46Hz", "69Hz", "105Hz", "160Hz", "244Hz",
-                "371Hz", "565Hz", "859Hz", "1.30KHz", "1.98KHz", "3.02KHz",
-                "4.60KHz", "7.00KHz", "10.6KHz", "20KHz"};
-        float x_step = LineViewWidth / SPECTROGRAM_COUNT;
+        if (axisDirty) {
+            buildAxisBitmap();
+        }
+        if (axisBitmap != null) {
+            canvas.drawBitmap(axisBitmap, 0, axisTop, null);
+        }
+    }
+
+    /**
+     * 把横坐标标注画到位图里，量字宽、取字体高度都只在这里做一次
+     */
+    private void buildAxisBitmap() {
+        axisDirty = false;
+        if (axisBitmap != null) {
+            axisBitmap.recycle();
+            axisBitmap = null;
+        }
+        if (getWidth() <= 0 || getHeight() <= 0) {
+            return;
+        }
+        //20HZ-20KHZ之间成对数关系，按频率在频段上的位置放标注，段数变了也对得上；多声道时每组都标一遍
+        int bandCount = powers.length / groups;
+        float x_step = LineViewWidth / powers.length;
         //这里计算的是格子的宽度
         float width = x_step - XINTERVAL;
         // 横坐标(Hz)
-        mPaint.setColor(textColor);
-        mPaint.setAlpha(getTextAlpha());
-        mPaint.setTextSize(15f);
-        for (int i = 0; i < X_axis.length; i++) {
-            float textWidth = mPaint.measureText(X_axis[i]);
-            //这里是为了计算格子跟字的宽度差，用来确定字的位置,确保字跟方格中心在一条直线
-            float xBad = (width - textWidth) / 2;
-            float x = XINTERVAL + 2 * i * x_step + xBad;
-            //获取文字上坡度(为负数)和下坡度的高度
-            Paint.FontMetrics font = mPaint.getFontMetrics();
-            float y = -(font.ascent + font.descent) / 2;
-            canvas.drawText(X_axis[i], x, LineViewHeight - YINTERVAL/2 + y, mPaint);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(textColor);
+        paint.setAlpha(getTextAlpha());
+        paint.setTextSize(15f);
+        //获取文字上坡度(为负数)和下坡度的高度
+        Paint.FontMetrics font = paint.getFontMetrics();
+        float y = -(font.ascent + font.descent) / 2;
+        //文字的中线在LineViewHeight - YINTERVAL / 2，位图只覆盖文字所在的一条
+        float baseline = LineViewHeight - YINTERVAL / 2 + y;
+        axisTop = Math.max(0, (float) Math.floor(baseline + font.ascent));
+        int height = (int) Math.min(getHeight() - axisTop, Math.ceil(baseline + font.descent - axisTop) + 1);
+        if (height <= 0) {
+            return;
+        }
+        axisBitmap = Bitmap.createBitmap(getWidth(), height, Bitmap.Config.ARGB_8888);
+        Canvas axisCanvas = new Canvas(axisBitmap);
+        axisCanvas.translate(0, -axisTop);
+        //组数多时只标一半的频点，免得字挤在一起
+        int labelStep = groups > 1 ? 2 : 1;
+        for (int g = 0; g < groups; g++) {
+            float left = XINTERVAL + g * bandCount * x_step;
+            float right = left + bandCount * x_step - XINTERVAL;
+            for (int i = 0; i < AXIS_LABELS.length; i += labelStep) {
+                float textWidth = paint.measureText(AXIS_LABELS[i]);
+                //频点所在位置的中心，字的中心跟它对齐，不超出这一组
+                double index = BandMapper.indexOf(AXIS_FREQUENCIES[i], bandCount);
+                float center = (float) (left + index * x_step + width / 2);
+                float x = Math.max(left - XINTERVAL, Math.min(center - textWidth / 2, right - textWidth));
+                axisCanvas.drawText(AXIS_LABELS[i], x, baseline, paint);
+            }
         }
-
     }
+
     /**
-     * 柱形频谱：方格方式显示
-     *
-     * @param real
-     * @param imag
+     * 大小、频段数或者格子数变了才重新算每个柱子的位置和每一格的中线
      */
-    private void drawGridTypeSpectrogram(double real[], double imag[]) {
-        double model;
-        int[] local = new int[ROW_LOCAL_COUNT];
+    private void ensureBarGeometry(int bandCount, int rowCount) {
+        if (bandLeft.length == bandCount && rowCenter.length == rowCount) {
+            return;
+        }
         //计算绘制频谱格子的宽度
-        float x_step = LineViewWidth / SPECTROGRAM_COUNT;
+        float x_step = LineViewWidth / bandCount;
         //格子的高度
-        float y_step = LineViewHeight / ROW_LOCAL_COUNT;
-        canvas.save();
-        canvas.translate(0, -10);
-        for (int i = 0; i < SPECTROGRAM_COUNT; i++) {
-            model = 2 * Math.hypot(real[i], imag[i]) / FFT_SIZE;// 计算电频最大值，Math.hypot(x,y)返回sqrt(x2+y2)，最高电频
-            for (int k = 1; k < ROW_LOCAL_COUNT; k++) {
-                if (model >= row_local_table[k - 1]
-                        && model < row_local_table[k]) {
-                    local[i] = k - 1;//这里取最高电频所对应的方格数
-                    break;
-                }
-            }
-            // 最上面的为0位置，最下面的为31位置,为了方便绘制top方格
-            local[i] = ROW_LOCAL_COUNT - local[i];
+        float y_step = LineViewHeight / rowCount;
+        bandLeft = new float[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            bandLeft[i] = XINTERVAL + i * x_step;
+        }
+        barWidth = x_step - XINTERVAL;
+        float cellHeight = Math.max(1, y_step - YINTERVAL);
+        rowCenter = new float[rowCount];
+        for (int j = 0; j < rowCount; j++) {
+            rowCenter[j] = j * y_step + cellHeight / 2;
+        }
+        barPaint.setStrokeWidth(cellHeight);
+        topPaint.setStrokeWidth(cellHeight);
+        //最坏情况每个格子都亮
+        barLines = new float[bandCount * rowCount * 4];
+        topLines = new float[bandCount * 4];
+    }
+
+    /**
+     * 柱形频谱：方格方式显示，所有格子先算好端点，柱子和最高点各一次drawLines
+     *
+     * @param powers 每个频段的能量
+     */
+    private void drawGridTypeSpectrogram(float powers[]) {
+        int bandCount = powers.length;
+        int rowCount = levelTable.getRowCount();
+        ensureBarGeometry(bandCount, rowCount);
+        int n = 0;
+        for (int i = 0; i < bandCount; i++) {
+            // 能量就是电频值的平方，直接和平方后的分界值比较，取最高电频所对应的方格数
+            local[i] = levelTable.levelOfPower(powers[i]);
+            // 最上面的为0位置，最下面的为rowCount - 1位置,为了方便绘制top方格
+            local[i] = rowCount - local[i];
             // 柱形
-            if (Signaled) {
-                mPaint.setColor(sepColor);
-                mPaint.setAlpha(getSepAlpha());
-            } else {
-                mPaint.setColor(sepColor);
-                mPaint.setAlpha(getSepAlpha());
-            }
-            float x = XINTERVAL + i * x_step;
-            for (int j = ROW_LOCAL_COUNT; j > local[i]; j--) {
-                float y = (j - 1) * y_step;
-                canvas.drawRect(x, y, x + x_step - XINTERVAL, y + y_step - YINTERVAL,
-                        mPaint);// 绘制矩形,左上右下
-            }
-            // 绿点
-            if (Signaled) {
-                mPaint.setColor(topColor);
-                mPaint.setAlpha(getSepAlpha());
-            } else {
-                mPaint.setColor(topColor);
-                mPaint.setAlpha(getSepAlpha());
+            float x = bandLeft[i];
+            for (int j = rowCount; j > local[i]; j--) {
+                float y = rowCenter[j - 1];
+                barLines[n++] = x;
+                barLines[n++] = y;
+                barLines[n++] = x + barWidth;
+                barLines[n++] = y;
             }
             //下面部分是用来显示落差效果的，没有强大的理解能力可能会绕晕，所以我也不做过多注释，看个人天赋吧
             //local[i] < top_local[i]说明最高点改变（local[i]越小，点越高，这里需要注意）
@@ -300,79 +560,132 @@ public class Spectrogram extends View {
                     top_local[i] = local[i] > (top_local[i] + 1) ? (top_local[i] + 1) : local[i];
                 }
             }
-            //y增加则最高位方格下降
-            float y = top_local[i] * y_step;
-            canvas.drawRect(x, y, x + x_step - XINTERVAL, y + y_step - YINTERVAL, mPaint);// 最高位置的方格
+            //y增加则最高位方格下降，最高位置的方格
+            float y = rowCenter[Math.min(top_local[i], rowCount - 1)];
+            topLines[4 * i] = x;
+            topLines[4 * i + 1] = y;
+            topLines[4 * i + 2] = x + barWidth;
+            topLines[4 * i + 3] = y;
+        }
+        canvas.save();
+        canvas.translate(0, -10);
+        if (n > 0) {
+            canvas.drawLines(barLines, 0, n, barPaint);
         }
+        canvas.drawLines(topLines, 0, 4 * bandCount, topPaint);
         canvas.restore();
     }
 
     /**
-     * 显示频谱时进行FFT计算
-     *
-     * @param buf
-     * @param samplerate 采样率
+     * 瀑布图的位图，宽度和控件一样，每个频段一行，大小或者频段数变了才重新建
+     */
+    private boolean ensureWaterfall() {
+        int width = getWidth();
+        int rows = powers.length;
+        if (width <= 0 || rows <= 0) {
+            return false;
+        }
+        if (waterfall == null) {
+            waterfall = Bitmap.createBitmap(width, rows, Bitmap.Config.ARGB_8888);
+            waterfall.eraseColor(colorMap.getColors()[0]);
+            waterfallColumn = new int[rows];
+            waterfallWidth = width;
+            waterfallPos = 0;
+        }
+        return true;
+    }
+
+    private void releaseWaterfall() {
+        if (waterfall != null) {
+            waterfall.recycle();
+            waterfall = null;
+        }
+    }
+
+    /**
+     * 把最新一帧查表换成颜色写进位图的一列，只写getBandCount()个像素；
+     * 低频在下面，多声道时每组占一段，第一组在最上面
      */
-    public void spectrogram(int[] buf, double samplerate) {
-        first_fft_real[0] = buf[0];
-        first_fft_imag[0] = 0;
-
-        second_fft_real[0] = buf[0];
-        second_fft_imag[0] = 0;
-
-        for (int i = 0; i < FFT_SIZE; i++) {
-            first_fft_real[i] = buf[i];
-            first_fft_imag[i] = 0;
-            // 八分频(相当于降低了8倍采样率)，这样1024缓存区中的fft频率密度就越大，有利于取低频
-            second_fft_real[i] = (buf[i * 8] + buf[i * 8 + 1] + buf[i * 8 + 2]
-                    + buf[i * 8 + 3] + buf[i * 8 + 4] + buf[i * 8 + 5]
-                    + buf[i * 8 + 6] + buf[i * 8 + 7]) / 8.0;
-            second_fft_imag[i] = 0;
-        }
-        // 高频部分从原始数据取
-        fft(first_fft_real, first_fft_imag, FFT_SIZE);
-
-        // 八分频后的1024个数据的FFT,频率间隔为5.512Hz(samplerate / 8)，取低频部分
-        fft(second_fft_real, second_fft_imag, FFT_SIZE);
-        //这里算出的是每一个频点的坐标，对应横坐标的值，因为是定值，所以只需要算一次
-        if (loc == null) {
-            loc = new int[SPECTROGRAM_COUNT];
-            sampleratePoint = new double[SPECTROGRAM_COUNT];
-            for (int i = 0; i < loc.length; i++) {
-                //20000表示的最大频点20KHZ,这里的20-20K之间坐标的数据成对数关系,这是音频标准
-                double F = Math.pow(20000 / 20, 1.0 / SPECTROGRAM_COUNT);//方法中20为低频起点20HZ，31为段数
-                sampleratePoint[i] = 20 * Math.pow(F, i);//乘方，30为低频起点
-                //这里的samplerate为采样率(samplerate / (1024 * 8))是8分频后点FFT的点密度
-                loc[i] = (int) (sampleratePoint[i] / (samplerate / (1024 * 8)));//估算出每一个频点的位置
+    private void appendWaterfallColumn() {
+        if (!ensureWaterfall()) {
+            return;
+        }
+        int bandCount = powers.length / groups;
+        for (int g = 0; g < groups; g++) {
+            int base = g * bandCount;
+            for (int b = 0; b < bandCount; b++) {
+                waterfallColumn[base + bandCount - 1 - b] = colorMap.color(powers[base + b]);
             }
         }
-        //低频部分
-        for (int j = 0; j < LowFreqDividing; j++) {
-            int k = loc[j];
-            // 低频部分：八分频的数据,取31段，以第14段为分界点，小于为低频部分，大于为高频部分
-            // 这里的14是需要取数后分析确定的，确保低频有足够的数可取
-            real[j] = second_fft_real[k];
-            imag[j] = second_fft_imag[k];
+        waterfall.setPixels(waterfallColumn, 0, 1, waterfallPos, 0, 1, waterfallColumn.length);
+        waterfallPos = (waterfallPos + 1) % waterfallWidth;
+    }
+
+    /**
+     * 从最老的一列开始分两段贴：[waterfallPos, 宽度)放在左边，[0, waterfallPos)接在后面，最新的一列在最右边
+     */
+    private void drawWaterfall() {
+        if (!ensureWaterfall()) {
+            return;
         }
-        // 高频部分，高频部分不需要分频
-        for (int m = LowFreqDividing; m < loc.length; m++) {
-            int k = loc[m];
-            real[m] = first_fft_real[k / 8];
-            imag[m] = first_fft_imag[k / 8];
+        int width = waterfallWidth;
+        int rows = waterfallColumn.length;
+        int height = getHeight();
+        int older = width - waterfallPos;
+        waterfallSrc.set(waterfallPos, 0, width, rows);
+        waterfallDst.set(0, 0, older, height);
+        canvas.drawBitmap(waterfall, waterfallSrc, waterfallDst, waterfallPaint);
+        if (waterfallPos > 0) {
+            waterfallSrc.set(0, 0, waterfallPos, rows);
+            waterfallDst.set(older, 0, width, height);
+            canvas.drawBitmap(waterfall, waterfallSrc, waterfallDst, waterfallPaint);
         }
     }
 
+    /**
+     * 声道相关性：控件顶部一条折线，每个频段一个点，每组下面都画一遍，
+     * 最上面为1(两个声道相同)，中间为0(不相关)，最下面为-1(反相)，中线和折线一次drawLines
+     */
+    private void drawCorrelation() {
+        int bandCount = correlation.length;
+        float x_step = LineViewWidth / powers.length;
+        float height = LineViewHeight / 8;
+        int size = 4 + groups * (bandCount - 1) * 4;
+        if (correlationLines.length != size) {
+            correlationLines = new float[size];
+        }
+        float[] pts = correlationLines;
+        //中线
+        pts[0] = XINTERVAL;
+        pts[1] = height / 2;
+        pts[2] = LineViewWidth;
+        pts[3] = height / 2;
+        int n = 4;
+        for (int g = 0; g < groups; g++) {
+            float left = XINTERVAL + g * bandCount * x_step + (x_step - XINTERVAL) / 2;
+            for (int i = 1; i < bandCount; i++) {
+                pts[n++] = left + (i - 1) * x_step;
+                pts[n++] = (1 - correlation[i - 1]) / 2 * height;
+                pts[n++] = left + i * x_step;
+                pts[n++] = (1 - correlation[i]) / 2 * height;
+            }
+        }
+        mPaint.setColor(topColor);
+        mPaint.setAlpha(getSepAlpha());
+        canvas.drawLines(pts, 0, n, mPaint);
+    }
+
     /**
      * 方格方式显示背景
      */
     private void drawGridTypeSpectrogrambg() {
-        float x_step = LineViewWidth / SPECTROGRAM_COUNT;
-        float y_step = LineViewHeight / ROW_LOCAL_COUNT;
+        float x_step = LineViewWidth / powers.length;
+        float y_step = LineViewHeight / rowCount;
 
         mPaint.setColor(Color.rgb(0x1f, 0x1f, 0x1f));
-        for (int i = 0; i < SPECTROGRAM_COUNT; i++) {
+        for (int i = 0; i < powers.length; i++) {
             float x = 25 + i * x_step;
-            for (int j = 0; j < ROW_LOCAL_COUNT; j++) {
+            for (int j = 0; j < rowCount; j++) {
                 float y = j * y_step;
                 canvas.drawRect(x, y, x + x_step - XINTERVAL, y + y_step - YINTERVAL,
                         mPaint);
@@ -381,160 +694,120 @@ public class Spectrogram extends View {
     }
 
     /**
-     * 绘制波形
+     * 绘制波形：每个像素列从金字塔取这一列的采样的最小、最大值画一条竖线，
+     * 相邻两列首尾相接，所有线段一次drawLines，耗时只和宽度有关
      */
     private void drawWave() {
-        int len = data.length;
-        float step = len / LineViewWidth;
-        if (step == 0)
-            step = 1;
-        float prex = 0, prey = 0; // 上一个坐标
-        float x, y;
-
-        if (Signaled) {
-            mPaint.setColor(sepColor);
-        } else {
-            mPaint.setColor(sepColor);
+        int columns = (int) LineViewWidth - 10;
+        WaveformPyramid source = waveform;
+        long length = waveform.length();
+        WaveformPyramid overview = this.overview;
+        if (overview != null && waveSpan > length) {
+            //一帧不够，从整个文件的摘要里取当前位置之前的部分
+            source = overview;
+            length = Math.min(overviewPosition, overview.length());
         }
+        if (columns < 1 || length == 0) {
+            return;
+        }
+        if (waveMin.length < columns) {
+            waveMin = new int[columns];
+            waveMax = new int[columns];
+            waveLines = new float[columns * 4];
+        }
+        long span = waveSpan > 0 ? Math.min(waveSpan, length) : length;
+        source.render(length - span, length, columns, waveMin, waveMax);
         double k = LineViewHeight / 2 / bits;// 采样点音频为16位
-
-        for (int i = 0; i <= LineViewWidth / 2; i++) {
-            x = 10 + i * 2;//两个点之间X轴方向的间隔
-            if (i * 3 < data.length) {
-                y = LineViewHeight / 2
-                        - (int) (data[i * 3] * k);
-                if (i != 0) {
-                    canvas.drawLine(x, y, prex, prey, mPaint);
-                }
-                prex = x;
-                prey = y;
+        float center = LineViewHeight / 2;
+        int n = 0;
+        for (int c = 0; c < columns; c++) {
+            int lo = waveMin[c], hi = waveMax[c];
+            if (lo > hi) {
+                continue;
             }
+            if (c > 0 && waveMin[c - 1] <= waveMax[c - 1]) {
+                //和前一列接上，陡峭的地方不会断开
+                lo = Math.min(lo, waveMax[c - 1]);
+                hi = Math.max(hi, waveMin[c - 1]);
+            }
+            float x = 10 + c;
+            waveLines[n++] = x;
+            waveLines[n++] = center - (float) (hi * k);
+            waveLines[n++] = x;
+            //至少一个像素高
+            waveLines[n++] = center - (float) (lo * k) + 1;
         }
-
+        mPaint.setColor(sepColor);
+        mPaint.setAlpha(getSepAlpha());
+        canvas.drawLines(waveLines, 0, n, mPaint);
     }
 
     /**
-     * 绘制波形,这里用于实施音频绘制(接收其他设备传过来的音源)
+     * 设置波形显示最近的多少个采样，0为整帧，可以小到每列不到一个采样；
+     * 有setWaveOverview给的摘要时可以大于一帧
      */
-    private void drawWave1() {
-        int len = data.length;
-        float step = len / LineViewWidth;
-        if (step == 0)
-            step = 1;
-
-        float prex = 0, prey = 0; // 上一个坐标
-        float x = 0, y = 0;
+    public void setWaveSpan(int samples) {
+        waveSpan = samples;
+        invalidate();
+    }
 
-        if (Signaled) {
-            mPaint.setColor(Color.RED);
-        } else {
-            mPaint.setColor(Color.rgb(0x1f, 0x1f, 0x1f));
-        }
-        double k = LineViewHeight / 2.0 / bits;
-        for (int i = 0; i < LineViewWidth; ++i) {
-            x = i;
+    /**
+     * 整个文件的波形摘要，一般从AnalysisCache读出来，可以在任意线程调用，null为不用
+     */
+    public void setWaveOverview(WaveformPyramid overview) {
+        this.overview = overview;
+    }
 
-            // 下面是个三点取出并绘制
-            // 实际中应该按照采样率来设置间隔
-            y = LineViewHeight / 2 - (int) (data[i * 3] * k);
+    /**
+     * 当前窗口最后一个采样在整个文件里的位置(交错后)，和setWaveOverview一起用
+     */
+    public void setWavePosition(long position) {
+        overviewPosition = position;
+    }
 
-            if (i != 0) {
-                canvas.drawLine(x, y, prex, prey, mPaint);
-            }
-            prex = x;
-            prey = y;
+    /**
+     * 显示已经算好的一帧，比如从AnalysisCache读出来的，不做FFT，可以在任意线程调用
+     *
+     * @param powers      长度为引擎的getBandCount()
+     * @param correlation 立体声的声道相关性，没有时传null
+     */
+    public void ShowPowers(float[] powers, float[] correlation, double samplerate) {
+        if (show_type == NONE_TYPE_SHOW) {
+            return;
         }
-
+        AnalysisWorker worker = this.worker;
+        worker.start();
+        worker.submitPowers(powers, correlation, samplerate);
     }
 
     /**
-     * 绘制频谱,提供绘制接口，每次传8K数据
+     * 绘制频谱,提供绘制接口，每次传8K数据，可以在任意线程调用
+     * 数据会被拷贝后交给分析线程，调用完buf就可以重用
      *
-     * @param buf      长度为8192
+     * @param buf      长度为getFrameSize()，默认8192
      * @param Signaled 有无信号
      */
-    public synchronized void ShowSpectrogram(int[] buf, boolean Signaled,
-                                             double samplerate) {
-        this.Signaled = Signaled;
-        // 绘制网格频谱
-        if (show_type == GRID_TYPE_SHOW) {
-            spectrogram(buf, samplerate);
-
-        }// 绘制波形频谱
-        else if (show_type == WAVE_TYPE_SHOW) {
-            data = buf;
-
-        } else if (show_type == NONE_TYPE_SHOW) {
-
-            return;
-        }
-        // 刷屏
-        mHandler.sendMessage(mHandler.obtainMessage(INVALIDATE, ""));
+    public void ShowSpectrogram(int[] buf, boolean Signaled,
+                                double samplerate) {
+        ShowSpectrogram(buf, getFrameSize(), Signaled, samplerate);
     }
 
     /**
-     * 快速傅立叶变换，将复数 x 变换后仍保存在 x 中(这个算法可以不用理解，直接用)，转成频率轴的数（呈线性分步）
-     * 计算出每一个点的信号强度，即电频强度
+     * 同上，buf是连续的滑动窗口时用，分频滤波器只处理新进来的部分
      *
-     * @param real 实部
-     * @param imag 虚部
-     * @param n    多少个数进行FFT,n必须为2的指数倍数
-     * @return
+     * @param newSamples buf最后有多少个采样是上一次调用之后新进来的，不连续时传getFrameSize()
      */
-    private int fft(double real[], double imag[], int n) {
-        int i, j, l, k, ip;
-        int M = 0;
-        int le, le2;
-        double sR, sI, tR, tI, uR, uI;
-
-        M = (int) (Math.log(n) / Math.log(2));
-
-        // bit reversal sorting
-        l = n / 2;
-        j = l;
-        // 控制反转，排序，从低频到高频
-        for (i = 1; i <= n - 2; i++) {
-            if (i < j) {
-                tR = real[j];
-                tI = imag[j];
-                real[j] = real[i];
-                imag[j] = imag[i];
-                real[i] = tR;
-                imag[i] = tI;
-            }
-            k = l;
-            while (k <= j) {
-                j = j - k;
-                k = k / 2;
-            }
-            j = j + k;
-        }
-        // For Loops
-        for (l = 1; l <= M; l++) { /* loop for ceil{log2(N)} */
-            le = (int) Math.pow(2, l);
-            le2 = (int) (le / 2);
-            uR = 1;
-            uI = 0;
-            sR = Math.cos(PI / le2);// cos和sin消耗大量的时间，可以用定值
-            sI = -Math.sin(PI / le2);
-            for (j = 1; j <= le2; j++) { // loop for each sub DFT
-                // jm1 = j - 1;
-                for (i = j - 1; i <= n - 1; i += le) {// loop for each butterfly
-                    ip = i + le2;
-                    tR = real[ip] * uR - imag[ip] * uI;
-                    tI = real[ip] * uI + imag[ip] * uR;
-                    real[ip] = real[i] - tR;
-                    imag[ip] = imag[i] - tI;
-                    real[i] += tR;
-                    imag[i] += tI;
-                } // Next i
-                tR = uR;
-                uR = tR * sR - uI * sI;
-                uI = tR * sI + uI * sR;
-            } // Next j
-        } // Next l
-
-        return 0;
+    public void ShowSpectrogram(int[] buf, int newSamples, boolean Signaled,
+                                double samplerate) {
+        this.Signaled = Signaled;
+        int type = show_type;
+        if (type == NONE_TYPE_SHOW) {
+            return;
+        }
+        AnalysisWorker worker = this.worker;
+        worker.start();
+        // 绘制网格频谱和瀑布图时做FFT，绘制波形频谱时只拷贝数据
+        worker.submit(buf, newSamples, samplerate, type != WAVE_TYPE_SHOW);
     }
 
 }
@@ -0,0 +1,147 @@
+package com.pdm.spectrogram.cache;
+
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.engine.WaveformPyramid;
+import com.pdm.spectrogram.utils.WavFixture;
+import com.pdm.spectrogram.utils.WaveFileReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * 缓存里的每一帧要和直接计算的一样，再打开时命中，超过上限时删掉最久没用的
+ */
+public class AnalysisCacheTest {
+    private static final int SAMPLERATE = 44100;
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("analysis", "");
+        assertTrue(dir.delete() && dir.mkdirs());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 16位单声道的wav，扫频的正弦
+     */
+    private static byte[] wav(int frames, double amplitude) {
+        int[] samples = new int[frames];
+        for (int i = 0; i < frames; i++) {
+            samples[i] = (short) (amplitude * Math.sin(0.00002 * i * i));
+        }
+        return WavFixture.wav16(SAMPLERATE, 1, samples);
+    }
+
+    private CachedAnalysis build(AnalysisCache cache, byte[] bytes) throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        String key = AnalysisCache.key(AnalysisCache.hash(new ByteArrayInputStream(bytes)), config, 1, false);
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(bytes)));
+        try {
+            return cache.build(key, reader, new DoubleSpectrumEngine(config), config.getHopSize());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void build_matchesDirectAnalysisAndReopens() throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        int frames = SAMPLERATE;
+        byte[] bytes = wav(frames, 20000);
+        AnalysisCache cache = new AnalysisCache(dir);
+        CachedAnalysis analysis = build(cache, bytes);
+        int hop = config.getHopSize();
+        assertEquals((frames - config.getFrameSize()) / hop + 1, analysis.getFrameCount());
+        assertFalse(analysis.hasCorrelation());
+
+        //直接按同样的方式滑动计算，第0帧整帧，之后每帧hop个新采样
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(bytes)));
+        int[] all = new int[frames];
+        assertEquals(frames, reader.read(all, 0, frames, 0));
+        reader.close();
+        DoubleSpectrumEngine engine = new DoubleSpectrumEngine(config);
+        int[] window = new int[config.getFrameSize()];
+        float[] expected = new float[config.getBandCount()];
+        float[] actual = new float[config.getBandCount()];
+        for (int n = 0; n < analysis.getFrameCount(); n++) {
+            System.arraycopy(all, n * hop, window, 0, window.length);
+            engine.process(window, n == 0 ? window.length : hop, SAMPLERATE);
+            engine.getBandPowers(expected);
+            analysis.readPowers(n, actual);
+            assertArrayEquals("frame " + n, expected, actual, 0f);
+        }
+
+        WaveformPyramid overview = new WaveformPyramid(analysis.getWaveformBase());
+        analysis.loadWaveform(overview);
+        assertEquals(frames / AnalysisCache.WAVEFORM_BASE * AnalysisCache.WAVEFORM_BASE, overview.length());
+        int[] min = new int[1];
+        int[] max = new int[1];
+        overview.render(0, overview.length(), 1, min, max);
+        for (int i = 0; i < overview.length(); i++) {
+            assertTrue(min[0] <= all[i] && all[i] <= max[0]);
+        }
+
+        String key = analysis.getFile().getName().replace(AnalysisCache.SUFFIX, "");
+        CachedAnalysis again = cache.open(key);
+        assertNotNull(again);
+        assertEquals(analysis.getFrameCount(), again.getFrameCount());
+        assertNull(cache.open("missing"));
+    }
+
+    @Test
+    public void evict_removesLeastRecentlyUsed() throws Exception {
+        AnalysisCache cache = new AnalysisCache(dir, Long.MAX_VALUE);
+        CachedAnalysis first = build(cache, wav(SAMPLERATE / 2, 10000));
+        CachedAnalysis second = build(cache, wav(SAMPLERATE / 2, 20000));
+        CachedAnalysis third = build(cache, wav(SAMPLERATE / 2, 30000));
+        long now = System.currentTimeMillis();
+        first.getFile().setLastModified(now - 3000);
+        second.getFile().setLastModified(now - 1000);
+        third.getFile().setLastModified(now - 2000);
+        //只放得下两个，最久没用的第一个被删掉
+        cache.setMaxBytes(second.getFile().length() + third.getFile().length());
+        assertFalse(first.getFile().exists());
+        assertTrue(second.getFile().exists());
+        assertTrue(third.getFile().exists());
+        //已经映射的缓存删掉文件后还能读
+        first.readPowers(0, new float[first.getBandCount()]);
+    }
+
+    @Test
+    public void evict_removesStaleTempFiles() throws Exception {
+        AnalysisCache cache = new AnalysisCache(dir, Long.MAX_VALUE);
+        assertTrue(dir.isDirectory() || dir.mkdirs());
+        //崩溃时写了一半的
+        File stale = new File(dir, "crashed.tmp");
+        new FileOutputStream(stale).close();
+        stale.setLastModified(System.currentTimeMillis() - 2 * AnalysisCache.STALE_TEMP_MILLIS);
+        //可能是别的地方刚开始写的
+        File fresh = new File(dir, "fresh.tmp");
+        new FileOutputStream(fresh).close();
+        CachedAnalysis kept = build(cache, wav(SAMPLERATE / 2, 10000));
+        assertFalse(stale.exists());
+        assertTrue(fresh.exists());
+        assertTrue(kept.getFile().exists());
+    }
+}
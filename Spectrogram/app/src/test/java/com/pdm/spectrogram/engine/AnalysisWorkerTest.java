@@ -0,0 +1,218 @@
+package com.pdm.spectrogram.engine;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 分析线程算完后通过三缓冲发布结果
+ */
+public class AnalysisWorkerTest {
+    /**
+     * 记下每次process收到的新采样数
+     */
+    private static final class RecordingEngine implements SpectrumEngine {
+        final SpectrumEngine engine = new DoubleSpectrumEngine();
+        final List<Integer> newSamples = new ArrayList<Integer>();
+
+        @Override
+        public void process(int[] buf, double samplerate) {
+            process(buf, 0, getFrameSize(), samplerate);
+        }
+
+        @Override
+        public void process(int[] buf, int newSamples, double samplerate) {
+            process(buf, 0, newSamples, samplerate);
+        }
+
+        @Override
+        public synchronized void process(int[] buf, int offset, int newSamples, double samplerate) {
+            this.newSamples.add(newSamples);
+            engine.process(buf, offset, newSamples, samplerate);
+        }
+
+        @Override
+        public int getFrameSize() {
+            return engine.getFrameSize();
+        }
+
+        @Override
+        public int getBandCount() {
+            return engine.getBandCount();
+        }
+
+        @Override
+        public void getBandPowers(float[] out) {
+            engine.getBandPowers(out);
+        }
+
+        @Override
+        public double[] getBandFrequencies() {
+            return engine.getBandFrequencies();
+        }
+
+        synchronized int last() {
+            return newSamples.get(newSamples.size() - 1);
+        }
+    }
+
+    private static AnalysisWorker.Listener release(final Semaphore ready) {
+        return new AnalysisWorker.Listener() {
+            @Override
+            public void onFrameReady() {
+                ready.release();
+            }
+        };
+    }
+
+    @Test
+    public void submit_publishesLatestFrame() throws Exception {
+        final Semaphore ready = new Semaphore(0);
+        AnalysisWorker worker = new AnalysisWorker(new DoubleSpectrumEngine(), SpectrumEngine.SAMPLING_TOTAL,
+                new AnalysisWorker.Listener() {
+                    @Override
+                    public void onFrameReady() {
+                        ready.release();
+                    }
+                });
+        assertEquals(0, worker.latest().getSequence());
+        worker.start();
+
+        int[] samples = new int[SpectrumEngine.SAMPLING_TOTAL];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (int) (10000 * Math.sin(2 * Math.PI * 1000 * i / 44100.0));
+        }
+        worker.submit(samples, 44100, true);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        SpectrumFrame frame = worker.latest();
+        assertEquals(1, frame.getSequence());
+        assertTrue(frame.hasSpectrum());
+        float max = 0;
+        for (float power : frame.getPowers()) {
+            max = Math.max(max, power);
+        }
+        assertTrue(max > 0);
+
+        worker.submit(samples, 44100, false);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        frame = worker.latest();
+        assertEquals(2, frame.getSequence());
+        assertFalse(frame.hasSpectrum());
+        assertArrayEquals(samples, frame.getSamples());
+        // 没有新帧时还是同一帧
+        assertSame(frame, worker.latest());
+        worker.quit();
+    }
+
+    @Test
+    public void quitAndJoin_oldThreadStopsBeforeRestart() throws Exception {
+        final Semaphore ready = new Semaphore(0);
+        int frameSize = SpectrumEngine.SAMPLING_TOTAL;
+        AnalysisWorker worker = new AnalysisWorker(new DoubleSpectrumEngine(), frameSize,
+                new AnalysisWorker.Listener() {
+                    @Override
+                    public void onFrameReady() {
+                        ready.release();
+                    }
+                });
+        SampleRing ring = new SampleRing(4 * frameSize, frameSize);
+        worker.setSource(ring, 512, 44100);
+        worker.start();
+        int[] block = new int[frameSize];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (int) (10000 * Math.sin(2 * Math.PI * 1000 * i / 44100.0));
+        }
+        assertTrue(ring.write(block, 0, frameSize));
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+
+        worker.quitAndJoin();
+        //返回时旧线程已经结束，不会再读环形缓存，也不会再发布
+        long sequence = worker.latest().getSequence();
+        long read = ring.getReadPosition();
+        assertTrue(ring.write(block, 0, frameSize));
+        assertFalse(ready.tryAcquire(300, TimeUnit.MILLISECONDS));
+        assertEquals(read, ring.getReadPosition());
+        assertEquals(sequence, worker.latest().getSequence());
+
+        //马上可以换源重新开始
+        worker.setSource(ring, 512, 44100);
+        worker.start();
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(sequence + 1, worker.latest().getSequence());
+        worker.quitAndJoin();
+    }
+
+    @Test
+    public void submit_analyzesWholeFrameAfterSkippedFrames() throws Exception {
+        Semaphore ready = new Semaphore(0);
+        RecordingEngine engine = new RecordingEngine();
+        int frameSize = engine.getFrameSize();
+        int hop = 1024;
+        AnalysisWorker worker = new AnalysisWorker(engine, frameSize, release(ready));
+        worker.start();
+        int[] samples = new int[frameSize];
+
+        worker.submit(samples, hop, 44100, true);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        worker.submit(samples, hop, 44100, true);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(hop, engine.last());
+
+        //切到波形再切回来，引擎没看到中间的采样
+        worker.submit(samples, hop, 44100, false);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        worker.submit(samples, hop, 44100, true);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(frameSize, engine.last());
+        worker.submit(samples, hop, 44100, true);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(hop, engine.last());
+
+        //缓存里读出来的帧也不经过引擎
+        worker.submitPowers(new float[worker.getBandCount()], null, 44100);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        worker.submit(samples, hop, 44100, true);
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(frameSize, engine.last());
+        assertEquals(5, engine.newSamples.size());
+        worker.quitAndJoin();
+    }
+
+    @Test
+    public void ring_analyzesWholeWindowAfterWaveMode() throws Exception {
+        Semaphore ready = new Semaphore(0);
+        RecordingEngine engine = new RecordingEngine();
+        int frameSize = engine.getFrameSize();
+        int hop = 1024;
+        AnalysisWorker worker = new AnalysisWorker(engine, frameSize, release(ready));
+        SampleRing ring = new SampleRing(4 * frameSize, frameSize);
+        worker.setSource(ring, hop, 44100);
+        worker.start();
+        int[] block = new int[frameSize];
+
+        assertTrue(ring.write(block, 0, frameSize));
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertTrue(ring.write(block, 0, hop));
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(hop, engine.last());
+
+        //只画波形时引擎没看到这段采样，切回来要整个窗口重新算
+        worker.setAnalyze(false);
+        assertTrue(ring.write(block, 0, hop));
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        worker.setAnalyze(true);
+        assertTrue(ring.write(block, 0, hop));
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(frameSize, engine.last());
+        assertTrue(ring.write(block, 0, hop));
+        assertTrue(ready.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(hop, engine.last());
+        assertEquals(4, engine.newSamples.size());
+        worker.quitAndJoin();
+    }
+}
@@ -0,0 +1,32 @@
+package com.pdm.spectrogram.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LevelTableTest {
+    @Test
+    public void levelOfPower_matchesThresholdsWithoutSqrt() {
+        LevelTable table = new LevelTable(16, 64);
+        assertEquals(64, table.getRowCount());
+        assertEquals(0, table.levelOfPower(0));
+        assertEquals(0, table.levelOfPower(24.9));
+        // 5.0是第一个分界值
+        assertEquals(0, table.levelOfPower(25));
+        double step = Math.pow(table.getMaxValue() / 5.0, 1.0 / 64);
+        for (int k = 1; k < 64; k++) {
+            double threshold = 5.0 * Math.pow(step, k);
+            assertEquals(k - 1, table.levelOfPower(threshold * threshold * 0.999));
+            assertEquals(k, table.levelOfPower(threshold * threshold * 1.001));
+            assertEquals(k, table.level(threshold * 1.001));
+        }
+    }
+
+    @Test
+    public void level_clampsAboveTopThreshold() {
+        LevelTable table = new LevelTable(16, 32);
+        // 原来超过最后一个分界值会返回0，最响的时候柱子反而消失
+        assertEquals(31, table.level(32767));
+        assertEquals(31, table.levelOfPower(1e12));
+    }
+}
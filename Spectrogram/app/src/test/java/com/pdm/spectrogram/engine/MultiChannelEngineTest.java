@@ -0,0 +1,150 @@
+package com.pdm.spectrogram.engine;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class MultiChannelEngineTest {
+    private static final double SAMPLERATE = 44100;
+
+    private static int tone(double frequency, int i) {
+        return (int) Math.round(10000 * Math.sin(2 * Math.PI * frequency * i / SAMPLERATE));
+    }
+
+    @Test
+    public void process_matchesOneEnginePerChannel() throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        MultiChannelEngine engine = new MultiChannelEngine(config, 3);
+        int frames = config.getFrameSize();
+        assertEquals(3 * frames, engine.getFrameSize());
+        assertEquals(3 * engine.getBandsPerGroup(), engine.getBandCount());
+        double[] frequencies = {100, 1000, 5000};
+        int[] interleaved = new int[3 * frames];
+        int[][] planes = new int[3][frames];
+        for (int i = 0; i < frames; i++) {
+            for (int c = 0; c < 3; c++) {
+                planes[c][i] = tone(frequencies[c], i);
+                interleaved[3 * i + c] = planes[c][i];
+            }
+        }
+        engine.process(interleaved, SAMPLERATE);
+        float[] actual = new float[engine.getBandCount()];
+        engine.getBandPowers(actual);
+        float[] expected = new float[engine.getBandsPerGroup()];
+        for (int c = 0; c < 3; c++) {
+            SpectrumEngine mono = new DoubleSpectrumEngine(config);
+            mono.process(planes[c], SAMPLERATE);
+            mono.getBandPowers(expected);
+            for (int b = 0; b < expected.length; b++) {
+                assertEquals(expected[b], actual[c * expected.length + b], 1e-3f * expected[b] + 1e-3f);
+            }
+        }
+        assertFalse(engine.hasCorrelation());
+        engine.shutdown();
+    }
+
+    @Test
+    public void process_stereoCorrelationFollowsPhase() throws Exception {
+        MultiChannelEngine engine = new MultiChannelEngine(new AnalysisConfig(), 2);
+        int frames = engine.getFrameSize() / 2;
+        int[] buf = new int[2 * frames];
+        float[] correlation = new float[engine.getBandsPerGroup()];
+        // 相同为1，反相为-1
+        int[] signs = {1, -1};
+        for (int sign : signs) {
+            for (int i = 0; i < frames; i++) {
+                buf[2 * i] = tone(1000, i);
+                buf[2 * i + 1] = sign * tone(1000, i);
+            }
+            engine.process(buf, SAMPLERATE);
+            engine.getCorrelation(correlation);
+            int band = (int) Math.round(BandMapper.indexOf(1000, engine.getBandsPerGroup()));
+            assertEquals(sign, correlation[band], 0.01);
+        }
+        // 反相时中置几乎没有能量，侧边就是原来的音
+        engine.setOutput(MultiChannelEngine.Output.MID_SIDE);
+        float[] powers = new float[engine.getBandCount()];
+        engine.getBandPowers(powers);
+        int band = (int) Math.round(BandMapper.indexOf(1000, engine.getBandsPerGroup()));
+        assertTrue(powers[band] < powers[engine.getBandsPerGroup() + band] * 1e-3);
+        engine.shutdown();
+    }
+
+    @Test
+    public void process_midSideDoesNotOverflowAtFullScale32Bit() throws Exception {
+        MultiChannelEngine engine = new MultiChannelEngine(new AnalysisConfig(), 2);
+        engine.setOutput(MultiChannelEngine.Output.MID_SIDE);
+        int frames = engine.getFrameSize() / 2;
+        int[] buf = new int[2 * frames];
+        int bands = engine.getBandsPerGroup();
+        float[] channels = new float[2 * bands];
+        float[] midSide = new float[2 * bands];
+        //同相时中置等于原来的音，反相时侧边等于原来的音，另一组没有能量
+        int[] signs = {1, -1};
+        for (int sign : signs) {
+            for (int i = 0; i < frames; i++) {
+                //32位满幅度，浮点的±1.0也解码成这个范围
+                int x = (int) (Integer.MAX_VALUE * Math.sin(2 * Math.PI * 1000 * i / SAMPLERATE));
+                buf[2 * i] = x;
+                buf[2 * i + 1] = sign * x;
+            }
+            engine.process(buf, SAMPLERATE);
+            engine.setOutput(MultiChannelEngine.Output.CHANNELS);
+            engine.getBandPowers(channels);
+            engine.setOutput(MultiChannelEngine.Output.MID_SIDE);
+            engine.getBandPowers(midSide);
+            int same = sign == 1 ? 0 : bands;
+            int other = sign == 1 ? bands : 0;
+            for (int b = 0; b < bands; b++) {
+                assertEquals(channels[b], midSide[same + b], 1e-6f * channels[b]);
+                assertTrue(midSide[other + b] <= channels[b] * 1e-6f);
+            }
+        }
+        engine.shutdown();
+    }
+
+    @Test
+    public void process_helperThreadsMatchCallingThreadAndDoNotAllocate() throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        //单核机器上也要走辅助线程
+        MultiChannelEngine parallel = new MultiChannelEngine(config, 2, false, 3);
+        MultiChannelEngine serial = new MultiChannelEngine(config, 2, false, 1);
+        int frameSize = parallel.getFrameSize();
+        int hop = 2 * 1024;
+        int[] buf = new int[frameSize + 200 * hop];
+        for (int i = 0; i < buf.length / 2; i++) {
+            buf[2 * i] = tone(1000, i);
+            buf[2 * i + 1] = tone(3000, i);
+        }
+        float[] expected = new float[serial.getBandCount()];
+        float[] actual = new float[parallel.getBandCount()];
+        float[] expectedCorrelation = new float[serial.getBandsPerGroup()];
+        float[] actualCorrelation = new float[parallel.getBandsPerGroup()];
+        for (int j = 0; j < 100; j++) {
+            int newSamples = j == 0 ? frameSize : hop;
+            serial.process(buf, j * hop, newSamples, SAMPLERATE);
+            parallel.process(buf, j * hop, newSamples, SAMPLERATE);
+            serial.getBandPowers(expected);
+            parallel.getBandPowers(actual);
+            assertArrayEquals(expected, actual, 0);
+            serial.getCorrelation(expectedCorrelation);
+            parallel.getCorrelation(actualCorrelation);
+            assertArrayEquals(expectedCorrelation, actualCorrelation, 0);
+        }
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) threads;
+        long id = Thread.currentThread().getId();
+        long before = hotspot.getThreadAllocatedBytes(id);
+        for (int j = 100; j < 200; j++) {
+            parallel.process(buf, j * hop, hop, SAMPLERATE);
+        }
+        //每帧建Future时100帧要几十KB，这里只剩读计数本身的零头
+        assertTrue(hotspot.getThreadAllocatedBytes(id) - before < 1024);
+        serial.shutdown();
+        parallel.shutdown();
+    }
+}
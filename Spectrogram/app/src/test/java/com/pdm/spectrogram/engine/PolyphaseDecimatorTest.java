@@ -0,0 +1,59 @@
+package com.pdm.spectrogram.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PolyphaseDecimatorTest {
+    private static final double SAMPLERATE = 44100;
+
+    private static int[] sine(double frequency, double amplitude, int length) {
+        int[] buf = new int[length];
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = (int) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLERATE));
+        }
+        return buf;
+    }
+
+    // 跳过开头滤波器还没填满的输出
+    private static double peak(PolyphaseDecimator decimator, int outputSize) {
+        double[] out = decimator.getOutput();
+        int start = decimator.getOutputStart();
+        double peak = 0;
+        for (int i = PolyphaseDecimator.TAPS_PER_PHASE; i < outputSize; i++) {
+            peak = Math.max(peak, Math.abs(out[start + i]));
+        }
+        return peak;
+    }
+
+    @Test
+    public void process_passesLowAndRejectsAboveNyquist() {
+        int outputSize = 512;
+        int[] low = sine(200, 10000, 8 * outputSize);
+        PolyphaseDecimator decimator = new PolyphaseDecimator(8, outputSize);
+        decimator.process(low, 0, low.length);
+        assertEquals(10000, peak(decimator, outputSize), 200);
+
+        // 8分频后的奈奎斯特频率约为2756Hz，4000Hz不能混叠进来
+        int[] high = sine(4000, 10000, 8 * outputSize);
+        decimator.reset();
+        decimator.process(high, 0, high.length);
+        assertTrue(peak(decimator, outputSize) < 100);
+    }
+
+    @Test
+    public void process_streamingMatchesOneBlock() {
+        int outputSize = 256;
+        int[] buf = sine(300, 8000, 8 * outputSize);
+        PolyphaseDecimator block = new PolyphaseDecimator(8, outputSize);
+        block.process(buf, 0, buf.length);
+        PolyphaseDecimator stream = new PolyphaseDecimator(8, outputSize);
+        for (int offset = 0; offset < buf.length; offset += 1000) {
+            stream.process(buf, offset, Math.min(1000, buf.length - offset));
+        }
+        for (int i = 0; i < outputSize; i++) {
+            assertEquals(block.getOutput()[block.getOutputStart() + i],
+                    stream.getOutput()[stream.getOutputStart() + i], 1e-9);
+        }
+    }
+}
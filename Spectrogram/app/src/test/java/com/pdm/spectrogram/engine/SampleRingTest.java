@@ -0,0 +1,94 @@
+package com.pdm.spectrogram.engine;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 窗口跨过数组末尾时也要连续，生产者不能覆盖消费者的窗口
+ */
+public class SampleRingTest {
+    private static void assertWindow(SampleRing ring) {
+        int[] data = ring.array();
+        int offset = ring.windowOffset();
+        long first = ring.getReadPosition() - ring.getWindow();
+        for (int i = 0; i < ring.getWindow(); i++) {
+            assertEquals("position " + (first + i), (int) (first + i), data[offset + i]);
+        }
+    }
+
+    @Test
+    public void window_isContiguousAcrossWrap() throws Exception {
+        SampleRing ring = new SampleRing(0, 100);
+        assertEquals(256, ring.getCapacity());
+        int next = 0;
+        int[] chunk = new int[37];
+        for (int round = 0; round < 200; round++) {
+            while (ring.free() >= chunk.length) {
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = next++;
+                }
+                assertTrue(ring.write(chunk, 0, chunk.length));
+            }
+            long fresh = ring.available();
+            assertTrue(ring.getReadPosition() + fresh >= ring.getWindow());
+            ring.advance(fresh);
+            assertWindow(ring);
+        }
+        assertEquals(0, ring.getDropped());
+    }
+
+    @Test
+    public void write_dropsWholeChunkWhenFull() throws Exception {
+        SampleRing ring = new SampleRing(0, 64);
+        short[] chunk = new short[100];
+        assertTrue(ring.write(chunk, 0, 100));
+        assertFalse(ring.write(chunk, 0, 100));
+        assertEquals(100, ring.getDropped());
+        assertEquals(100, ring.getWritePosition());
+        //消费者往前移之后，窗口以前的部分可以再写
+        ring.advance(100);
+        assertEquals(ring.getCapacity() - 64, ring.free());
+    }
+
+    @Test
+    public void concurrentProducer_neverTearsWindow() throws Exception {
+        final SampleRing ring = new SampleRing(4096, 1024);
+        final int total = 2000000;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int[] chunk = new int[256];
+                for (int next = 0; next < total; ) {
+                    if (ring.free() < chunk.length) {
+                        Thread.yield();
+                        continue;
+                    }
+                    for (int i = 0; i < chunk.length; i++) {
+                        chunk[i] = next++;
+                    }
+                    ring.write(chunk, 0, chunk.length);
+                }
+            }
+        });
+        producer.start();
+        try {
+            assertTrue(ring.await(ring.getWindow(), 5000000000L));
+            while (ring.getReadPosition() < total) {
+                assertTrue(ring.await(1, 5000000000L));
+                ring.advance(ring.available());
+                assertWindow(ring);
+            }
+        } catch (Throwable e) {
+            failure.set(e);
+        }
+        producer.join();
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(0, ring.getDropped());
+    }
+}
@@ -0,0 +1,69 @@
+package com.pdm.spectrogram.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SlidingDftEngineTest {
+    private static final double SAMPLERATE = 44100;
+
+    private static int[] sine(double frequency, double amplitude, int length) {
+        int[] buf = new int[length];
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = (int) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLERATE));
+        }
+        return buf;
+    }
+
+    @Test
+    public void update_tracksToneAtBandCentre() {
+        SlidingDftEngine engine = new SlidingDftEngine();
+        float[] powers = new float[engine.getBandCount()];
+        int[] bands = {8, 20, 28};
+        for (int band : bands) {
+            double frequency = engine.getBandFrequencies()[band];
+            int[] buf = sine(frequency, 10000, SlidingDftEngine.MAX_WINDOW + 4096);
+            engine.process(new int[engine.getFrameSize()], SAMPLERATE);
+            // 一小段一小段地送，窗填满之后每个频段都是最新的
+            for (int offset = 0; offset < buf.length; offset += 100) {
+                engine.update(buf, offset, Math.min(100, buf.length - offset), SAMPLERATE);
+            }
+            engine.getBandPowers(powers);
+            int loudest = 0;
+            for (int i = 1; i < powers.length; i++) {
+                if (powers[i] > powers[loudest]) {
+                    loudest = i;
+                }
+            }
+            assertEquals(frequency + "Hz", band, loudest);
+            assertEquals(frequency + "Hz", 10000, Math.sqrt(powers[band]), 300);
+        }
+    }
+
+    @Test
+    public void process_incrementalMatchesFullFrame() {
+        SlidingDftEngine full = new SlidingDftEngine();
+        SlidingDftEngine incremental = new SlidingDftEngine();
+        int frameSize = full.getFrameSize();
+        int hop = 1470;
+        int[] signal = sine(440, 8000, frameSize + 3 * hop);
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] += (i * 7919) % 2001 - 1000;
+        }
+        int[] window = new int[frameSize];
+        System.arraycopy(signal, 0, window, 0, frameSize);
+        incremental.process(window, SAMPLERATE);
+        for (int k = 1; k <= 3; k++) {
+            System.arraycopy(signal, k * hop, window, 0, frameSize);
+            incremental.process(window, hop, SAMPLERATE);
+        }
+        full.update(signal, 0, signal.length, SAMPLERATE);
+        float[] expected = new float[full.getBandCount()];
+        float[] actual = new float[incremental.getBandCount()];
+        full.getBandPowers(expected);
+        incremental.getBandPowers(actual);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Math.sqrt(expected[i]), Math.sqrt(actual[i]), 1e-3 * Math.sqrt(expected[i]) + 1e-3);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.pdm.spectrogram.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 频谱引擎在JVM上的测试，不需要设备
+ */
+public class SpectrumEngineTest {
+    private static final double SAMPLERATE = 44100;
+
+    private static int[] sine(double frequency, double amplitude) {
+        return sine(frequency, amplitude, SpectrumEngine.SAMPLING_TOTAL);
+    }
+
+    private static int[] sine(double frequency, double amplitude, int length) {
+        int[] buf = new int[length];
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = (int) Math.round(amplitude * Math.sin(2 * Math.PI * frequency * i / SAMPLERATE));
+        }
+        return buf;
+    }
+
+    private static int loudestBand(SpectrumEngine engine) {
+        float[] powers = new float[engine.getBandCount()];
+        engine.getBandPowers(powers);
+        int loudest = 0;
+        for (int i = 1; i < powers.length; i++) {
+            if (powers[i] > powers[loudest]) {
+                loudest = i;
+            }
+        }
+        return loudest;
+    }
+
+    @Test
+    public void process_loudestBandFollowsTone() throws Exception {
+        SpectrumEngine engine = new DoubleSpectrumEngine();
+        double[] frequencies = {100, 1000, 5000};
+        for (double frequency : frequencies) {
+            engine.process(sine(frequency, 10000), SAMPLERATE);
+            double bandFrequency = engine.getBandFrequencies()[loudestBand(engine)];
+            assertTrue(frequency + "Hz -> " + bandFrequency + "Hz",
+                    Math.abs(Math.log(bandFrequency / frequency)) < Math.log(1.3));
+        }
+    }
+
+    @Test
+    public void process_floatMatchesDouble() throws Exception {
+        SpectrumEngine doubleEngine = new DoubleSpectrumEngine();
+        SpectrumEngine floatEngine = new FloatSpectrumEngine();
+        int[] buf = sine(440, 12000);
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] += (i * 7919) % 2001 - 1000;
+        }
+        doubleEngine.process(buf, SAMPLERATE);
+        floatEngine.process(buf, SAMPLERATE);
+        float[] expected = new float[doubleEngine.getBandCount()];
+        float[] actual = new float[floatEngine.getBandCount()];
+        doubleEngine.getBandPowers(expected);
+        floatEngine.getBandPowers(actual);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(Math.sqrt(expected[i]), Math.sqrt(actual[i]), 0.5 + Math.sqrt(expected[i]) * 1e-3);
+        }
+    }
+
+    @Test
+    public void process_honoursConfig() throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        config.setFftSize(4096);
+        config.setDecimation(4);
+        config.setWindow(WindowFunction.BLACKMAN_HARRIS);
+        SpectrumEngine engine = new FloatSpectrumEngine(config);
+        assertEquals(4096 * 4, engine.getFrameSize());
+        // 用正好落在频段中心的音，不受相邻频段分界的影响
+        int[] bands = {5, 22};
+        for (int band : bands) {
+            double frequency = 20 * Math.pow(1000, (double) band / SpectrumEngine.SPECTROGRAM_COUNT);
+            engine.process(sine(frequency, 10000, engine.getFrameSize()), SAMPLERATE);
+            assertEquals(frequency + "Hz", band, loudestBand(engine));
+        }
+    }
+
+    @Test
+    public void process_bandPowerMatchesToneAmplitude() throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        config.setBandCount(120);
+        SpectrumEngine engine = new DoubleSpectrumEngine(config);
+        assertEquals(120, engine.getBandCount());
+        float[] powers = new float[engine.getBandCount()];
+        // 第10段比一个频点还窄(从分频后的频谱取)，和相邻的频段分不开，只看幅度
+        double frequency = engine.getBandFrequencies()[10];
+        engine.process(sine(frequency, 10000), SAMPLERATE);
+        engine.getBandPowers(powers);
+        assertTrue(frequency + "Hz", Math.abs(loudestBand(engine) - 10) <= 1);
+        assertEquals(frequency + "Hz", 10000, Math.sqrt(powers[10]), 1500);
+        // 第100段覆盖很多个频点，整段的能量加起来还原成幅度
+        frequency = engine.getBandFrequencies()[100];
+        engine.process(sine(frequency, 10000), SAMPLERATE);
+        engine.getBandPowers(powers);
+        assertEquals(frequency + "Hz", 100, loudestBand(engine));
+        assertEquals(frequency + "Hz", 10000, Math.sqrt(powers[100]), 500);
+    }
+
+    @Test
+    public void process_offsetMatchesCopiedFrame() throws Exception {
+        SpectrumEngine direct = new DoubleSpectrumEngine();
+        SpectrumEngine shifted = new DoubleSpectrumEngine();
+        int hop = 735;
+        int[] signal = sine(440, 12000, direct.getFrameSize() + 3 * hop);
+        int[] frame = new int[direct.getFrameSize()];
+        float[] expected = new float[direct.getBandCount()];
+        float[] actual = new float[direct.getBandCount()];
+        for (int n = 0; n < 4; n++) {
+            int newSamples = n == 0 ? frame.length : hop;
+            System.arraycopy(signal, n * hop, frame, 0, frame.length);
+            direct.process(frame, newSamples, 44100);
+            shifted.process(signal, n * hop, newSamples, 44100);
+            direct.getBandPowers(expected);
+            shifted.getBandPowers(actual);
+            assertArrayEquals(expected, actual, 0f);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void config_rejectsOutOfRangeFftSize() throws Exception {
+        new AnalysisConfig().setFftSize(32768);
+    }
+}
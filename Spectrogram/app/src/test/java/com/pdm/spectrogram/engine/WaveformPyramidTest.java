@@ -0,0 +1,84 @@
+package com.pdm.spectrogram.engine;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 每列的最小、最大值必须包含这一列所有的采样，放大到单个采样时要和原始采样一样
+ */
+public class WaveformPyramidTest {
+    private static int[] noise(int n) {
+        Random random = new Random(7);
+        int[] samples = new int[n];
+        for (int i = 0; i < n; i++) {
+            samples[i] = random.nextInt(20000) - 10000;
+        }
+        //几个孤立的尖峰，隔点取样会漏掉
+        samples[12345] = 32767;
+        samples[54321] = -32768;
+        return samples;
+    }
+
+    private static void assertCovers(int[] samples, long start, long end, int columns, int[] min, int[] max) {
+        double step = (double) (end - start) / columns;
+        for (int c = 0; c < columns; c++) {
+            long s = start + (long) Math.floor(c * step);
+            long e = Math.max(s + 1, start + (long) Math.floor((c + 1) * step));
+            for (long i = s; i < e; i++) {
+                assertTrue("column " + c, min[c] <= samples[(int) i] && samples[(int) i] <= max[c]);
+            }
+        }
+    }
+
+    @Test
+    public void render_neverMissesPeaks() throws Exception {
+        int[] samples = noise(100003);
+        WaveformPyramid pyramid = new WaveformPyramid();
+        //分几次追加，最后一段没有对齐
+        pyramid.append(samples, 0, 40000);
+        pyramid.append(samples, 40000, samples.length - 40000);
+        int columns = 997;
+        int[] min = new int[columns];
+        int[] max = new int[columns];
+        pyramid.render(0, samples.length, columns, min, max);
+        assertCovers(samples, 0, samples.length, columns, min, max);
+        int top = Integer.MIN_VALUE, bottom = Integer.MAX_VALUE;
+        for (int c = 0; c < columns; c++) {
+            top = Math.max(top, max[c]);
+            bottom = Math.min(bottom, min[c]);
+        }
+        assertEquals(32767, top);
+        assertEquals(-32768, bottom);
+
+        pyramid.render(5000, 5500, columns, min, max);
+        assertCovers(samples, 5000, 5500, columns, min, max);
+    }
+
+    @Test
+    public void render_singleSampleColumnsAreExact() throws Exception {
+        int[] samples = noise(70000);
+        WaveformPyramid pyramid = new WaveformPyramid();
+        pyramid.append(samples, 0, samples.length);
+        int[] min = new int[64];
+        int[] max = new int[64];
+        pyramid.render(12300, 12364, 64, min, max);
+        for (int c = 0; c < 64; c++) {
+            assertEquals(samples[12300 + c], min[c]);
+            assertEquals(samples[12300 + c], max[c]);
+        }
+    }
+
+    @Test
+    public void render_coarseBaseStillCoversTail() throws Exception {
+        int[] samples = noise(100003);
+        WaveformPyramid pyramid = new WaveformPyramid(64);
+        pyramid.append(samples, 0, samples.length);
+        int[] min = new int[300];
+        int[] max = new int[300];
+        pyramid.render(samples.length - 3000, samples.length, 300, min, max);
+        assertCovers(samples, samples.length - 3000, samples.length, 300, min, max);
+    }
+}
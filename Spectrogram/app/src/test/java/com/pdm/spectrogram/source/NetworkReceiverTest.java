@@ -0,0 +1,262 @@
+package com.pdm.spectrogram.source;
+
+import com.pdm.spectrogram.engine.SampleRing;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用本机回环的发送端测试：多路TCP同时收、UDP丢包计数、PAUSE时不丢数据、DROP时整帧丢掉
+ */
+public class NetworkReceiverTest {
+    private static final int SAMPLERATE = 48000;
+    //每帧的采样数
+    private static final int FRAME = 480;
+
+    private NetworkReceiver receiver;
+
+    /**
+     * 每一路用一个新的环形缓存，结束时计数
+     */
+    private static final class Streams implements NetworkReceiver.Listener {
+        final Map<Integer, SampleRing> rings = new ConcurrentHashMap<Integer, SampleRing>();
+        final Map<Integer, NetworkStream> streams = new ConcurrentHashMap<Integer, NetworkStream>();
+        final CountDownLatch closed;
+        final int capacity;
+
+        Streams(int count, int capacity) {
+            closed = new CountDownLatch(count);
+            this.capacity = capacity;
+        }
+
+        @Override
+        public SampleRing onStreamOpened(NetworkStream stream) {
+            SampleRing ring = new SampleRing(capacity, 1024);
+            rings.put(stream.getId(), ring);
+            streams.put(stream.getId(), stream);
+            return ring;
+        }
+
+        @Override
+        public void onStreamClosed(NetworkStream stream) {
+            closed.countDown();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (receiver != null) {
+            receiver.stop();
+        }
+    }
+
+    /**
+     * 第sequence帧：16位单声道，第i个采样的值是它在这一路里的序号
+     */
+    private static void putFrame(ByteBuffer out, int id, int sequence) {
+        PcmStreamProtocol.putHeader(out, id, sequence, SAMPLERATE, 1, 16, 2 * FRAME);
+        for (int i = 0; i < FRAME; i++) {
+            out.putShort((short) (sequence * FRAME + i));
+        }
+    }
+
+    private static void sendTcp(int port, int id, int frames) throws Exception {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+        ByteBuffer out = ByteBuffer.allocateDirect(PcmStreamProtocol.HEADER_SIZE + 2 * FRAME)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int s = 0; s < frames; s++) {
+            out.clear();
+            putFrame(out, id, s);
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+        channel.close();
+    }
+
+    private static void assertSequence(SampleRing ring, long first, int count) {
+        int[] data = ring.array();
+        int offset = ring.windowOffset() + ring.getWindow() - count;
+        for (int i = 0; i < count; i++) {
+            assertEquals((short) (first + i), data[offset + i]);
+        }
+    }
+
+    @Test
+    public void tcp_manyStreamsArriveIntact() throws Exception {
+        final int count = 16;
+        final int frames = 100;
+        Streams listener = new Streams(count, 65536);
+        receiver = new NetworkReceiver(listener);
+        final int port = receiver.bindTcp(0);
+        receiver.start();
+        Thread[] senders = new Thread[count];
+        for (int k = 0; k < count; k++) {
+            final int id = k;
+            senders[k] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sendTcp(port, id, frames);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            senders[k].start();
+        }
+        for (Thread t : senders) {
+            t.join();
+        }
+        assertTrue(listener.closed.await(10, TimeUnit.SECONDS));
+        assertEquals(count, listener.rings.size());
+        for (int k = 0; k < count; k++) {
+            SampleRing ring = listener.rings.get(k);
+            NetworkStream stream = listener.streams.get(k);
+            assertTrue(stream.isTcp());
+            assertEquals(SAMPLERATE, stream.getSampleRate());
+            assertEquals(frames, stream.getFrames());
+            assertEquals(0, ring.getDropped());
+            assertEquals(frames * FRAME, ring.getWritePosition());
+            //窗口移到最后检查最后一个窗口的内容
+            ring.advance(ring.available());
+            assertSequence(ring, frames * FRAME - ring.getWindow(), ring.getWindow());
+        }
+    }
+
+    @Test
+    public void udp_gapIsCountedAsDropped() throws Exception {
+        Streams listener = new Streams(1, 65536);
+        receiver = new NetworkReceiver(listener);
+        int port = receiver.bindUdp(0);
+        receiver.start();
+        DatagramChannel channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress("127.0.0.1", port));
+        ByteBuffer out = ByteBuffer.allocate(PcmStreamProtocol.HEADER_SIZE + 2 * FRAME).order(ByteOrder.LITTLE_ENDIAN);
+        //第2帧丢了，第1帧重复了一次
+        for (int s : new int[]{0, 1, 1, 3}) {
+            out.clear();
+            putFrame(out, 7, s);
+            out.flip();
+            channel.write(out);
+        }
+        channel.close();
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((listener.streams.get(7) == null || listener.streams.get(7).getFrames() < 3)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        NetworkStream stream = listener.streams.get(7);
+        SampleRing ring = listener.rings.get(7);
+        assertFalse(stream.isTcp());
+        assertEquals(3, stream.getFrames());
+        assertEquals(1, stream.getLost());
+        assertEquals(FRAME, ring.getDropped());
+        assertEquals(3 * FRAME, ring.getWritePosition());
+        ring.advance(ring.available());
+        assertSequence(ring, 3 * FRAME, FRAME);
+    }
+
+    @Test
+    public void udp_senderRestartStartsOverFromItsSequence() throws Exception {
+        Streams listener = new Streams(1, 65536);
+        receiver = new NetworkReceiver(listener);
+        int port = receiver.bindUdp(0);
+        receiver.start();
+        DatagramChannel channel = DatagramChannel.open();
+        channel.connect(new InetSocketAddress("127.0.0.1", port));
+        ByteBuffer out = ByteBuffer.allocate(PcmStreamProtocol.HEADER_SIZE + 2 * FRAME).order(ByteOrder.LITTLE_ENDIAN);
+        //发了很久的发送端重启，序号从0开始；第1001帧迟到了一点，还是扔掉
+        for (int s : new int[]{1000, 1001, 1002, 1001, 0, 1}) {
+            out.clear();
+            putFrame(out, 7, s);
+            out.flip();
+            channel.write(out);
+        }
+        channel.close();
+        long deadline = System.currentTimeMillis() + 10000;
+        while ((listener.streams.get(7) == null || listener.streams.get(7).getFrames() < 5)
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        NetworkStream stream = listener.streams.get(7);
+        SampleRing ring = listener.rings.get(7);
+        assertEquals(5, stream.getFrames());
+        assertEquals(0, stream.getLost());
+        assertEquals(FRAME, ring.getDropped());
+        assertEquals(5 * FRAME, ring.getWritePosition());
+        ring.advance(ring.available());
+        assertSequence(ring, 0, 2 * FRAME);
+    }
+
+    @Test
+    public void tcp_pauseAppliesBackPressureWithoutLoss() throws Exception {
+        final int frames = 500;
+        Streams listener = new Streams(1, 4096);
+        receiver = new NetworkReceiver(listener);
+        receiver.setOverflow(NetworkReceiver.Overflow.PAUSE, 10000);
+        final int port = receiver.bindTcp(0);
+        receiver.start();
+        Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sendTcp(port, 1, frames);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        sender.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (listener.rings.get(1) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        SampleRing ring = listener.rings.get(1);
+        //慢慢读，每次不超过一个窗口，逐个采样检查
+        long read = 0;
+        while (read < frames * FRAME) {
+            assertTrue(ring.await(1, 10000000000L));
+            int n = (int) Math.min(ring.available(), ring.getWindow());
+            ring.advance(n);
+            assertSequence(ring, read, n);
+            read += n;
+            Thread.sleep(0, 100000);
+        }
+        sender.join();
+        assertEquals(0, ring.getDropped());
+        assertEquals(0, listener.streams.get(1).getDropped());
+    }
+
+    @Test
+    public void tcp_dropDiscardsWholeFrames() throws Exception {
+        final int frames = 100;
+        Streams listener = new Streams(1, 4096);
+        receiver = new NetworkReceiver(listener);
+        int port = receiver.bindTcp(0);
+        receiver.start();
+        //没有消费者，放满以后的帧全部丢掉，连接照常读到结束
+        sendTcp(port, 2, frames);
+        assertTrue(listener.closed.await(10, TimeUnit.SECONDS));
+        SampleRing ring = listener.rings.get(2);
+        NetworkStream stream = listener.streams.get(2);
+        int kept = ring.getCapacity() / FRAME;
+        assertEquals(frames, stream.getFrames());
+        assertEquals(kept * FRAME, ring.getWritePosition());
+        assertEquals((frames - kept) * FRAME, stream.getDropped());
+        assertEquals(stream.getDropped(), ring.getDropped());
+    }
+}
@@ -0,0 +1,65 @@
+package com.pdm.spectrogram.source;
+
+import com.pdm.spectrogram.engine.AnalysisWorker;
+import com.pdm.spectrogram.engine.BandMapper;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.engine.SampleRing;
+import com.pdm.spectrogram.engine.SpectrumEngine;
+import com.pdm.spectrogram.engine.SpectrumFrame;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 不用安卓，回放PCM经过环形缓存到分析线程，整条路跑通
+ */
+public class ReplaySourceTest {
+    @Test
+    public void replay_feedsAnalysisThroughRing() throws Exception {
+        double samplerate = 44100;
+        int[] pcm = new int[(int) samplerate * 2];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (int) (10000 * Math.sin(2 * Math.PI * 1000 * i / samplerate));
+        }
+        final AtomicInteger frames = new AtomicInteger();
+        SpectrumEngine engine = new DoubleSpectrumEngine();
+        AnalysisWorker worker = new AnalysisWorker(engine, engine.getFrameSize(), new AnalysisWorker.Listener() {
+            @Override
+            public void onFrameReady() {
+                frames.incrementAndGet();
+            }
+        });
+        SampleRing ring = new SampleRing(4 * engine.getFrameSize(), engine.getFrameSize());
+        worker.setSource(ring, 512, samplerate);
+        worker.start();
+        ReplaySource source = new ReplaySource(pcm, 1, samplerate, 16, false, false);
+        source.start(ring);
+        try {
+            assertTrue(source.awaitFinished(10000));
+            //分析线程把最后的采样也读完
+            long deadline = System.currentTimeMillis() + 10000;
+            while (ring.available() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(pcm.length, ring.getReadPosition());
+        } finally {
+            source.stop();
+            worker.quit();
+        }
+        assertEquals(0, ring.getDropped());
+        assertTrue(frames.get() > 0);
+        SpectrumFrame frame = worker.latest();
+        assertTrue(frame.hasSpectrum());
+        float[] powers = frame.getPowers();
+        int loudest = 0;
+        for (int i = 1; i < powers.length; i++) {
+            if (powers[i] > powers[loudest]) {
+                loudest = i;
+            }
+        }
+        assertEquals((int) Math.round(BandMapper.indexOf(1000, powers.length)), loudest);
+    }
+}
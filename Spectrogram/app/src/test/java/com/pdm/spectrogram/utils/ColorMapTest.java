@@ -0,0 +1,24 @@
+package com.pdm.spectrogram.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 查表得到的级数要和直接按分贝数四舍五入的一样
+ */
+public class ColorMapTest {
+    @Test
+    public void index_matchesRoundedDecibels() throws Exception {
+        double fullScale = 32768;
+        ColorMap map = new ColorMap(fullScale);
+        for (double db = -120; db <= 10; db += 0.37) {
+            double power = fullScale * fullScale * Math.pow(10, db / 10);
+            long expected = Math.round((db - ColorMap.DEFAULT_MIN_DB) / -ColorMap.DEFAULT_MIN_DB * 255);
+            assertEquals("db=" + db, Math.max(0, Math.min(255, expected)), map.index(power));
+        }
+        assertEquals(0, map.index(0));
+        assertEquals(0xff000000, map.color(0));
+        assertEquals(0xffffffff, map.color(fullScale * fullScale));
+    }
+}
@@ -0,0 +1,72 @@
+package com.pdm.spectrogram.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * FFTPlan与直接DFT的结果对比
+ */
+public class FFTPlanTest {
+    @Test
+    public void transform_matchesDft() throws Exception {
+        Random random = new Random(1);
+        for (int n = 2; n <= 1024; n <<= 1) {
+            double[] real = new double[n];
+            double[] imag = new double[n];
+            for (int i = 0; i < n; i++) {
+                real[i] = random.nextDouble() * 2 - 1;
+                imag[i] = random.nextDouble() * 2 - 1;
+            }
+            double[] dftReal = new double[n];
+            double[] dftImag = new double[n];
+            for (int k = 0; k < n; k++) {
+                for (int t = 0; t < n; t++) {
+                    double angle = -2 * Math.PI * k * t / n;
+                    dftReal[k] += real[t] * Math.cos(angle) - imag[t] * Math.sin(angle);
+                    dftImag[k] += real[t] * Math.sin(angle) + imag[t] * Math.cos(angle);
+                }
+            }
+            FFTPlan.get(n).transform(real, imag);
+            assertArrayEquals(dftReal, real, 1e-9 * n);
+            assertArrayEquals(dftImag, imag, 1e-9 * n);
+        }
+    }
+
+    @Test
+    public void get_cachesBySize() throws Exception {
+        assertSame(FFTPlan.get(256), FFTPlan.get(256));
+        assertNotSame(FFTPlan.get(256), FFTPlan.get(512));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void get_rejectsNonPowerOfTwo() throws Exception {
+        FFTPlan.get(1000);
+    }
+
+    @Test
+    public void realForward_matchesComplexTransform() throws Exception {
+        Random random = new Random(2);
+        for (int n = 2; n <= 1024; n <<= 1) {
+            double[] real = new double[n];
+            double[] imag = new double[n];
+            double[] packedReal = new double[n / 2 + 1];
+            double[] packedImag = new double[n / 2 + 1];
+            for (int i = 0; i < n; i++) {
+                real[i] = random.nextInt(65536) - 32768;
+            }
+            for (int i = 0; i < n / 2; i++) {
+                packedReal[i] = real[2 * i];
+                packedImag[i] = real[2 * i + 1];
+            }
+            FFTPlan.get(n).transform(real, imag);
+            FFTPlan.get(n).realForward(packedReal, packedImag);
+            for (int k = 0; k <= n / 2; k++) {
+                assertEquals(real[k], packedReal[k], 1e-6 * n);
+                assertEquals(imag[k], packedImag[k], 1e-6 * n);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.pdm.spectrogram.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * 帧时钟的采样位置不能累积误差
+ */
+public class FrameClockTest {
+    @Test
+    public void samplePosition_hasNoDrift() throws Exception {
+        //144Hz的屏幕、48kHz的音频，每帧333.33...个采样，逐帧累加步长的话误差会越积越大
+        FrameClock clock = new FrameClock(144, 48000);
+        long position = 0;
+        for (long frame = 1; frame <= 144 * 3600; frame++) {
+            position += clock.samplePosition(frame) - clock.samplePosition(frame - 1);
+            //和整数算的round(frame * 48000 / 144)比，每一帧都不能差
+            long expected = (frame * 48000 * 2 + 144) / (144 * 2);
+            assertEquals(expected, position);
+        }
+        assertEquals(48000L * 3600, position);
+    }
+
+    @Test
+    public void awaitNextFrame_advancesAtLeastOneFrame() throws Exception {
+        FrameClock clock = new FrameClock(200, 48000);
+        long total = 0;
+        for (int i = 0; i < 5; i++) {
+            long hop = clock.awaitNextFrame();
+            assertTrue(hop >= 240);
+            total += hop;
+        }
+        assertEquals(clock.samplePosition(clock.getFrame()), total);
+    }
+}
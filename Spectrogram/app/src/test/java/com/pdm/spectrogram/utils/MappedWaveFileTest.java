@@ -0,0 +1,64 @@
+package com.pdm.spectrogram.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * 映射方式读取wav
+ */
+public class MappedWaveFileTest {
+    @Test
+    public void read_randomAccessMatchesSamples() throws Exception {
+        int frames = 50000;
+        File file = WavFixture.file("mapped", WaveFileReaderTest.wav16(frames, 2));
+
+        MappedWaveFile wave = new MappedWaveFile(file);
+        assertEquals(44100, wave.getSampleRate());
+        assertEquals(2, wave.getNumChannels());
+        assertEquals(frames, wave.getFrameCount());
+
+        ShortBuffer samples = wave.getSamples();
+        assertEquals(WaveFileReaderTest.sample(123, 1), samples.get(123 * 2 + 1));
+
+        int[] window = new int[8192];
+        int[] starts = {40000, 0, 17, frames - 100};
+        for (int start : starts) {
+            int n = wave.read(start, window, 0, window.length, 1);
+            assertEquals(Math.min(window.length, frames - start), n);
+            for (int i = 0; i < n; i++) {
+                assertEquals(WaveFileReaderTest.sample(start + i, 1), window[i]);
+            }
+        }
+        wave.close();
+    }
+
+    @Test
+    public void readInterleaved_decodes24BitExtensible() throws Exception {
+        int frames = 4000;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < frames; i++) {
+            for (int ch = 0; ch < 2; ch++) {
+                WavFixture.putInt(bytes, WaveFileReaderTest.sample(i, ch) * 256, 3);
+            }
+        }
+        File file = WavFixture.file("mapped24",
+                WavFixture.wav(PcmDecoder.FORMAT_PCM, 24, 2, 44100, true, bytes.toByteArray()));
+
+        MappedWaveFile wave = new MappedWaveFile(file);
+        assertEquals(24, wave.getBitPerSample());
+        assertEquals(frames, wave.getFrameCount());
+        assertNull(wave.getSamples());
+        int[] window = new int[2 * 100];
+        assertEquals(100, wave.readInterleaved(2000, window, 0, 100));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(WaveFileReaderTest.sample(2000 + i, 0) * 256, window[2 * i]);
+            assertEquals(WaveFileReaderTest.sample(2000 + i, 1) * 256, window[2 * i + 1]);
+        }
+        wave.close();
+    }
+}
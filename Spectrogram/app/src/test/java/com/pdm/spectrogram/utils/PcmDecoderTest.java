@@ -0,0 +1,72 @@
+package com.pdm.spectrogram.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * 每种格式的边界值，以及按步长只取一个声道
+ */
+public class PcmDecoderTest {
+    private static int[] decode(PcmDecoder decoder, byte[] bytes) {
+        int[] out = new int[bytes.length / decoder.getBytesPerSample()];
+        decoder.decode(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), 0, decoder.getBytesPerSample(),
+                out, 0, out.length);
+        return out;
+    }
+
+    @Test
+    public void unsigned8_isCentered() {
+        assertArrayEquals(new int[]{-128, 0, 127}, decode(PcmDecoder.forBits(8), new byte[]{0, (byte) 128, (byte) 255}));
+    }
+
+    @Test
+    public void signed16_masksLowByte() {
+        byte[] bytes = {(byte) 0xff, 0x00, (byte) 0x80, (byte) 0xff, 0x00, (byte) 0x80, (byte) 0xff, 0x7f};
+        assertArrayEquals(new int[]{255, -128, -32768, 32767}, decode(PcmDecoder.forBits(16), bytes));
+    }
+
+    @Test
+    public void signed24_extendsSign() {
+        byte[] bytes = {(byte) 0xff, (byte) 0xff, 0x7f, 0x00, 0x00, (byte) 0x80, (byte) 0xff, (byte) 0xff, (byte) 0xff,
+                (byte) 0x80, 0x00, 0x00};
+        assertArrayEquals(new int[]{8388607, -8388608, -1, 128}, decode(PcmDecoder.forBits(24), bytes));
+    }
+
+    @Test
+    public void signed32_and_float32() {
+        ByteBuffer buffer = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(Integer.MIN_VALUE).putInt(123456789).putInt(-1).putInt(Integer.MAX_VALUE);
+        assertArrayEquals(new int[]{Integer.MIN_VALUE, 123456789, -1, Integer.MAX_VALUE},
+                decode(PcmDecoder.forBits(32), buffer.array()));
+        buffer.clear();
+        buffer.putFloat(0.5f).putFloat(-1f).putFloat(2f).putFloat(Float.NaN);
+        PcmDecoder decoder = PcmDecoder.forFormat(PcmDecoder.FORMAT_FLOAT, 32);
+        //超过满幅度的截掉
+        assertArrayEquals(new int[]{1 << 30, Integer.MIN_VALUE, Integer.MAX_VALUE, 0}, decode(decoder, buffer.array()));
+        assertEquals(2147483648.0, decoder.getFullScale(), 0);
+    }
+
+    @Test
+    public void stride_picksOneChannel() {
+        //3声道24位，取第2个声道
+        ByteBuffer buffer = ByteBuffer.allocate(9 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 4; i++) {
+            for (int ch = 0; ch < 3; ch++) {
+                int v = (i + 1) * (ch == 1 ? -1000 : 7);
+                buffer.put((byte) v).put((byte) (v >> 8)).put((byte) (v >> 16));
+            }
+        }
+        int[] out = new int[5];
+        PcmDecoder.forBits(24).decode(buffer, 3, 9, out, 1, 4);
+        assertArrayEquals(new int[]{0, -1000, -2000, -3000, -4000}, out);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedFormat_throws() {
+        PcmDecoder.forFormat(PcmDecoder.FORMAT_FLOAT, 64);
+    }
+}
@@ -0,0 +1,183 @@
+package com.pdm.spectrogram.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import static com.pdm.spectrogram.utils.WavFixture.putFmt;
+import static com.pdm.spectrogram.utils.WavFixture.putInt;
+import static com.pdm.spectrogram.utils.WavFixture.putString;
+import static com.pdm.spectrogram.utils.WaveFileReaderTest.sample;
+import static org.junit.Assert.*;
+
+/**
+ * wav块表：跳过不认识的块、奇数长度补齐、RF64
+ */
+public class RiffChunkIndexTest {
+    /**
+     * 记下真正读了多少字节，跳过的不算
+     */
+    private static class CountingStream extends FilterInputStream {
+        long read = 0;
+
+        CountingStream(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            read += b < 0 ? 0 : 1;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            read += Math.max(0, n);
+            return n;
+        }
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String id, int size) {
+        putString(out, id);
+        putInt(out, size, 4);
+        for (int i = 0; i < size + (size & 1); i++) {
+            out.write(0x55);
+        }
+    }
+
+    /**
+     * fmt前有JUNK、fmt带cbSize共18个字节、data前有奇数长度的bext和LIST，data后还有一个LIST
+     */
+    private static byte[] decorated(int frames, int junk) {
+        byte[] data = WavFixture.pcm(WaveFileReaderTest.samples(frames, 2), 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        putString(out, "RIFF");
+        putInt(out, 0, 4);
+        putString(out, "WAVE");
+        chunk(out, "JUNK", junk);
+        putFmt(out, 18, PcmDecoder.FORMAT_PCM, 2, 48000, 16);
+        putInt(out, 0, 2);
+        chunk(out, "bext", 7);
+        chunk(out, "LIST", 26);
+        putString(out, "data");
+        putInt(out, data.length, 4);
+        out.write(data, 0, data.length);
+        chunk(out, "LIST", 9);
+        byte[] bytes = out.toByteArray();
+        bytes[4] = (byte) (bytes.length - 8);
+        bytes[5] = (byte) ((bytes.length - 8) >> 8);
+        bytes[6] = (byte) ((bytes.length - 8) >> 16);
+        return bytes;
+    }
+
+    /**
+     * RF64：块头里的长度都是0xFFFFFFFF，真正的长度在ds64里
+     */
+    private static byte[] rf64(int frames) {
+        byte[] data = WavFixture.pcm(WaveFileReaderTest.samples(frames, 1), 2);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        putString(out, "RF64");
+        putInt(out, 0xFFFFFFFFL, 4);
+        putString(out, "WAVE");
+        putString(out, "ds64");
+        putInt(out, 28, 4);
+        putInt(out, 4 + 36 + 24 + 8 + data.length, 8);
+        putInt(out, data.length, 8);
+        putInt(out, frames, 8);
+        putInt(out, 0, 4);
+        putFmt(out, 16, PcmDecoder.FORMAT_PCM, 1, 96000, 16);
+        putString(out, "data");
+        putInt(out, 0xFFFFFFFFL, 4);
+        out.write(data, 0, data.length);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void read_stream_skipsUnknownChunksWithoutReadingThem() throws Exception {
+        int junk = 1 << 20;
+        CountingStream in = new CountingStream(decorated(100, junk));
+        RiffChunkIndex index = RiffChunkIndex.read(in);
+        assertEquals(48000, index.getSampleRate());
+        assertEquals(2, index.getNumChannels());
+        assertEquals(100, index.getFrameCount());
+        //JUNK、bext、LIST的内容一个字节也没读
+        assertTrue("read " + in.read, in.read < 100);
+        //流停在第一个采样
+        assertEquals(sample(0, 0), (short) (in.read() | (in.read() << 8)));
+        //流只走到data块
+        assertEquals(5, index.getChunkCount());
+        assertEquals(RiffChunkIndex.DATA, index.getId(4));
+    }
+
+    @Test
+    public void read_channel_indexesChunksAfterData() throws Exception {
+        byte[] bytes = decorated(100, 3);
+        FileChannel channel = new RandomAccessFile(WavFixture.file("chunks", bytes), "r").getChannel();
+        RiffChunkIndex index = RiffChunkIndex.read(channel, 0, -1);
+        channel.close();
+        assertEquals(6, index.getChunkCount());
+        //奇数长度的块后面补了一个字节
+        assertEquals(12 + 8 + 4 + 8, index.getOffset(index.find(RiffChunkIndex.FMT)));
+        int bext = index.find(RiffChunkIndex.fourcc("bext"));
+        assertEquals(7, index.getSize(bext));
+        assertEquals(index.getOffset(bext) + 8 + 8, index.getOffset(bext + 1));
+        assertEquals(RiffChunkIndex.fourcc("LIST"), index.getId(5));
+        assertEquals(9, index.getSize(5));
+        assertEquals(bytes.length - 10, index.getOffset(5));
+        assertEquals(index.getDataOffset() + 40 * 4, index.getFramePosition(40));
+    }
+
+    @Test
+    public void read_rf64_takesSizesFromDs64() throws Exception {
+        byte[] bytes = rf64(500);
+        RiffChunkIndex index = RiffChunkIndex.read(new ByteArrayInputStream(bytes));
+        assertTrue(index.isRf64());
+        assertEquals(96000, index.getSampleRate());
+        assertEquals(500, index.getFrameCount());
+        assertEquals(1000, index.getDataSize());
+
+        File file = WavFixture.file("chunks", bytes);
+        MappedWaveFile wave = new MappedWaveFile(file);
+        assertEquals(500, wave.getFrameCount());
+        int[] window = new int[500];
+        assertEquals(500, wave.read(0, window, 0, 500, 0));
+        for (int i = 0; i < 500; i++) {
+            assertEquals(sample(i, 0), window[i]);
+        }
+        wave.close();
+    }
+
+    @Test
+    public void waveFileReader_readsDecoratedFile() throws Exception {
+        int frames = 3000;
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(decorated(frames, 101))));
+        assertEquals(48000, reader.getSampleRate());
+        assertEquals(frames, reader.getDataLen());
+        int[] window = new int[2 * frames];
+        assertEquals(frames, reader.readInterleaved(window, 0, frames));
+        for (int i = 0; i < frames; i++) {
+            assertEquals(sample(i, 0), window[2 * i]);
+            assertEquals(sample(i, 1), window[2 * i + 1]);
+        }
+        reader.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void read_withoutData_fails() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        putString(out, "RIFF");
+        putInt(out, 4 + 8 + 16, 4);
+        putString(out, "WAVE");
+        putFmt(out, 16, PcmDecoder.FORMAT_PCM, 1, 8000, 16);
+        RiffChunkIndex.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
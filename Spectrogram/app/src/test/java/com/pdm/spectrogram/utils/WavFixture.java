@@ -0,0 +1,99 @@
+package com.pdm.spectrogram.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 测试用的wav生成器，app和headless的测试共用(headless的build.gradle把这个文件加进了它的测试源码)
+ */
+public final class WavFixture {
+    private WavFixture() {
+    }
+
+    /**
+     * 16位整数PCM
+     *
+     * @param samples 按声道交错的采样
+     */
+    public static byte[] wav16(int samplerate, int channels, int[] samples) {
+        return wav(PcmDecoder.FORMAT_PCM, 16, channels, samplerate, false, pcm(samples, 2));
+    }
+
+    /**
+     * 任意格式的wav，data是已经编好的采样字节；extensible为true时写40字节的WAVE_FORMAT_EXTENSIBLE格式块
+     */
+    public static byte[] wav(int format, int bits, int channels, int samplerate, boolean extensible, byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int fmtSize = extensible ? 40 : 16;
+        putString(out, "RIFF");
+        putInt(out, 20 + fmtSize + data.length, 4);
+        putString(out, "WAVE");
+        putFmt(out, fmtSize, extensible ? PcmDecoder.FORMAT_EXTENSIBLE : format, channels, samplerate, bits);
+        if (extensible) {
+            putInt(out, 22, 2);
+            putInt(out, bits, 2);
+            putInt(out, 0, 4);
+            //子格式GUID，只有前两个字节有用
+            putInt(out, format, 2);
+            for (int i = 0; i < 14; i++) {
+                out.write(0);
+            }
+        }
+        putString(out, "data");
+        putInt(out, data.length, 4);
+        out.write(data, 0, data.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * fmt块的块头和前16个字节，size大于16时调用者接着写后面的部分
+     */
+    public static void putFmt(ByteArrayOutputStream out, int size, int format, int channels, int samplerate,
+                              int bits) {
+        putString(out, "fmt ");
+        putInt(out, size, 4);
+        putInt(out, format, 2);
+        putInt(out, channels, 2);
+        putInt(out, samplerate, 4);
+        putInt(out, samplerate * channels * bits / 8, 4);
+        putInt(out, channels * bits / 8, 2);
+        putInt(out, bits, 2);
+    }
+
+    /**
+     * 每个采样按bytes个字节小端编码
+     */
+    public static byte[] pcm(int[] samples, int bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int sample : samples) {
+            putInt(out, sample, bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 写到一个退出时删除的临时文件
+     */
+    public static File file(String prefix, byte[] bytes) throws IOException {
+        File file = File.createTempFile(prefix, ".wav");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes);
+        out.close();
+        return file;
+    }
+
+    public static void putString(ByteArrayOutputStream out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            out.write(s.charAt(i));
+        }
+    }
+
+    public static void putInt(ByteArrayOutputStream out, long value, int len) {
+        for (int i = 0; i < len; i++) {
+            out.write((int) (value >> (8 * i)));
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.pdm.spectrogram.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * 用内存里生成的wav数据测试解析
+ */
+public class WaveFileReaderTest {
+    private static final int SAMPLERATE = 44100;
+
+    /**
+     * 按声道交错的采样，第ch个声道第i个采样为sample(i, ch)
+     */
+    static int[] samples(int frames, int channels) {
+        int[] samples = new int[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            for (int ch = 0; ch < channels; ch++) {
+                samples[i * channels + ch] = sample(i, ch);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * 16位的wav，采样见samples
+     */
+    static byte[] wav16(int frames, int channels) {
+        return WavFixture.wav16(SAMPLERATE, channels, samples(frames, channels));
+    }
+
+    static int sample(int i, int ch) {
+        return (int) (30000 * Math.sin(0.01 * i * (ch + 1))) - ch;
+    }
+
+    @Test
+    public void open_readsHeader() throws Exception {
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(wav16(1000, 2))));
+        assertEquals(SAMPLERATE, reader.getSampleRate());
+        assertEquals(2, reader.getNumChannels());
+        assertEquals(16, reader.getBitPerSample());
+        assertEquals(1000, reader.getDataLen());
+        reader.close();
+    }
+
+    @Test
+    public void read_streamsOneChannelInWindows() throws Exception {
+        int frames = 20000;
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(wav16(frames, 2))));
+        int[] window = new int[3000];
+        int position = 0;
+        int n;
+        while ((n = reader.read(window, 0, window.length, 1)) > 0) {
+            for (int i = 0; i < n; i++) {
+                assertEquals(sample(position + i, 1), window[i]);
+            }
+            position += n;
+        }
+        assertEquals(frames, position);
+        reader.close();
+    }
+
+    @Test
+    public void readInterleaved_keepsAllChannels() throws Exception {
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(wav16(10000, 2))));
+        int[] window = new int[2 * 3000];
+        int position = 0;
+        int n;
+        while ((n = reader.readInterleaved(window, 0, 3000)) > 0) {
+            for (int i = 0; i < n; i++) {
+                assertEquals(sample(position + i, 0), window[2 * i]);
+                assertEquals(sample(position + i, 1), window[2 * i + 1]);
+            }
+            position += n;
+        }
+        assertEquals(10000, position);
+        reader.close();
+    }
+
+    @Test
+    public void read_stopsAtTruncatedData() throws Exception {
+        //头里写了5000帧，实际只有1000帧加半帧
+        byte[] full = wav16(5000, 2);
+        byte[] truncated = new byte[44 + 1000 * 4 + 2];
+        System.arraycopy(full, 0, truncated, 0, truncated.length);
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(truncated)));
+        assertEquals(5000, reader.getDataLen());
+        int[] window = new int[5000];
+        assertEquals(1000, reader.read(window, 0, 5000, 1));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(sample(i, 1), window[i]);
+        }
+        assertEquals(0, reader.read(window, 0, 5000, 1));
+        reader.close();
+
+        reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(truncated)));
+        int[] frames = new int[2 * 5000];
+        assertEquals(1000, reader.readInterleaved(frames, 0, 5000));
+        assertEquals(sample(999, 0), frames[2 * 999]);
+        assertEquals(0, reader.readInterleaved(frames, 0, 5000));
+        reader.close();
+    }
+
+    @Test
+    public void initReader_decodesNegativeLowBytes() throws Exception {
+        int frames = 1000;
+        int[][] data = new WaveFileReader().initReader(new ByteArrayInputStream(wav16(frames, 2)));
+        for (int i = 0; i < frames; i++) {
+            assertEquals(sample(i, 0), data[0][i]);
+            assertEquals(sample(i, 1), data[1][i]);
+        }
+    }
+
+    @Test
+    public void read_decodes24BitExtensible() throws Exception {
+        int frames = 5000;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < frames; i++) {
+            for (int ch = 0; ch < 2; ch++) {
+                WavFixture.putInt(bytes, sample(i, ch) * 256 + ch, 3);
+            }
+        }
+        byte[] wav = WavFixture.wav(PcmDecoder.FORMAT_PCM, 24, 2, SAMPLERATE, true, bytes.toByteArray());
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(wav)));
+        assertEquals(PcmDecoder.FORMAT_PCM, reader.getAudioFormat());
+        assertEquals(24, reader.getBitPerSample());
+        assertEquals(frames, reader.getDataLen());
+        int[] window = new int[frames];
+        assertEquals(frames, reader.read(window, 0, frames, 1));
+        for (int i = 0; i < frames; i++) {
+            assertEquals(sample(i, 1) * 256 + 1, window[i]);
+        }
+        reader.close();
+    }
+
+    @Test
+    public void readInterleaved_decodesFloat() throws Exception {
+        int frames = 3000;
+        ByteBuffer bytes = ByteBuffer.allocate(frames * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            bytes.putFloat(sample(i, 0) / 32768f);
+        }
+        byte[] wav = WavFixture.wav(PcmDecoder.FORMAT_FLOAT, 32, 1, SAMPLERATE, false, bytes.array());
+        WaveFileReader reader = new WaveFileReader();
+        assertTrue(reader.open(new ByteArrayInputStream(wav)));
+        assertEquals(PcmDecoder.FORMAT_FLOAT, reader.getAudioFormat());
+        int[] window = new int[frames];
+        assertEquals(frames, reader.readInterleaved(window, 0, frames));
+        for (int i = 0; i < frames; i++) {
+            //浮点按32位整数的满幅度解码
+            assertEquals(sample(i, 0) * 65536, window[i]);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,50 @@
+package com.pdm.spectrogram.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单声道、立体声(另外还有中置和侧边)、5.1每帧的耗时，多核上应该差不多
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MultiChannelEngineBenchmark {
+    private static final double SAMPLERATE = 44100;
+
+    @Param({"1", "2", "6"})
+    public int channels;
+
+    private int[] frame;
+    private MultiChannelEngine engine;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        engine = new MultiChannelEngine(new AnalysisConfig(), channels);
+        frame = new int[engine.getFrameSize()];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = random.nextInt(20000) - 10000;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public void frame() {
+        engine.process(frame, SAMPLERATE);
+    }
+}
@@ -0,0 +1,110 @@
+package com.pdm.spectrogram.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同FFT点数下一帧(fftSize * 8个采样点)的整体耗时，以及其中8分频滤波和电频查表两部分单独的耗时
+ * 放在engine包下是为了能调到包内可见的decimate
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpectrumEngineBenchmark {
+    private static final double SAMPLERATE = 44100;
+    //30帧每秒播放时每帧新进来的采样数
+    private static final int HOP = (int) (SAMPLERATE / 30);
+
+    @Param({"256", "1024", "4096"})
+    public int fftSize;
+
+    //1/3倍频程和1/12倍频程
+    @Param({"31", "120"})
+    public int bandCount;
+
+    private int[] frame;
+    private DoubleSpectrumEngine doubleEngine;
+    private FloatSpectrumEngine floatEngine;
+    private SlidingDftEngine slidingEngine;
+    private LevelTable levelTable;
+    private float[] powers;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        AnalysisConfig config = new AnalysisConfig();
+        config.setFftSize(fftSize);
+        config.setBandCount(bandCount);
+        frame = new int[config.getFrameSize()];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (int) (8000 * Math.sin(2 * Math.PI * 440 * i / SAMPLERATE))
+                    + random.nextInt(2000) - 1000;
+        }
+        doubleEngine = new DoubleSpectrumEngine(config);
+        floatEngine = new FloatSpectrumEngine(config);
+        slidingEngine = new SlidingDftEngine(config);
+        slidingEngine.process(frame, SAMPLERATE);
+        levelTable = new LevelTable(16, 32);
+        // 每一级都取到
+        powers = new float[SpectrumEngine.SPECTROGRAM_COUNT];
+        for (int i = 0; i < powers.length; i++) {
+            double model = 5.0 * Math.pow(32767 / 5.0, (i + 0.5) / powers.length);
+            powers[i] = (float) (model * model);
+        }
+    }
+
+    @Benchmark
+    public void doubleEngineFrame() {
+        doubleEngine.process(frame, SAMPLERATE);
+    }
+
+    @Benchmark
+    public void floatEngineFrame() {
+        floatEngine.process(frame, SAMPLERATE);
+    }
+
+    /**
+     * 滑动DFT每帧只处理新进来的HOP个采样，和上面整帧FFT比较
+     */
+    @Benchmark
+    public void slidingDftHop() {
+        slidingEngine.process(frame, Math.min(HOP, frame.length), SAMPLERATE);
+    }
+
+    /**
+     * 8分频抽取滤波，整帧重新滤波(跳转或第一帧)
+     */
+    @Benchmark
+    public void polyphaseDecimationFullFrame() {
+        doubleEngine.decimate(frame, 0, frame.length);
+    }
+
+    /**
+     * 8分频抽取滤波，连续播放时每帧只滤新进来的HOP个采样
+     */
+    @Benchmark
+    public void polyphaseDecimationStreaming() {
+        doubleEngine.decimate(frame, 0, Math.min(HOP, frame.length));
+    }
+
+    /**
+     * drawGridTypeSpectrogram里每一帧31个频段的电频查表，能量直接二分查找平方后的分界值，不开方
+     */
+    @Benchmark
+    public int levelLookup() {
+        int sum = 0;
+        for (int i = 0; i < powers.length; i++) {
+            sum += levelTable.levelOfPower(powers[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,54 @@
+package com.pdm.spectrogram.engine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一屏波形的耗时：显示整段(一分钟的音频)和只显示几百个采样的特写应该差不多，只和列数有关
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WaveformPyramidBenchmark {
+    private static final int LENGTH = 44100 * 60;
+
+    @Param({"1080", "2400"})
+    public int columns;
+
+    @Param({"600", "2646000"})
+    public int span;
+
+    private WaveformPyramid pyramid;
+    private int[] min;
+    private int[] max;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        int[] block = new int[44100];
+        pyramid = new WaveformPyramid();
+        for (int done = 0; done < LENGTH; done += block.length) {
+            for (int i = 0; i < block.length; i++) {
+                block[i] = random.nextInt(20000) - 10000;
+            }
+            pyramid.append(block, 0, block.length);
+        }
+        min = new int[columns];
+        max = new int[columns];
+    }
+
+    @Benchmark
+    public int render() {
+        pyramid.render(LENGTH - span, LENGTH, columns, min, max);
+        return max[columns - 1];
+    }
+}
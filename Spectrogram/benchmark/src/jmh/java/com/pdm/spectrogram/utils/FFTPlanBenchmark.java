@@ -0,0 +1,82 @@
+package com.pdm.spectrogram.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不同点数下FFT的耗时(ns/帧)和吞吐量(帧/秒)，每次操作都先把输入拷回工作数组
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FFTPlanBenchmark {
+    @Param({"256", "1024", "4096", "16384"})
+    public int size;
+
+    private double[] input;
+    private double[] real;
+    private double[] imag;
+    private float[] floatInput;
+    private float[] floatReal;
+    private float[] floatImag;
+    private FFTPlan plan;
+    private FloatFFTPlan floatPlan;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        input = new double[size];
+        floatInput = new float[size];
+        for (int i = 0; i < size; i++) {
+            input[i] = random.nextInt(65536) - 32768;
+            floatInput[i] = (float) input[i];
+        }
+        real = new double[size];
+        imag = new double[size];
+        floatReal = new float[size];
+        floatImag = new float[size];
+        plan = FFTPlan.get(size);
+        floatPlan = FloatFFTPlan.get(size);
+    }
+
+    /**
+     * 实数输入按复数做n点FFT，虚部补0，即原来Spectrogram.fft的做法
+     */
+    @Benchmark
+    public double complexTransform() {
+        System.arraycopy(input, 0, real, 0, size);
+        Arrays.fill(imag, 0);
+        plan.transform(real, imag);
+        return real[1];
+    }
+
+    @Benchmark
+    public double realForward() {
+        for (int i = 0; i < size / 2; i++) {
+            real[i] = input[2 * i];
+            imag[i] = input[2 * i + 1];
+        }
+        plan.realForward(real, imag);
+        return real[1];
+    }
+
+    @Benchmark
+    public float floatRealForward() {
+        for (int i = 0; i < size / 2; i++) {
+            floatReal[i] = floatInput[2 * i];
+            floatImag[i] = floatInput[2 * i + 1];
+        }
+        floatPlan.realForward(floatReal, floatImag);
+        return floatReal[1];
+    }
+}
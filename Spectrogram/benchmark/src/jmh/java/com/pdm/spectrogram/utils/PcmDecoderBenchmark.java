@@ -0,0 +1,60 @@
+package com.pdm.spectrogram.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每种格式解码一块BLOCK字节的耗时，MB/s = BLOCK / 每次的微秒数
+ * direct为true时从direct ByteBuffer(映射的文件、网络)解码，否则从包装的byte[](流式读取)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PcmDecoderBenchmark {
+    private static final int BLOCK = 64 * 1024;
+
+    @Param({"8", "16", "24", "32", "float"})
+    public String format;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    private PcmDecoder decoder;
+    private ByteBuffer src;
+    private int[] dst;
+
+    @Setup
+    public void setup() {
+        decoder = "float".equals(format) ? PcmDecoder.forFormat(PcmDecoder.FORMAT_FLOAT, 32)
+                : PcmDecoder.forBits(Integer.parseInt(format));
+        src = (direct ? ByteBuffer.allocateDirect(BLOCK) : ByteBuffer.allocate(BLOCK)).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(42);
+        if ("float".equals(format)) {
+            while (src.hasRemaining()) {
+                src.putFloat(random.nextFloat() * 2 - 1);
+            }
+        } else {
+            while (src.hasRemaining()) {
+                src.put((byte) random.nextInt());
+            }
+        }
+        dst = new int[BLOCK / decoder.getBytesPerSample()];
+    }
+
+    @Benchmark
+    public int[] decode() {
+        decoder.decode(src, 0, decoder.getBytesPerSample(), dst, 0, dst.length);
+        return dst;
+    }
+}
@@ -0,0 +1,77 @@
+package com.pdm.spectrogram.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 用内存里生成的16位wav数据测解析速度，不受磁盘影响
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WaveFileReaderBenchmark {
+    private static final int SAMPLERATE = 44100;
+
+    @Param({"1", "10"})
+    public int seconds;
+
+    @Param({"1", "2"})
+    public int channels;
+
+    private byte[] wav;
+
+    @Setup
+    public void setup() {
+        int frames = SAMPLERATE * seconds;
+        int dataSize = frames * channels * 2;
+        wav = new byte[44 + dataSize];
+        int p = 0;
+        p = putString(wav, p, "RIFF");
+        p = putInt(wav, p, 36 + dataSize, 4);
+        p = putString(wav, p, "WAVE");
+        p = putString(wav, p, "fmt ");
+        p = putInt(wav, p, 16, 4);
+        p = putInt(wav, p, 1, 2);
+        p = putInt(wav, p, channels, 2);
+        p = putInt(wav, p, SAMPLERATE, 4);
+        p = putInt(wav, p, SAMPLERATE * channels * 2, 4);
+        p = putInt(wav, p, channels * 2, 2);
+        p = putInt(wav, p, 16, 2);
+        p = putString(wav, p, "data");
+        p = putInt(wav, p, dataSize, 4);
+        for (int i = 0; i < frames; i++) {
+            int sample = (int) (12000 * Math.sin(2 * Math.PI * 440 * i / SAMPLERATE));
+            for (int ch = 0; ch < channels; ch++) {
+                p = putInt(wav, p, sample, 2);
+            }
+        }
+    }
+
+    private static int putString(byte[] buf, int p, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buf[p++] = (byte) s.charAt(i);
+        }
+        return p;
+    }
+
+    private static int putInt(byte[] buf, int p, int value, int len) {
+        for (int i = 0; i < len; i++) {
+            buf[p++] = (byte) (value >> (8 * i));
+        }
+        return p;
+    }
+
+    @Benchmark
+    public int[][] initReader() {
+        return new WaveFileReader().initReader(new ByteArrayInputStream(wav));
+    }
+}
@@ -0,0 +1,272 @@
+package com.pdm.spectrogram.headless;
+
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.engine.SpectrumEngine;
+import com.pdm.spectrogram.engine.WindowFunction;
+import com.pdm.spectrogram.utils.WaveFileReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 离线批处理：把整个wav文件按重叠的帧切开，多核并行算每一帧的频段能量，输出
+ * name.f32(原始float矩阵，小端，按帧排列，每帧getBandCount()个能量)、name.txt(矩阵的说明)和name.png(频谱图)
+ * 读文件是流式的：读线程每次读一块(连续的FRAMES_PER_BLOCK帧)交给线程池，块的个数固定，
+ * 内存只和线程数有关，和文件长度无关；每块算完直接按位置写进矩阵文件，不用等前面的块
+ */
+public class BatchRenderer {
+    //每块的帧数，块内的帧连续处理，分频滤波器只需要处理新进来的采样
+    static final int FRAMES_PER_BLOCK = 64;
+    //频谱图的最大宽度
+    static final int DEFAULT_MAX_WIDTH = 4096;
+
+    private final AnalysisConfig config;
+    private final int channel;
+    private final int threads;
+    private final int maxWidth;
+
+    /**
+     * 连续的一段帧，读线程填采样，计算线程填结果，循环复用
+     */
+    private final class Block {
+        final int[] samples;
+        final int[] frame;
+        final float[] powers;
+        final float[] row;
+        final ByteBuffer bytes;
+        long firstFrame;
+        int frames;
+
+        Block(int bands) {
+            samples = new int[config.getFrameSize() + (FRAMES_PER_BLOCK - 1) * config.getHopSize()];
+            frame = new int[config.getFrameSize()];
+            powers = new float[FRAMES_PER_BLOCK * bands];
+            row = new float[bands];
+            bytes = ByteBuffer.allocate(powers.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * @param config   分析参数，帧之间前进getHopSize()个采样
+     * @param channel  分析哪个声道
+     * @param threads  计算线程数
+     * @param maxWidth 频谱图的最大宽度
+     */
+    public BatchRenderer(AnalysisConfig config, int channel, int threads, int maxWidth) {
+        this.config = config;
+        this.channel = channel;
+        this.threads = Math.max(1, threads);
+        this.maxWidth = maxWidth;
+    }
+
+    /**
+     * 处理整个文件
+     *
+     * @param output 输出文件名的前缀，会生成.f32、.txt和.png三个文件
+     * @return 处理的帧数
+     */
+    public long render(File input, String output) throws IOException, InterruptedException {
+        final WaveFileReader reader = new WaveFileReader();
+        if (!reader.open(new FileInputStream(input))) {
+            throw new IOException("unsupported wav file: " + input);
+        }
+        try {
+            return render(reader, output);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private long render(WaveFileReader reader, String output) throws IOException, InterruptedException {
+        final double samplerate = reader.getSampleRate();
+        final int frameSize = config.getFrameSize();
+        final int hop = config.getHopSize();
+        final int bands = config.getBandCount();
+        final int overlap = frameSize - hop;
+        long total = reader.getDataLen();
+        final long frameCount = total < frameSize ? 0 : (total - frameSize) / hop + 1;
+
+        final SpectrogramImage image = new SpectrogramImage((int) Math.min(frameCount, maxWidth), bands, frameCount);
+        final ArrayBlockingQueue<SpectrumEngine> engines = new ArrayBlockingQueue<SpectrumEngine>(threads);
+        for (int i = 0; i < threads; i++) {
+            engines.add(new DoubleSpectrumEngine(config));
+        }
+        //块的个数限制了内存，读线程在计算线程后面最多领先一倍
+        final ArrayBlockingQueue<Block> free = new ArrayBlockingQueue<Block>(2 * threads);
+        for (int i = 0; i < 2 * threads; i++) {
+            free.add(new Block(bands));
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        RandomAccessFile matrix = new RandomAccessFile(output + ".f32", "rw");
+        final FileChannel channel = matrix.getChannel();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long done = 0;
+        try {
+            matrix.setLength(0);
+            //上一块的最后overlap个采样，是下一块的开头
+            int[] tail = new int[overlap];
+            while (done < frameCount && failure.get() == null) {
+                final Block block = free.take();
+                int frames = (int) Math.min(FRAMES_PER_BLOCK, frameCount - done);
+                int needed = frameSize + (frames - 1) * hop;
+                int filled;
+                if (done == 0) {
+                    filled = reader.read(block.samples, 0, needed, this.channel);
+                } else {
+                    System.arraycopy(tail, 0, block.samples, 0, overlap);
+                    filled = overlap + reader.read(block.samples, overlap, needed - overlap, this.channel);
+                }
+                if (filled < needed) {
+                    //文件比头里写的短
+                    frames = filled < frameSize ? 0 : (filled - frameSize) / hop + 1;
+                    if (frames == 0) {
+                        break;
+                    }
+                }
+                System.arraycopy(block.samples, frames * hop, tail, 0, overlap);
+                block.firstFrame = done;
+                block.frames = frames;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            process(block, engines, samplerate, channel, image);
+                            free.add(block);
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                            free.add(block);
+                        }
+                    }
+                });
+                done += frames;
+                if (filled < needed) {
+                    break;
+                }
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+            matrix.close();
+        }
+        Throwable e = failure.get();
+        if (e != null) {
+            throw new IOException("analysis failed", e);
+        }
+        image.write(new File(output + ".png"), (double) (1L << (reader.getBitPerSample() - 1)));
+        writeDescription(output + ".txt", done, samplerate, hop);
+        return done;
+    }
+
+    /**
+     * 计算线程：块内的帧依次处理，算完按位置写进矩阵文件
+     */
+    private void process(Block block, ArrayBlockingQueue<SpectrumEngine> engines, double samplerate,
+                         FileChannel channel, SpectrogramImage image) throws IOException, InterruptedException {
+        int frameSize = config.getFrameSize();
+        int hop = config.getHopSize();
+        int bands = block.row.length;
+        SpectrumEngine engine = engines.take();
+        try {
+            for (int j = 0; j < block.frames; j++) {
+                System.arraycopy(block.samples, j * hop, block.frame, 0, frameSize);
+                //每块的第一帧和前面不连续
+                engine.process(block.frame, j == 0 ? frameSize : hop, samplerate);
+                engine.getBandPowers(block.row);
+                System.arraycopy(block.row, 0, block.powers, j * bands, bands);
+            }
+        } finally {
+            engines.add(engine);
+        }
+        int count = block.frames * bands;
+        ByteBuffer bytes = block.bytes;
+        bytes.clear();
+        bytes.asFloatBuffer().put(block.powers, 0, count);
+        bytes.limit(count * 4);
+        long position = block.firstFrame * bands * 4;
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+        image.accumulate(block.firstFrame, block.frames, block.powers);
+    }
+
+    private void writeDescription(String file, long frames, double samplerate, int hop) throws IOException {
+        PrintWriter out = new PrintWriter(file, "UTF-8");
+        try {
+            out.println("frames=" + frames);
+            out.println("bands=" + config.getBandCount());
+            out.println("samplerate=" + samplerate);
+            out.println("hop=" + hop);
+            out.println("fftSize=" + config.getFftSize());
+            out.println("decimation=" + config.getDecimation());
+            out.println("window=" + config.getWindow());
+            out.println("format=float32 little endian, row major [frame][band], power = amplitude^2");
+            double[] centers = new DoubleSpectrumEngine(config).getBandFrequencies();
+            StringBuilder line = new StringBuilder("centers=");
+            for (int i = 0; i < centers.length; i++) {
+                line.append(i == 0 ? "" : ",").append(String.format("%.2f", centers[i]));
+            }
+            out.println(line);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        int channel = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int width = DEFAULT_MAX_WIDTH;
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("-"); i += 2) {
+                String value = args[i + 1];
+                if ("-fft".equals(args[i])) {
+                    config.setFftSize(Integer.parseInt(value));
+                } else if ("-decimation".equals(args[i])) {
+                    config.setDecimation(Integer.parseInt(value));
+                } else if ("-overlap".equals(args[i])) {
+                    config.setOverlap(Double.parseDouble(value));
+                } else if ("-window".equals(args[i])) {
+                    config.setWindow(WindowFunction.valueOf(value.toUpperCase()));
+                } else if ("-bands".equals(args[i])) {
+                    config.setBandCount(Integer.parseInt(value));
+                } else if ("-channel".equals(args[i])) {
+                    channel = Integer.parseInt(value);
+                } else if ("-threads".equals(args[i])) {
+                    threads = Integer.parseInt(value);
+                } else if ("-width".equals(args[i])) {
+                    width = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+            if (args.length - i != 2) {
+                throw new IllegalArgumentException("need input and output");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: BatchRenderer [-fft n] [-decimation n] [-overlap x] [-window name]"
+                    + " [-bands n] [-channel n] [-threads n] [-width n] input.wav output");
+            System.exit(1);
+            return;
+        }
+        long start = System.nanoTime();
+        BatchRenderer renderer = new BatchRenderer(config, channel, threads, width);
+        long frames = renderer.render(new File(args[i]), args[i + 1]);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(frames + " frames in " + String.format("%.2f", seconds) + "s");
+    }
+}
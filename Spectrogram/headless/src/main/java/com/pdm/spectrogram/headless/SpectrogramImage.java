@@ -0,0 +1,74 @@
+package com.pdm.spectrogram.headless;
+
+import com.pdm.spectrogram.utils.ColorMap;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * 整个文件的频谱图：横轴时间，纵轴频段(低频在下)，颜色为能量的分贝数
+ * 宽度有上限，帧数多于宽度时落在同一列的帧取最大值，内存只和图的大小有关，和文件长度无关
+ */
+class SpectrogramImage {
+    //每个频段画几个像素高
+    static final int ROW_HEIGHT = 4;
+
+    private final int width;
+    private final int bands;
+    private final long totalFrames;
+    //每一列每个频段的最大能量
+    private final float[] columns;
+
+    SpectrogramImage(int width, int bands, long totalFrames) {
+        this.width = Math.max(1, width);
+        this.bands = bands;
+        this.totalFrames = Math.max(1, totalFrames);
+        columns = new float[this.width * bands];
+    }
+
+    /**
+     * 把连续的frames帧的结果合并进来，可以在多个线程里调用
+     *
+     * @param firstFrame 第一帧的序号
+     * @param powers     frames * bands个能量，按帧排列
+     */
+    synchronized void accumulate(long firstFrame, int frames, float[] powers) {
+        for (int j = 0; j < frames; j++) {
+            int column = (int) ((firstFrame + j) * width / totalFrames);
+            int c = column * bands;
+            int p = j * bands;
+            for (int b = 0; b < bands; b++) {
+                if (powers[p + b] > columns[c + b]) {
+                    columns[c + b] = powers[p + b];
+                }
+            }
+        }
+    }
+
+    /**
+     * @param fullScale 满幅度，16位时为32768
+     */
+    void write(File file, double fullScale) throws IOException {
+        int height = bands * ROW_HEIGHT;
+        int[] pixels = new int[width * height];
+        //和app的瀑布图用同一套颜色
+        ColorMap colorMap = new ColorMap(fullScale);
+        for (int x = 0; x < width; x++) {
+            for (int b = 0; b < bands; b++) {
+                int color = colorMap.color(columns[x * bands + b]);
+                int top = (bands - 1 - b) * ROW_HEIGHT;
+                for (int y = top; y < top + ROW_HEIGHT; y++) {
+                    pixels[y * width + x] = color;
+                }
+            }
+        }
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("no png writer");
+        }
+    }
+}
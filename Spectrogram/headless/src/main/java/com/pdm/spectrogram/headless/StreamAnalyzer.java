@@ -0,0 +1,317 @@
+package com.pdm.spectrogram.headless;
+
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.engine.FloatSpectrumEngine;
+import com.pdm.spectrogram.engine.SampleRing;
+import com.pdm.spectrogram.engine.SpectrumEngine;
+import com.pdm.spectrogram.utils.ColorMap;
+import com.pdm.spectrogram.utils.PcmDecoder;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 服务端同时分析很多路音频流：每一路有自己的环形缓存、引擎(事先建好的FFT计划和临时数组)和一个重复使用的任务，
+ * 所有的路共用一个ForkJoinPool，哪个线程空了就去偷别的线程的任务，能同时跟上的路数随核数近似线性增加
+ * 调度线程每TICK_NANOS检查一遍，攒够一帧的路把它的任务交给线程池；任务一次算完攒下的所有帧，
+ * 帧之间严格前进hop个采样，一帧不跳；同一路同时只有一个任务在算，稳定运行后每帧不分配内存
+ * 每帧的结果是每个声道每个频段的能量，另外量化成一个字节(ColorMap的级数，0为-100dB，255为满幅度)，方便发出去或者存起来
+ */
+public class StreamAnalyzer {
+    /**
+     * 一路算完一帧，在线程池的线程里回调，同一路的回调不会同时发生，应该尽快返回
+     */
+    public interface Listener {
+        void onFrame(Stream stream);
+    }
+
+    //调度线程检查的间隔
+    private static final long TICK_NANOS = 2000000L;
+
+    private final AnalysisConfig config;
+    private final boolean floatPrecision;
+    private final Listener listener;
+    private final ForkJoinPool pool;
+    //增删时整个换掉，调度线程遍历时不用加锁也不分配
+    private volatile Stream[] streams = new Stream[0];
+    private volatile Thread thread;
+
+    /**
+     * 一路音频流，producer往getRing()里写交错排列的采样
+     */
+    public final class Stream {
+        private final Object tag;
+        private final double samplerate;
+        private final int channels;
+        private final int hop;
+        private final int frameSize;
+        private final SampleRing ring;
+        private final SpectrumEngine[] engines;
+        //多声道时每个声道拆出来的一帧
+        private final int[][] planes;
+        private final float[] row;
+        private final float[] powers;
+        private final byte[] levels;
+        private final ColorMap levelMap;
+        private final Task task = new Task();
+        //只有调度线程读写
+        private boolean submitted = false;
+        private volatile boolean closed = false;
+        //下一帧还要攒多少个新采样(交错后)，第一帧要攒满一整帧
+        private volatile int needed;
+        //下面的只在任务里读写
+        private long frameIndex = -1;
+        private long dropped = 0;
+        private long discontinuities = 0;
+
+        Stream(Object tag, double samplerate, int channels, int bits, int capacity) {
+            this.tag = tag;
+            this.samplerate = samplerate;
+            this.channels = channels;
+            hop = config.getHopSize() * channels;
+            frameSize = config.getFrameSize() * channels;
+            ring = new SampleRing(capacity, frameSize);
+            engines = new SpectrumEngine[channels];
+            for (int c = 0; c < channels; c++) {
+                engines[c] = floatPrecision ? new FloatSpectrumEngine(config) : new DoubleSpectrumEngine(config);
+            }
+            int bands = config.getBandCount();
+            planes = channels > 1 ? new int[channels][config.getFrameSize()] : null;
+            row = new float[bands];
+            powers = new float[channels * bands];
+            levels = new byte[channels * bands];
+            levelMap = new ColorMap(PcmDecoder.forBits(bits).getFullScale());
+            needed = frameSize;
+        }
+
+        /**
+         * 在线程池里：算完所有攒够的帧
+         */
+        private final class Task extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                while (!closed && ring.available() >= needed) {
+                    ring.advance(needed);
+                    long nowDropped = ring.getDropped();
+                    //生产者丢过数据，分频滤波器要从头开始
+                    boolean continuous = frameIndex >= 0 && nowDropped == dropped;
+                    if (frameIndex >= 0 && !continuous) {
+                        discontinuities++;
+                    }
+                    dropped = nowDropped;
+                    analyze(ring.array(), ring.windowOffset(), continuous ? hop / channels : frameSize);
+                    frameIndex++;
+                    needed = hop;
+                    listener.onFrame(Stream.this);
+                }
+            }
+        }
+
+        private void analyze(int[] buf, int offset, int newSamples) {
+            int bands = row.length;
+            if (channels == 1) {
+                engines[0].process(buf, offset, newSamples, samplerate);
+                engines[0].getBandPowers(powers);
+            } else {
+                int frames = frameSize / channels;
+                for (int c = 0; c < channels; c++) {
+                    int[] plane = planes[c];
+                    for (int i = 0, j = offset + c; i < frames; i++, j += channels) {
+                        plane[i] = buf[j];
+                    }
+                    engines[c].process(plane, 0, Math.min(newSamples, frames), samplerate);
+                    engines[c].getBandPowers(row);
+                    System.arraycopy(row, 0, powers, c * bands, bands);
+                }
+            }
+            for (int i = 0; i < powers.length; i++) {
+                levels[i] = (byte) levelMap.index(powers[i]);
+            }
+        }
+
+        /**
+         * 调度线程：上一个任务算完了而且攒够了一帧就再交给线程池
+         */
+        void poll() {
+            if (submitted) {
+                if (!task.isDone()) {
+                    return;
+                }
+                if (task.isCompletedAbnormally()) {
+                    task.getException().printStackTrace();
+                    closed = true;
+                    return;
+                }
+            }
+            if (!closed && ring.available() >= needed) {
+                task.reinitialize();
+                submitted = true;
+                pool.execute(task);
+            }
+        }
+
+        /**
+         * addStream时传的标记，比如NetworkStream
+         */
+        public Object getTag() {
+            return tag;
+        }
+
+        public double getSampleRate() {
+            return samplerate;
+        }
+
+        public int getChannels() {
+            return channels;
+        }
+
+        /**
+         * producer往这里写，它是唯一的生产者
+         */
+        public SampleRing getRing() {
+            return ring;
+        }
+
+        /**
+         * 帧之间前进的采样数(每个声道)
+         */
+        public int getHop() {
+            return hop / channels;
+        }
+
+        /**
+         * 当前这一帧的序号，第n帧结束在第getFrameSize() + n * getHop()个采样(每个声道)
+         */
+        public long getFrameIndex() {
+            return frameIndex;
+        }
+
+        /**
+         * 生产者丢过数据、前后不连续的次数
+         */
+        public long getDiscontinuities() {
+            return discontinuities;
+        }
+
+        /**
+         * 已经收到还没算的采样数(交错后)，一直增加说明跟不上
+         */
+        public long getBacklog() {
+            return ring.available();
+        }
+
+        /**
+         * 当前这一帧每个声道每个频段的能量，按声道分组，只在onFrame里有效
+         */
+        public float[] getPowers() {
+            return powers;
+        }
+
+        /**
+         * getPowers()量化成一个字节，0到255(当作无符号数)，只在onFrame里有效
+         */
+        public byte[] getLevels() {
+            return levels;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+    /**
+     * @param config         每一路的分析参数，之后再改不影响已经加进来的路
+     * @param parallelism    线程池的线程数，一般是核数
+     * @param floatPrecision true=用FloatSpectrumEngine
+     */
+    public StreamAnalyzer(AnalysisConfig config, int parallelism, boolean floatPrecision, Listener listener) {
+        this.config = config;
+        this.floatPrecision = floatPrecision;
+        this.listener = listener;
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * 加一路，可以在任何线程里随时调用
+     *
+     * @param tag      随便什么标记，用getTag取
+     * @param bits     采样位数，用来量化成字节
+     * @param capacity 环形缓存能放的采样数(交错后)，会取到至少两帧
+     */
+    public Stream addStream(Object tag, double samplerate, int channels, int bits, int capacity) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("channels must be positive: " + channels);
+        }
+        Stream stream = new Stream(tag, samplerate, channels, bits, capacity);
+        synchronized (this) {
+            Stream[] old = streams;
+            Stream[] updated = Arrays.copyOf(old, old.length + 1);
+            updated[old.length] = stream;
+            streams = updated;
+        }
+        return stream;
+    }
+
+    /**
+     * 去掉一路，正在算的那一帧算完后不再回调
+     */
+    public void removeStream(Stream stream) {
+        stream.closed = true;
+        synchronized (this) {
+            Stream[] old = streams;
+            for (int i = 0; i < old.length; i++) {
+                if (old[i] == stream) {
+                    Stream[] updated = new Stream[old.length - 1];
+                    System.arraycopy(old, 0, updated, 0, i);
+                    System.arraycopy(old, i + 1, updated, i, old.length - i - 1);
+                    streams = updated;
+                    return;
+                }
+            }
+        }
+    }
+
+    public int getStreamCount() {
+        return streams.length;
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("already started");
+        }
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (thread == Thread.currentThread()) {
+                    for (Stream stream : streams) {
+                        stream.poll();
+                    }
+                    LockSupport.parkNanos(TICK_NANOS);
+                }
+            }
+        }, "StreamAnalyzer");
+        thread.start();
+    }
+
+    /**
+     * 停止调度，等正在算的帧算完，之后不能再start
+     */
+    public void stop() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.join();
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,185 @@
+package com.pdm.spectrogram.headless;
+
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.SampleRing;
+import com.pdm.spectrogram.engine.WindowFunction;
+import com.pdm.spectrogram.source.NetworkReceiver;
+import com.pdm.spectrogram.source.NetworkStream;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 服务模式：在TCP/UDP端口上收很多路PCM流(格式见PcmStreamProtocol)，交给StreamAnalyzer并行分析，
+ * 每秒打印一次路数和算完的帧数
+ * 指定-out时每帧写一条记录(小端)：流的编号(int)、帧的序号(long)、字节数(short)，之后是每个声道每个频段一个字节的能量级数
+ * 运行：./gradlew :headless:runServer -Pargs="-tcp 9000 -udp 9001"
+ */
+public class StreamServer {
+    //每一路环形缓存能放几帧
+    static final int RING_FRAMES = 8;
+    //记录的头：编号、帧序号、字节数
+    private static final int RECORD_HEADER = 14;
+
+    private final StreamAnalyzer analyzer;
+    private final NetworkReceiver receiver;
+    private final FileChannel out;
+    private final AnalysisConfig config;
+    private final AtomicLong frames = new AtomicLong();
+    //只在接收线程里用
+    private final HashMap<NetworkStream, StreamAnalyzer.Stream> streams
+            = new HashMap<NetworkStream, StreamAnalyzer.Stream>();
+
+    /**
+     * @param out 写记录的文件，null表示不写
+     */
+    public StreamServer(AnalysisConfig config, int threads, FileChannel out) throws IOException {
+        this.config = config;
+        this.out = out;
+        analyzer = new StreamAnalyzer(config, threads, false, new StreamAnalyzer.Listener() {
+            //每个线程一个写记录的缓存
+            private final ThreadLocal<ByteBuffer> records = new ThreadLocal<ByteBuffer>();
+
+            @Override
+            public void onFrame(StreamAnalyzer.Stream stream) {
+                frames.incrementAndGet();
+                if (StreamServer.this.out != null) {
+                    write(stream, records);
+                }
+            }
+        });
+        receiver = new NetworkReceiver(new NetworkReceiver.Listener() {
+            @Override
+            public SampleRing onStreamOpened(NetworkStream network) {
+                int size = StreamServer.this.config.getFrameSize() * network.getChannels();
+                StreamAnalyzer.Stream stream = analyzer.addStream(network, network.getSampleRate(),
+                        network.getChannels(), network.getBitsPerSample(), RING_FRAMES * size);
+                streams.put(network, stream);
+                return stream.getRing();
+            }
+
+            @Override
+            public void onStreamClosed(NetworkStream network) {
+                StreamAnalyzer.Stream stream = streams.remove(network);
+                if (stream != null) {
+                    analyzer.removeStream(stream);
+                }
+            }
+        });
+    }
+
+    private void write(StreamAnalyzer.Stream stream, ThreadLocal<ByteBuffer> records) {
+        byte[] levels = stream.getLevels();
+        ByteBuffer record = records.get();
+        if (record == null || record.capacity() < RECORD_HEADER + levels.length) {
+            record = ByteBuffer.allocateDirect(RECORD_HEADER + levels.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            records.set(record);
+        }
+        record.clear();
+        record.putInt(((NetworkStream) stream.getTag()).getId()).putLong(stream.getFrameIndex())
+                .putShort((short) levels.length).put(levels);
+        record.flip();
+        try {
+            //FileChannel.write是线程安全的，一条记录一次写完不会和别的线程交错
+            while (record.hasRemaining()) {
+                out.write(record);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int bindTcp(int port) throws IOException {
+        return receiver.bindTcp(port);
+    }
+
+    public int bindUdp(int port) throws IOException {
+        return receiver.bindUdp(port);
+    }
+
+    public void start() {
+        analyzer.start();
+        receiver.start();
+    }
+
+    public void stop() throws InterruptedException {
+        receiver.stop();
+        analyzer.stop();
+    }
+
+    public long getFrames() {
+        return frames.get();
+    }
+
+    public int getStreamCount() {
+        return analyzer.getStreamCount();
+    }
+
+    public static void main(String[] args) throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int tcp = -1;
+        int udp = -1;
+        String output = null;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("missing value for " + args[i]);
+                }
+                String value = args[i + 1];
+                if ("-tcp".equals(args[i])) {
+                    tcp = Integer.parseInt(value);
+                } else if ("-udp".equals(args[i])) {
+                    udp = Integer.parseInt(value);
+                } else if ("-out".equals(args[i])) {
+                    output = value;
+                } else if ("-fft".equals(args[i])) {
+                    config.setFftSize(Integer.parseInt(value));
+                } else if ("-decimation".equals(args[i])) {
+                    config.setDecimation(Integer.parseInt(value));
+                } else if ("-overlap".equals(args[i])) {
+                    config.setOverlap(Double.parseDouble(value));
+                } else if ("-window".equals(args[i])) {
+                    config.setWindow(WindowFunction.valueOf(value.toUpperCase()));
+                } else if ("-bands".equals(args[i])) {
+                    config.setBandCount(Integer.parseInt(value));
+                } else if ("-threads".equals(args[i])) {
+                    threads = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+            }
+            if (tcp < 0 && udp < 0) {
+                throw new IllegalArgumentException("need -tcp or -udp");
+            }
+        } catch (RuntimeException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: StreamServer [-tcp port] [-udp port] [-out file] [-fft n] [-decimation n]"
+                    + " [-overlap x] [-window name] [-bands n] [-threads n]");
+            System.exit(1);
+            return;
+        }
+        FileChannel out = output == null ? null : new FileOutputStream(output).getChannel();
+        StreamServer server = new StreamServer(config, threads, out);
+        if (tcp >= 0) {
+            System.out.println("tcp " + server.bindTcp(tcp));
+        }
+        if (udp >= 0) {
+            System.out.println("udp " + server.bindUdp(udp));
+        }
+        server.start();
+        long last = 0;
+        while (true) {
+            Thread.sleep(1000);
+            long now = server.getFrames();
+            System.out.println(server.getStreamCount() + " streams, " + (now - last) + " frames/s");
+            last = now;
+        }
+    }
+}
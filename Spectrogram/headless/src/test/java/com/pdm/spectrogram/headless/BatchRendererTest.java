@@ -0,0 +1,120 @@
+package com.pdm.spectrogram.headless;
+
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.utils.WavFixture;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * 离线批处理：多线程分块算、乱序按位置写出来的矩阵要和单线程按顺序算的一模一样
+ */
+public class BatchRendererTest {
+    private static final int SAMPLERATE = 44100;
+    private static final double TONE = 3000;
+
+    static int sample(int i) {
+        return (int) (20000 * Math.sin(2 * Math.PI * TONE * i / SAMPLERATE));
+    }
+
+    /**
+     * 16位单声道的正弦波
+     */
+    static File wav(int samples) throws IOException {
+        int[] tone = new int[samples];
+        for (int i = 0; i < samples; i++) {
+            tone[i] = sample(i);
+        }
+        return WavFixture.file("batch", WavFixture.wav16(SAMPLERATE, 1, tone));
+    }
+
+    private static AnalysisConfig config() {
+        AnalysisConfig config = new AnalysisConfig();
+        config.setFftSize(1024);
+        config.setDecimation(2);
+        return config;
+    }
+
+    @Test
+    public void render_matchesSequentialAnalysis() throws Exception {
+        AnalysisConfig config = config();
+        int frameSize = config.getFrameSize();
+        int hop = config.getHopSize();
+        int bands = config.getBandCount();
+        //不是整数块，最后一块不满
+        int frames = 3 * BatchRenderer.FRAMES_PER_BLOCK + 17;
+        int samples = frameSize + (frames - 1) * hop + hop / 2;
+        File input = wav(samples);
+        String output = input.getPath() + ".out";
+
+        long done = new BatchRenderer(config, 0, 3, 100).render(input, output);
+        assertEquals(frames, done);
+
+        RandomAccessFile matrix = new RandomAccessFile(output + ".f32", "r");
+        assertEquals((long) frames * bands * 4, matrix.length());
+        byte[] bytes = new byte[(int) matrix.length()];
+        matrix.readFully(bytes);
+        matrix.close();
+        ByteBuffer values = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        DoubleSpectrumEngine engine = new DoubleSpectrumEngine(config);
+        double[] centers = engine.getBandFrequencies();
+        int toneBand = 0;
+        for (int b = 1; b < bands; b++) {
+            if (Math.abs(Math.log(centers[b] / TONE)) < Math.abs(Math.log(centers[toneBand] / TONE))) {
+                toneBand = b;
+            }
+        }
+        int[] frame = new int[frameSize];
+        float[] expected = new float[bands];
+        for (int j = 0; j < frames; j++) {
+            for (int i = 0; i < frameSize; i++) {
+                frame[i] = sample(j * hop + i);
+            }
+            //每块的第一帧从头算，块内后面的帧只处理新进来的采样
+            engine.process(frame, j % BatchRenderer.FRAMES_PER_BLOCK == 0 ? frameSize : hop, SAMPLERATE);
+            engine.getBandPowers(expected);
+            int peak = 0;
+            for (int b = 0; b < bands; b++) {
+                float actual = values.getFloat((j * bands + b) * 4);
+                assertEquals("frame " + j + " band " + b, expected[b], actual, 0);
+                if (actual > values.getFloat((j * bands + peak) * 4)) {
+                    peak = b;
+                }
+            }
+            assertEquals(toneBand, peak);
+        }
+
+        //帧数多于宽度，宽度取上限
+        BufferedImage image = ImageIO.read(new File(output + ".png"));
+        assertEquals(100, image.getWidth());
+        assertEquals(bands * SpectrogramImage.ROW_HEIGHT, image.getHeight());
+        assertTrue(new File(output + ".txt").length() > 0);
+        new File(output + ".f32").delete();
+        new File(output + ".png").delete();
+        new File(output + ".txt").delete();
+    }
+
+    @Test
+    public void render_shortFileHasNoFrames() throws Exception {
+        AnalysisConfig config = config();
+        File input = wav(config.getFrameSize() - 1);
+        String output = input.getPath() + ".out";
+        assertEquals(0, new BatchRenderer(config, 0, 2, 100).render(input, output));
+        assertEquals(0, new File(output + ".f32").length());
+        new File(output + ".f32").delete();
+        new File(output + ".png").delete();
+        new File(output + ".txt").delete();
+    }
+}
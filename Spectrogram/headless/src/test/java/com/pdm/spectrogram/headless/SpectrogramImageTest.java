@@ -0,0 +1,55 @@
+package com.pdm.spectrogram.headless;
+
+import com.pdm.spectrogram.utils.ColorMap;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * 帧数多于宽度时每一列取落在它上面的帧的最大值
+ */
+public class SpectrogramImageTest {
+    @Test
+    public void accumulate_keepsMaximumPerColumn() throws Exception {
+        //6帧画成3列，每列两帧；2个频段，低频在下
+        SpectrogramImage image = new SpectrogramImage(3, 2, 6);
+        float[] powers = {
+                1e2f, 1e6f,
+                1e4f, 1e3f,
+                1e8f, 1f,
+                1e3f, 1e2f,
+                1e5f, 1e7f,
+                1e1f, 1e9f,
+        };
+        //分两次、乱序合并，结果一样
+        float[] tail = new float[4 * 2];
+        System.arraycopy(powers, 2 * 2, tail, 0, tail.length);
+        image.accumulate(2, 4, tail);
+        image.accumulate(0, 2, powers);
+
+        File file = File.createTempFile("image", ".png");
+        file.deleteOnExit();
+        image.write(file, 32768);
+        BufferedImage png = ImageIO.read(file);
+        assertEquals(3, png.getWidth());
+        assertEquals(2 * SpectrogramImage.ROW_HEIGHT, png.getHeight());
+
+        ColorMap colors = new ColorMap(32768);
+        float[][] expected = {{1e4f, 1e6f}, {1e8f, 1e2f}, {1e5f, 1e9f}};
+        for (int x = 0; x < 3; x++) {
+            for (int b = 0; b < 2; b++) {
+                int y = (2 - 1 - b) * SpectrogramImage.ROW_HEIGHT;
+                for (int dy = 0; dy < SpectrogramImage.ROW_HEIGHT; dy++) {
+                    assertEquals("column " + x + " band " + b, colors.color(expected[x][b]) & 0xFFFFFF,
+                            png.getRGB(x, y + dy) & 0xFFFFFF);
+                }
+            }
+        }
+    }
+}
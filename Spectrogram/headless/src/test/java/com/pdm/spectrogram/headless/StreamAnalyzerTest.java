@@ -0,0 +1,220 @@
+package com.pdm.spectrogram.headless;
+
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.engine.SampleRing;
+import com.pdm.spectrogram.utils.ColorMap;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 多路分析：帧严格按hop前进、同一路同时只有一个任务、生产者丢数据后重新开始
+ */
+public class StreamAnalyzerTest {
+    private static final double SAMPLERATE = 44100;
+
+    /**
+     * 记下每一路每一帧的结果，同时检查同一路的回调有没有重叠
+     */
+    private static final class Recorder implements StreamAnalyzer.Listener {
+        final Semaphore ready = new Semaphore(0);
+        final List<Long> indices = new ArrayList<Long>();
+        final List<float[]> powers = new ArrayList<float[]>();
+        final List<byte[]> levels = new ArrayList<byte[]>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        volatile boolean overlapped = false;
+
+        @Override
+        public void onFrame(StreamAnalyzer.Stream stream) {
+            if (inFlight.incrementAndGet() != 1) {
+                overlapped = true;
+            }
+            synchronized (this) {
+                indices.add(stream.getFrameIndex());
+                powers.add(stream.getPowers().clone());
+                levels.add(stream.getLevels().clone());
+            }
+            inFlight.decrementAndGet();
+            ready.release();
+        }
+    }
+
+    private StreamAnalyzer analyzer;
+
+    @After
+    public void tearDown() throws Exception {
+        if (analyzer != null) {
+            analyzer.stop();
+        }
+    }
+
+    private static AnalysisConfig config() {
+        AnalysisConfig config = new AnalysisConfig();
+        config.setFftSize(1024);
+        config.setDecimation(2);
+        return config;
+    }
+
+    static int tone(long i, double frequency) {
+        return (int) (20000 * Math.sin(2 * Math.PI * frequency * i / SAMPLERATE));
+    }
+
+    /**
+     * 把交错后第from到to个采样写进环形缓存，每次写一小段(和hop不对齐)，放不下时等分析线程腾地方
+     */
+    private static void feed(SampleRing ring, int channels, double frequency, long from, long to) throws Exception {
+        int[] block = new int[300 * channels];
+        for (long p = from; p < to; ) {
+            int n = (int) Math.min(block.length, to - p);
+            for (int i = 0; i < n; i++) {
+                long s = p + i;
+                //多声道时只有第一个声道有信号
+                block[i] = s % channels == 0 ? tone(s / channels, frequency) : 0;
+            }
+            while (ring.free() < n) {
+                Thread.sleep(1);
+            }
+            assertTrue(ring.write(block, 0, n));
+            p += n;
+        }
+    }
+
+    private static int toneBand(double[] centers, double frequency) {
+        int best = 0;
+        for (int b = 1; b < centers.length; b++) {
+            if (Math.abs(Math.log(centers[b] / frequency)) < Math.abs(Math.log(centers[best] / frequency))) {
+                best = b;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 单线程按同样的hop算一遍第frame帧，fresh为true时整帧重新算
+     */
+    private static float[] reference(DoubleSpectrumEngine engine, double frequency, int frame, int hop,
+                                     boolean fresh) {
+        int[] buf = new int[engine.getFrameSize()];
+        for (int i = 0; i < buf.length; i++) {
+            buf[i] = tone((long) frame * hop + i, frequency);
+        }
+        engine.process(buf, fresh ? buf.length : hop, SAMPLERATE);
+        float[] out = new float[engine.getBandCount()];
+        engine.getBandPowers(out);
+        return out;
+    }
+
+    @Test
+    public void stream_drainsEveryFrameOnTheHopGrid() throws Exception {
+        AnalysisConfig config = config();
+        int frameSize = config.getFrameSize();
+        int hop = config.getHopSize();
+        int bands = config.getBandCount();
+        Recorder recorder = new Recorder();
+        analyzer = new StreamAnalyzer(config, 4, false, recorder);
+        StreamAnalyzer.Stream stream = analyzer.addStream("a", SAMPLERATE, 1, 16, 3 * frameSize);
+        analyzer.start();
+
+        int frames = 40;
+        //多出半个hop，不够再算一帧
+        feed(stream.getRing(), 1, 3000, 0, frameSize + (frames - 1) * hop + hop / 2);
+        assertTrue(recorder.ready.tryAcquire(frames, 10, TimeUnit.SECONDS));
+        assertFalse(recorder.ready.tryAcquire(200, TimeUnit.MILLISECONDS));
+        assertFalse(recorder.overlapped);
+        assertEquals(0, stream.getDiscontinuities());
+        assertEquals(hop, stream.getHop());
+
+        DoubleSpectrumEngine engine = new DoubleSpectrumEngine(config);
+        int band = toneBand(engine.getBandFrequencies(), 3000);
+        ColorMap levels = new ColorMap(32768);
+        for (int j = 0; j < frames; j++) {
+            assertEquals(j, (long) recorder.indices.get(j));
+            float[] expected = reference(engine, 3000, j, hop, j == 0);
+            float[] actual = recorder.powers.get(j);
+            assertArrayEquals("frame " + j, expected, actual, 0);
+            int peak = 0;
+            for (int b = 0; b < bands; b++) {
+                if (actual[b] > actual[peak]) {
+                    peak = b;
+                }
+                assertEquals(levels.index(actual[b]), recorder.levels.get(j)[b] & 0xFF);
+            }
+            assertEquals(band, peak);
+        }
+    }
+
+    @Test
+    public void stream_restartsAfterProducerDrops() throws Exception {
+        AnalysisConfig config = config();
+        int frameSize = config.getFrameSize();
+        int hop = config.getHopSize();
+        Recorder recorder = new Recorder();
+        analyzer = new StreamAnalyzer(config, 2, false, recorder);
+        StreamAnalyzer.Stream stream = analyzer.addStream("a", SAMPLERATE, 1, 16, 4 * frameSize);
+        SampleRing ring = stream.getRing();
+        analyzer.start();
+
+        long end = frameSize + 2 * hop;
+        feed(ring, 1, 1000, 0, end);
+        assertTrue(recorder.ready.tryAcquire(3, 10, TimeUnit.SECONDS));
+        //生产者报告丢了数据，下一帧不能接着上一帧的滤波器状态算
+        ring.drop(100);
+        feed(ring, 1, 1000, end, end + 2 * hop);
+        assertTrue(recorder.ready.tryAcquire(2, 10, TimeUnit.SECONDS));
+        assertEquals(1, stream.getDiscontinuities());
+        assertEquals(4, stream.getFrameIndex());
+
+        DoubleSpectrumEngine engine = new DoubleSpectrumEngine(config);
+        for (int j = 0; j < 5; j++) {
+            assertEquals(j, (long) recorder.indices.get(j));
+            assertArrayEquals("frame " + j, reference(engine, 1000, j, hop, j == 0 || j == 3),
+                    recorder.powers.get(j), 0);
+        }
+    }
+
+    @Test
+    public void stream_splitsInterleavedChannels() throws Exception {
+        AnalysisConfig config = config();
+        int frameSize = config.getFrameSize();
+        int hop = config.getHopSize();
+        int bands = config.getBandCount();
+        Recorder recorder = new Recorder();
+        analyzer = new StreamAnalyzer(config, 2, false, recorder);
+        StreamAnalyzer.Stream stream = analyzer.addStream("stereo", SAMPLERATE, 2, 16, 6 * frameSize);
+        analyzer.start();
+
+        int frames = 6;
+        feed(stream.getRing(), 2, 5000, 0, 2L * (frameSize + (frames - 1) * hop));
+        assertTrue(recorder.ready.tryAcquire(frames, 10, TimeUnit.SECONDS));
+
+        DoubleSpectrumEngine engine = new DoubleSpectrumEngine(config);
+        for (int j = 0; j < frames; j++) {
+            float[] actual = recorder.powers.get(j);
+            assertEquals(2 * bands, actual.length);
+            float[] left = new float[bands];
+            System.arraycopy(actual, 0, left, 0, bands);
+            assertArrayEquals("frame " + j, reference(engine, 5000, j, hop, j == 0), left, 0);
+            //第二个声道没有信号
+            for (int b = bands; b < 2 * bands; b++) {
+                assertEquals(0, actual[b], 0);
+                assertEquals(0, recorder.levels.get(j)[b]);
+            }
+        }
+    }
+
+    @Test
+    public void addStream_accepts32BitStreams() throws Exception {
+        analyzer = new StreamAnalyzer(config(), 1, false, new Recorder());
+        analyzer.addStream("wide", SAMPLERATE, 1, 32, 8192);
+        assertEquals(1, analyzer.getStreamCount());
+    }
+}
@@ -0,0 +1,98 @@
+package com.pdm.spectrogram.headless;
+
+import com.pdm.spectrogram.engine.AnalysisConfig;
+import com.pdm.spectrogram.engine.DoubleSpectrumEngine;
+import com.pdm.spectrogram.source.PcmStreamProtocol;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+
+/**
+ * 服务模式：TCP收到的流分析完，每帧写一条记录
+ */
+public class StreamServerTest {
+    private static final int SAMPLERATE = 44100;
+    private static final int PACKET = 1000;
+
+    @Test
+    public void tcp_writesOneRecordPerFrame() throws Exception {
+        AnalysisConfig config = new AnalysisConfig();
+        config.setFftSize(1024);
+        config.setDecimation(2);
+        int frameSize = config.getFrameSize();
+        int hop = config.getHopSize();
+        int bands = config.getBandCount();
+        File file = File.createTempFile("records", ".bin");
+        file.deleteOnExit();
+        FileOutputStream output = new FileOutputStream(file);
+        StreamServer server = new StreamServer(config, 2, output.getChannel());
+        int port = server.bindTcp(0);
+        server.start();
+
+        int frames = 5;
+        int samples = frameSize + (frames - 1) * hop;
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+        ByteBuffer out = ByteBuffer.allocate(PcmStreamProtocol.HEADER_SIZE + 2 * PACKET)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for (int p = 0, sequence = 0; p < samples; p += PACKET, sequence++) {
+            int n = Math.min(PACKET, samples - p);
+            out.clear();
+            PcmStreamProtocol.putHeader(out, 7, sequence, SAMPLERATE, 1, 16, 2 * n);
+            for (int i = 0; i < n; i++) {
+                out.putShort((short) StreamAnalyzerTest.tone(p + i, 2000));
+            }
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+        //连接断开时这一路就去掉了，等全部算完再断
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getFrames() < frames && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, server.getStreamCount());
+        channel.close();
+        server.stop();
+        output.close();
+        assertEquals(frames, server.getFrames());
+
+        int record = 14 + bands;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        assertEquals((long) frames * record, in.length());
+        ByteBuffer records = ByteBuffer.allocate((int) in.length()).order(ByteOrder.LITTLE_ENDIAN);
+        in.getChannel().read(records, 0);
+        in.close();
+        double[] centers = new DoubleSpectrumEngine(config).getBandFrequencies();
+        int band = 0;
+        for (int b = 1; b < bands; b++) {
+            if (Math.abs(Math.log(centers[b] / 2000)) < Math.abs(Math.log(centers[band] / 2000))) {
+                band = b;
+            }
+        }
+        for (int j = 0; j < frames; j++) {
+            int r = j * record;
+            assertEquals(7, records.getInt(r));
+            //只有一路，按帧的顺序写
+            assertEquals(j, records.getLong(r + 4));
+            assertEquals(bands, records.getShort(r + 12));
+            int peak = 0;
+            for (int b = 0; b < bands; b++) {
+                if ((records.get(r + 14 + b) & 0xFF) > (records.get(r + 14 + peak) & 0xFF)) {
+                    peak = b;
+                }
+            }
+            assertEquals(band, peak);
+        }
+    }
+}